@@ -269,6 +269,7 @@ containing a value of this type.
         public static final int secondary_angle_button=0x7f0a005e;
         public static final int section_list_view=0x7f0a0035;
         public static final int setpiece_list_text=0x7f0a004b;
+        public static final int setpiece_thumbnail=0x7f0a0067;
         public static final int staircase_height_button=0x7f0a0050;
         public static final int staircase_length_button=0x7f0a004f;
         public static final int standard_design=0x7f0a0002;
@@ -341,7 +342,8 @@ containing a value of this type.
     }
     public static final class raw {
         public static final int empty=0x7f040000;
-        public static final int robot=0x7f040001;
+        public static final int materials=0x7f040001;
+        public static final int robot=0x7f040002;
     }
     public static final class string {
         public static final int add=0x7f050005;
@@ -496,6 +498,7 @@ containing a value of this type.
         public static final int set_num_steps=0x7f050047;
         public static final int set_piece_already_exists_do_you_want_to_overwrite=0x7f050089;
         public static final int set_piece_could_not_be_deleted=0x7f05008a;
+        public static final int set_piece_could_not_be_opened=0x7f0500bb;
         public static final int set_piece_could_not_be_saved=0x7f05008b;
         public static final int set_primary_angle=0x7f050059;
         public static final int set_secondary_angle=0x7f05005a;
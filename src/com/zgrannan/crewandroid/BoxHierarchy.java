@@ -0,0 +1,419 @@
+package com.zgrannan.crewandroid;
+
+/**
+ * A bounding volume hierarchy over the boxes of a set piece in 3D, for finding
+ * the boxes inside the view frustum and the box under a ray without looking
+ * at every box.
+ * <p>
+ * Each node of the tree bounds a run of boxes, and is split in two at the
+ * middle of its longest side until there are only a few boxes left. Boxes
+ * near each other end up under the same node, so a whole corner of a deck that
+ * is out of view is culled by testing a single node, and a node entirely in
+ * view has its boxes shown without testing them one by one. Like
+ * {@link PieceIndex}, the tree is kept in a few primitive arrays, and queries
+ * don't allocate anything.
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+final class BoxHierarchy {
+
+	/**
+	 * The most boxes in a leaf.
+	 */
+	private static final int LEAF_SIZE = 4;
+
+	/**
+	 * Deeper than any tree of boxes split in half each time can get.
+	 */
+	private static final int MAX_DEPTH = 64;
+
+	/**
+	 * The smallest and largest x, y and z of each box.
+	 */
+	private final float[] boxBounds;
+
+	/**
+	 * The boxes, in the order the nodes refer to them.
+	 */
+	private final int[] order;
+
+	/**
+	 * The smallest and largest x, y and z of each node.
+	 */
+	private final float[] nodeBounds;
+
+	/**
+	 * The first entry of {@link #order} under each node, and how many there
+	 * are.
+	 */
+	private final int[] nodeFirst, nodeCount;
+
+	/**
+	 * The second child of each node, or -1 if it is a leaf. The first child of
+	 * a node always comes right after it.
+	 */
+	private final int[] nodeRight;
+
+	private int nodes;
+
+	private final int[] stack = new int[MAX_DEPTH * 2];
+
+	/**
+	 * The planes of the frustum last culled against, as a, b, c, d with the
+	 * inside where ax + by + cz + d >= 0.
+	 */
+	private final float[] planes = new float[24];
+
+	/**
+	 * Builds a hierarchy.
+	 *
+	 * @param bounds
+	 *            The smallest x, y and z then the largest x, y and z of each
+	 *            box.
+	 */
+	BoxHierarchy(float[] bounds) {
+		boxBounds = bounds;
+		int count = bounds.length / 6;
+		order = new int[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		int maxNodes = Math.max(1, 2 * count);
+		nodeBounds = new float[maxNodes * 6];
+		nodeFirst = new int[maxNodes];
+		nodeCount = new int[maxNodes];
+		nodeRight = new int[maxNodes];
+		build(0, count);
+	}
+
+	/**
+	 * @return The boxes in the order the leaves of the tree hold them, so that
+	 *         boxes near each other come together.
+	 */
+	int[] leafOrder() {
+		return order.clone();
+	}
+
+	/**
+	 * Adds a node for the boxes in a run of {@link #order}, and the nodes
+	 * under it.
+	 *
+	 * @return The index of the node.
+	 */
+	private int build(int first, int count) {
+		int node = nodes++;
+		nodeFirst[node] = first;
+		nodeCount[node] = count;
+		nodeRight[node] = -1;
+
+		float[] centerBounds = new float[6];
+		for (int axis = 0; axis < 3; axis++) {
+			nodeBounds[node * 6 + axis] = Float.MAX_VALUE;
+			nodeBounds[node * 6 + axis + 3] = -Float.MAX_VALUE;
+			centerBounds[axis] = Float.MAX_VALUE;
+			centerBounds[axis + 3] = -Float.MAX_VALUE;
+		}
+		if (count == 0) {
+			for (int i = 0; i < 6; i++) {
+				nodeBounds[node * 6 + i] = 0;
+			}
+			return node;
+		}
+		for (int i = first; i < first + count; i++) {
+			int box = order[i];
+			for (int axis = 0; axis < 3; axis++) {
+				float min = boxBounds[box * 6 + axis];
+				float max = boxBounds[box * 6 + axis + 3];
+				float center = (min + max) / 2;
+				nodeBounds[node * 6 + axis] = Math.min(
+						nodeBounds[node * 6 + axis], min);
+				nodeBounds[node * 6 + axis + 3] = Math.max(nodeBounds[node
+						* 6 + axis + 3], max);
+				centerBounds[axis] = Math.min(centerBounds[axis], center);
+				centerBounds[axis + 3] = Math.max(centerBounds[axis + 3],
+						center);
+			}
+		}
+		if (count <= LEAF_SIZE) {
+			return node;
+		}
+
+		// Split across the longest side of the box around the centers
+		int axis = 0;
+		for (int i = 1; i < 3; i++) {
+			if (centerBounds[i + 3] - centerBounds[i] > centerBounds[axis + 3]
+					- centerBounds[axis]) {
+				axis = i;
+			}
+		}
+		int half = count / 2;
+		select(first, first + count - 1, first + half, axis);
+		build(first, half);
+		nodeRight[node] = build(first + half, count - half);
+		return node;
+	}
+
+	/**
+	 * @return Twice the center of a box along an axis, which sorts the same.
+	 */
+	private float center(int box, int axis) {
+		return boxBounds[box * 6 + axis] + boxBounds[box * 6 + axis + 3];
+	}
+
+	/**
+	 * Rearranges a run of {@link #order} so that the box at k has the boxes
+	 * with smaller centers along an axis before it, and the boxes with larger
+	 * centers after it.
+	 */
+	private void select(int left, int right, int k, int axis) {
+		while (left < right) {
+			float pivot = center(order[(left + right) >>> 1], axis);
+			int i = left, j = right;
+			while (i <= j) {
+				while (center(order[i], axis) < pivot) {
+					i++;
+				}
+				while (center(order[j], axis) > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					int swap = order[i];
+					order[i] = order[j];
+					order[j] = swap;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Finds the boxes inside or partly inside a view frustum.
+	 *
+	 * @param viewProjection
+	 *            The projection matrix times the model view matrix, in the
+	 *            column-major order OpenGL uses.
+	 * @param visible
+	 *            Gets stamp at the index of each box that is in view. Other
+	 *            entries are left alone.
+	 * @param stamp
+	 *            The value to mark the boxes in view with.
+	 */
+	void cull(float[] viewProjection, int[] visible, int stamp) {
+		float[] m = viewProjection;
+		for (int row = 0; row < 3; row++) {
+			for (int side = 0; side < 2; side++) {
+				float sign = side == 0 ? 1 : -1;
+				int plane = (row * 2 + side) * 4;
+				for (int column = 0; column < 4; column++) {
+					planes[plane + column] = m[column * 4 + 3] + sign
+							* m[column * 4 + row];
+				}
+			}
+		}
+
+		/*
+		 * Each entry on the stack is a node and the planes it may still
+		 * cross. A node inside a plane has its children inside it too.
+		 */
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = (1 << 6) - 1;
+		while (top > 0) {
+			int crossing = stack[--top];
+			int node = stack[--top];
+			if (nodeCount[node] == 0) {
+				continue;
+			}
+			boolean outside = false;
+			for (int p = 0; p < 6 && !outside; p++) {
+				if ((crossing & 1 << p) == 0) {
+					continue;
+				}
+				int result = classify(node * 6, nodeBounds, p * 4);
+				if (result < 0) {
+					outside = true;
+				} else if (result > 0) {
+					crossing &= ~(1 << p);
+				}
+			}
+			if (outside) {
+				continue;
+			}
+			if (crossing == 0 || nodeRight[node] == -1) {
+				for (int i = nodeFirst[node]; i < nodeFirst[node]
+						+ nodeCount[node]; i++) {
+					if (crossing == 0 || isInside(order[i], crossing)) {
+						visible[order[i]] = stamp;
+					}
+				}
+				continue;
+			}
+			stack[top++] = nodeRight[node];
+			stack[top++] = crossing;
+			stack[top++] = node + 1;
+			stack[top++] = crossing;
+		}
+	}
+
+	private boolean isInside(int box, int crossing) {
+		for (int p = 0; p < 6; p++) {
+			if ((crossing & 1 << p) != 0
+					&& classify(box * 6, boxBounds, p * 4) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return -1 if a box is entirely outside a plane, 1 if it is entirely
+	 *         inside it, and 0 if it crosses it.
+	 */
+	private int classify(int offset, float[] bounds, int plane) {
+		float far = planes[plane + 3], near = planes[plane + 3];
+		for (int axis = 0; axis < 3; axis++) {
+			float normal = planes[plane + axis];
+			float min = bounds[offset + axis] * normal;
+			float max = bounds[offset + axis + 3] * normal;
+			far += Math.max(min, max);
+			near += Math.min(min, max);
+		}
+		if (far < 0) {
+			return -1;
+		}
+		return near >= 0 ? 1 : 0;
+	}
+
+	/**
+	 * Decides exactly where a ray hits a box, once it is known to pass through
+	 * the box's bounds.
+	 */
+	interface Hit {
+
+		/**
+		 * @param box
+		 *            The index of a box whose bounds the ray passes through.
+		 * @return How far along the ray it hits the box, or a negative
+		 *         number if it misses it.
+		 */
+		float distance(int box);
+	}
+
+	/**
+	 * Finds the nearest box a ray hits. Of the two children of a node, the
+	 * one the ray enters first is walked first, so a near hit is found early
+	 * and the boxes behind it are passed over without testing their faces.
+	 *
+	 * @param origin
+	 *            The x, y and z where the ray starts.
+	 * @param direction
+	 *            The x, y and z of the direction of the ray.
+	 * @param hit
+	 *            Decides exactly where the ray hits each box whose bounds it
+	 *            passes through.
+	 * @return The index of the box, or -1 if the ray doesn't hit one.
+	 */
+	int pick(float[] origin, float[] direction, Hit hit) {
+		int best = -1;
+		float bestDistance = Float.MAX_VALUE;
+		int top = 0;
+		if (nodeCount[0] == 0
+				|| entry(0, nodeBounds, origin, direction) == Float.MAX_VALUE) {
+			return -1;
+		}
+
+		/*
+		 * Each entry on the stack is a node whose bounds the ray enters, and
+		 * how far along the ray it does, as float bits.
+		 */
+		stack[top++] = 0;
+		stack[top++] = Float.floatToRawIntBits(0);
+		while (top > 0) {
+			float enter = Float.intBitsToFloat(stack[--top]);
+			int node = stack[--top];
+			if (enter >= bestDistance) {
+				continue;
+			}
+			if (nodeRight[node] != -1) {
+				int near = node + 1, far = nodeRight[node];
+				float nearEnter = childEntry(near, origin, direction);
+				float farEnter = childEntry(far, origin, direction);
+				if (farEnter < nearEnter) {
+					int swap = near;
+					near = far;
+					far = swap;
+					float swapEnter = nearEnter;
+					nearEnter = farEnter;
+					farEnter = swapEnter;
+				}
+				// The nearer child is pushed last, so it is walked first
+				if (farEnter < bestDistance) {
+					stack[top++] = far;
+					stack[top++] = Float.floatToRawIntBits(farEnter);
+				}
+				if (nearEnter < bestDistance) {
+					stack[top++] = near;
+					stack[top++] = Float.floatToRawIntBits(nearEnter);
+				}
+				continue;
+			}
+			for (int i = nodeFirst[node]; i < nodeFirst[node] + nodeCount[node]; i++) {
+				int box = order[i];
+				if (entry(box * 6, boxBounds, origin, direction) >= bestDistance) {
+					continue;
+				}
+				float distance = hit.distance(box);
+				if (distance >= 0 && distance < bestDistance) {
+					best = box;
+					bestDistance = distance;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return How far along a ray it enters a node, or
+	 *         {@link Float#MAX_VALUE} if it misses it or the node is empty.
+	 */
+	private float childEntry(int node, float[] origin, float[] direction) {
+		return nodeCount[node] == 0 ? Float.MAX_VALUE : entry(node * 6,
+				nodeBounds, origin, direction);
+	}
+
+	/**
+	 * @return How far along a ray it enters a box, or
+	 *         {@link Float#MAX_VALUE} if it misses it.
+	 */
+	private static float entry(int offset, float[] bounds, float[] origin,
+			float[] direction) {
+		float enter = 0, exit = Float.MAX_VALUE;
+		for (int axis = 0; axis < 3; axis++) {
+			float min = bounds[offset + axis], max = bounds[offset + axis + 3];
+			if (direction[axis] == 0) {
+				if (origin[axis] < min || origin[axis] > max) {
+					return Float.MAX_VALUE;
+				}
+				continue;
+			}
+			float t0 = (min - origin[axis]) / direction[axis];
+			float t1 = (max - origin[axis]) / direction[axis];
+			enter = Math.max(enter, Math.min(t0, t1));
+			exit = Math.min(exit, Math.max(t0, t1));
+			if (enter > exit) {
+				return Float.MAX_VALUE;
+			}
+		}
+		return enter;
+	}
+}
@@ -19,6 +19,8 @@ import com.zgrannan.crewandroid.Util.Instruction;
  */
 public class BroadFrag extends PlatTypeFrag {
 
+	private static final long serialVersionUID = 1L;
+
 	@Override
 	protected int getCrossbeams() {
 		return (int) (length.toDouble() / 40);
@@ -0,0 +1,421 @@
+package com.zgrannan.crewandroid;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import android.content.Context;
+import android.content.pm.PackageManager.NameNotFoundException;
+
+import com.zgrannan.crewandroid.Frag.TemplateKey;
+import com.zgrannan.crewandroid.Util.Dimension;
+
+/**
+ * Keeps the fragments of set pieces that have been built in the application's
+ * cache directory, so that opening the same set piece again doesn't have to
+ * build it.
+ * <p>
+ * Entries are named after a hash of the set piece as written by
+ * {@link BuildableCodec#encodeSpec(Buildable)}, which holds everything that
+ * decides how it is built. Most fragments in a large set piece are copies of a
+ * few distinct ones, so an entry only holds one of each distinct fragment,
+ * with the place of every fragment in the grid. Reading an entry back just
+ * copies the fragments into place, as {@link Frag#make(Context, Buildable,
+ * Class)} does once it has built them. The instructions and cutlist are worked
+ * out from the fragments, which is quick.
+ * <p>
+ * The instructions of the fragments are written in the language of the
+ * device, so entries are kept apart by locale as well, in their names and
+ * their headers. After the language is changed, set pieces are built again in
+ * the new language.
+ * <p>
+ * Entries are written on a background thread. They are thrown away when the
+ * application is upgraded, or when {@link #GENERATOR_VERSION} changes.
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+final class BuildArtifactCache {
+
+	/**
+	 * The version of the code that builds set pieces. Bump this whenever a
+	 * change would make a set piece come out differently, so that entries
+	 * built by the old code aren't used. Entries from a different version of
+	 * the application are never used either.
+	 */
+	static final int GENERATOR_VERSION = 1;
+
+	/**
+	 * The first four bytes of every entry, "TTAB".
+	 */
+	private static final int MAGIC = 0x54544142;
+
+	private static final int FORMAT_VERSION = 2;
+
+	private static final String DIRECTORY = "artifacts";
+
+	/**
+	 * The most entries kept. Once there are more, the ones used least
+	 * recently are deleted.
+	 */
+	private static final int MAX_ENTRIES = 64;
+
+	/**
+	 * The thread entries are written on. Created the first time it is needed.
+	 */
+	private static ExecutorService writer;
+
+	private BuildArtifactCache() {
+	}
+
+	/**
+	 * Reads the fragments of a set piece from the cache. The pieces are named
+	 * just as if the set piece had been built.
+	 *
+	 * @param context
+	 *            Used to find the cache directory.
+	 * @param setPiece
+	 *            The set piece, with everything but its fragments filled in.
+	 * @return The fragments, or null if they aren't in the cache.
+	 */
+	static Frag[][] load(Context context, Buildable setPiece) {
+		File directory = directory(context);
+		if (directory == null) {
+			return null;
+		}
+		byte[] spec = BuildableCodec.encodeSpec(setPiece);
+		String locale = Locale.getDefault().toString();
+		File file = new File(directory, entryName(spec, locale));
+		if (!file.exists()) {
+			return null;
+		}
+		Frag[][] frags = null;
+		try {
+			frags = read(file, spec, versionOf(context), locale);
+		} catch (IOException e) {
+			// Treated like any other entry that can't be used.
+		} catch (ClassNotFoundException e) {
+		} catch (ClassCastException e) {
+		}
+		if (frags == null) {
+			file.delete();
+			return null;
+		}
+		file.setLastModified(System.currentTimeMillis());
+		return frags;
+	}
+
+	/**
+	 * Puts the fragments of a set piece that has just been built in the cache,
+	 * unless they are already there. Must be called before the visibility of
+	 * any piece is changed.
+	 *
+	 * @param context
+	 *            Used to find the cache directory.
+	 * @param setPiece
+	 *            The set piece.
+	 * @param frags
+	 *            Its fragments.
+	 */
+	static void store(Context context, Buildable setPiece, Frag[][] frags) {
+		final File directory = directory(context);
+		if (directory == null) {
+			return;
+		}
+		byte[] spec = BuildableCodec.encodeSpec(setPiece);
+		String locale = Locale.getDefault().toString();
+		final File file = new File(directory, entryName(spec, locale));
+		if (file.exists()) {
+			return;
+		}
+
+		/*
+		 * The fragments are written out here, since they may be changed as
+		 * soon as this returns. Only the file is written in the background.
+		 */
+		final byte[] data;
+		try {
+			data = write(spec, versionOf(context), locale, frags);
+		} catch (IOException e) {
+			return;
+		}
+		getWriter().execute(new Runnable() {
+
+			@Override
+			public void run() {
+				File temp = new File(directory, file.getName() + ".tmp");
+				FileOutputStream out = null;
+				try {
+					out = new FileOutputStream(temp);
+					out.write(data);
+					out.close();
+					out = null;
+					if (!temp.renameTo(file)) {
+						temp.delete();
+					}
+				} catch (IOException e) {
+					temp.delete();
+				} finally {
+					if (out != null) {
+						try {
+							out.close();
+						} catch (IOException e) {
+						}
+						temp.delete();
+					}
+				}
+				trim(directory, MAX_ENTRIES);
+			}
+		});
+	}
+
+	/**
+	 * @return The directory the entries are kept in, or null if there isn't
+	 *         anywhere to put it.
+	 */
+	private static File directory(Context context) {
+		if (context == null || context.getCacheDir() == null) {
+			return null;
+		}
+		File directory = new File(context.getCacheDir(), DIRECTORY);
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			return null;
+		}
+		return directory;
+	}
+
+	/**
+	 * @return A number that changes whenever the code that builds set pieces
+	 *         might have changed.
+	 */
+	private static int versionOf(Context context) {
+		int versionCode = 0;
+		try {
+			versionCode = context.getPackageManager().getPackageInfo(
+					context.getPackageName(), 0).versionCode;
+		} catch (NameNotFoundException e) {
+			// We are looking up our own package, so this can't happen.
+		}
+		return GENERATOR_VERSION * 100000 + versionCode;
+	}
+
+	/**
+	 * @param spec
+	 *            A set piece as written by
+	 *            {@link BuildableCodec#encodeSpec(Buildable)}.
+	 * @return The SHA-1 hash of the spec, in hex, which can be used as a file
+	 *         name.
+	 */
+	static String nameOf(byte[] spec) {
+		byte[] hash;
+		try {
+			hash = MessageDigest.getInstance("SHA-1").digest(spec);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has SHA-1.
+			throw new IllegalStateException(e.getMessage());
+		}
+		StringBuilder name = new StringBuilder(hash.length * 2);
+		for (byte b : hash) {
+			name.append(Character.forDigit((b >> 4) & 0xF, 16));
+			name.append(Character.forDigit(b & 0xF, 16));
+		}
+		return name.toString();
+	}
+
+	/**
+	 * @return The name of the entry for a set piece, with its instructions in
+	 *         the language of a locale.
+	 */
+	private static String entryName(byte[] spec, String locale) {
+		return nameOf(spec) + '-' + locale;
+	}
+
+	/**
+	 * Writes an entry: a header, the set piece it was built from, and then,
+	 * compressed, the size of the grid, which distinct fragment goes in each
+	 * place and where, and the distinct fragments.
+	 */
+	private static byte[] write(byte[] spec, int version, String locale,
+			Frag[][] frags) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(bytes);
+		header.writeInt(MAGIC);
+		header.writeInt(FORMAT_VERSION);
+		header.writeInt(version);
+		header.writeUTF(locale);
+		header.writeInt(spec.length);
+		header.write(spec);
+		header.flush();
+
+		ObjectOutputStream out = new ObjectOutputStream(
+				new DeflaterOutputStream(bytes));
+		List<Frag> templates = new ArrayList<Frag>();
+		HashMap<TemplateKey, Integer> indices = new HashMap<TemplateKey, Integer>();
+		out.writeInt(frags.length);
+		for (int i = 0; i < frags.length; i++) {
+			out.writeInt(frags[i].length);
+			for (int j = 0; j < frags[i].length; j++) {
+				Frag frag = frags[i][j];
+				Integer index = frag.getKey() == null ? null : indices.get(frag
+						.getKey());
+				if (index == null) {
+					index = templates.size();
+					templates.add(frag);
+					if (frag.getKey() != null) {
+						indices.put(frag.getKey(), index);
+					}
+				}
+				out.writeInt(index);
+				out.writeLong(frag.getOffsetX().getSixteenths());
+				out.writeLong(frag.getOffsetY().getSixteenths());
+			}
+		}
+		out.writeObject(templates.toArray(new Frag[templates.size()]));
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Reads an entry written by
+	 * {@link #write(byte[], int, String, Frag[][])}.
+	 *
+	 * @return The fragments, or null if the entry is for another set piece,
+	 *         was written by another version or is in another language.
+	 */
+	private static Frag[][] read(File file, byte[] spec, int version,
+			String locale) throws IOException, ClassNotFoundException {
+		DataInputStream header = new DataInputStream(new FileInputStream(file));
+		ObjectInputStream in = null;
+		try {
+			if (header.readInt() != MAGIC
+					|| header.readInt() != FORMAT_VERSION
+					|| header.readInt() != version
+					|| !header.readUTF().equals(locale)) {
+				return null;
+			}
+			int specLength = header.readInt();
+			if (specLength != spec.length) {
+				return null;
+			}
+			byte[] storedSpec = new byte[specLength];
+			header.readFully(storedSpec);
+			if (!Arrays.equals(spec, storedSpec)) {
+				return null;
+			}
+
+			in = new ObjectInputStream(new InflaterInputStream(header));
+			Frag[][] frags = new Frag[in.readInt()][];
+			int[][] indices = new int[frags.length][];
+			long[][] offsets = new long[frags.length][];
+			for (int i = 0; i < frags.length; i++) {
+				int count = in.readInt();
+				frags[i] = new Frag[count];
+				indices[i] = new int[count];
+				offsets[i] = new long[2 * count];
+				for (int j = 0; j < count; j++) {
+					indices[i][j] = in.readInt();
+					offsets[i][2 * j] = in.readLong();
+					offsets[i][2 * j + 1] = in.readLong();
+				}
+			}
+			Frag[] templates = (Frag[]) in.readObject();
+
+			/*
+			 * The first place each distinct fragment goes gets the fragment
+			 * itself, and the others get copies of it. Copies get new names,
+			 * so then all the pieces are named again in order.
+			 */
+			boolean[] used = new boolean[templates.length];
+			boolean copied = false;
+			for (int i = 0; i < frags.length; i++) {
+				for (int j = 0; j < frags[i].length; j++) {
+					int index = indices[i][j];
+					if (index < 0 || index >= templates.length) {
+						return null;
+					}
+					Frag frag = templates[index];
+					if (used[index]) {
+						frag = frag.copy();
+						copied = true;
+					}
+					used[index] = true;
+					frag.moveTo(sixteenths(offsets[i][2 * j]),
+							sixteenths(offsets[i][2 * j + 1]));
+					frags[i][j] = frag;
+				}
+			}
+			if (copied) {
+				Frag.nameGrid(frags, 0);
+			}
+			return frags;
+		} finally {
+			if (in != null) {
+				in.close();
+			} else {
+				header.close();
+			}
+		}
+	}
+
+	private static Dimension sixteenths(long sixteenths) {
+		Dimension dimension = new Dimension();
+		dimension.setSixteenths(sixteenths);
+		return dimension;
+	}
+
+	/**
+	 * Deletes the files in a directory used least recently, until there are no
+	 * more than maxEntries.
+	 */
+	static void trim(File directory, int maxEntries) {
+		File[] files = directory.listFiles();
+		if (files == null || files.length <= maxEntries) {
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+
+			@Override
+			public int compare(File a, File b) {
+				long difference = a.lastModified() - b.lastModified();
+				return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+			}
+		});
+		for (int i = 0; i < files.length - maxEntries; i++) {
+			files[i].delete();
+		}
+	}
+
+	private static synchronized ExecutorService getWriter() {
+		if (writer == null) {
+			writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "ArtifactWriter");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return writer;
+	}
+}
@@ -0,0 +1,149 @@
+package com.zgrannan.crewandroid;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.zgrannan.crewandroid.BuildableCodec.FormatException;
+
+/**
+ * Everything needed to build a set piece again: its type, length, width, door
+ * sizes and materials, but none of what is built from them. It is held as the
+ * set piece's encoding from {@link BuildableCodec#encodeSpec(Buildable)},
+ * which takes a couple of dozen bytes, so it is cheap to keep in a
+ * {@link android.os.Bundle}. Two set pieces that would be built the same way
+ * have equal specs.
+ * <p>
+ * Set pieces that have been built can be cached by spec with
+ * {@link #cache(Buildable)}, so that an activity that is recreated in the same
+ * process, e.g. after the screen is rotated, gets the built set piece back
+ * instead of building it again.
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+public final class BuildSpec {
+
+	/**
+	 * The most built set pieces kept by {@link #cache(Buildable)}. Built set
+	 * pieces can be large, and only the last few are ever asked for again.
+	 */
+	private static final int MAX_CACHED = 4;
+
+	private static final LinkedHashMap<BuildSpec, Buildable> cache = new LinkedHashMap<BuildSpec, Buildable>(
+			8, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<BuildSpec, Buildable> eldest) {
+			return size() > MAX_CACHED;
+		}
+	};
+
+	private final byte[] encoded;
+	private final int hash;
+
+	private BuildSpec(byte[] encoded) {
+		this.encoded = encoded;
+		this.hash = Arrays.hashCode(encoded);
+	}
+
+	/**
+	 * @param setPiece
+	 *            A set piece. It doesn't need to have been made.
+	 * @return The spec of the set piece.
+	 */
+	public static BuildSpec of(Buildable setPiece) {
+		return new BuildSpec(BuildableCodec.encodeSpec(setPiece));
+	}
+
+	/**
+	 * Reads a spec written by {@link #toByteArray()}.
+	 *
+	 * @param bytes
+	 *            The spec.
+	 * @return The spec.
+	 * @throws FormatException
+	 *             If the bytes aren't a spec.
+	 */
+	public static BuildSpec fromByteArray(byte[] bytes) throws FormatException {
+		byte[] encoded = bytes.clone();
+		// Make sure it can be read before anyone relies on it.
+		BuildableCodec.decode(encoded, 0, encoded.length);
+		return new BuildSpec(encoded);
+	}
+
+	/**
+	 * @return The spec, as bytes that can be kept in a Bundle.
+	 */
+	public byte[] toByteArray() {
+		return encoded.clone();
+	}
+
+	/**
+	 * Creates a set piece from this spec. Like a set piece read from storage,
+	 * it hasn't been made, and has no filename.
+	 *
+	 * @return The set piece.
+	 */
+	public Buildable newSetPiece() {
+		try {
+			return BuildableCodec.decode(encoded, 0, encoded.length);
+		} catch (FormatException e) {
+			// The bytes were checked when this spec was made.
+			throw new IllegalStateException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Keeps a built set piece, so that it can be found again by its spec
+	 * with {@link #getCached()}. Only the last few are kept.
+	 *
+	 * @param setPiece
+	 *            The set piece. Nothing happens if it hasn't been made.
+	 * @return The spec of the set piece.
+	 */
+	public static BuildSpec cache(Buildable setPiece) {
+		BuildSpec spec = of(setPiece);
+		if (setPiece.isMade()) {
+			synchronized (cache) {
+				cache.put(spec, setPiece);
+			}
+		}
+		return spec;
+	}
+
+	/**
+	 * @return A built set piece with this spec, if one was kept by
+	 *         {@link #cache(Buildable)} and is still made, or null.
+	 */
+	public Buildable getCached() {
+		synchronized (cache) {
+			Buildable setPiece = cache.get(this);
+			if (setPiece != null && !setPiece.isMade()) {
+				// Its fragments were handed to a later build.
+				cache.remove(this);
+				return null;
+			}
+			return setPiece;
+		}
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof BuildSpec)) {
+			return false;
+		}
+		BuildSpec other = (BuildSpec) o;
+		return hash == other.hash && Arrays.equals(encoded, other.encoded);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+}
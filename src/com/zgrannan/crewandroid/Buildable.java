@@ -61,6 +61,18 @@ public abstract class Buildable implements Serializable, CanDraw {
 	transient protected Frag[][] frags;
 	transient boolean made;
 
+	/**
+	 * Fragments from a previous build that may be reused by the next one.
+	 * 
+	 * @see reuseFragsFrom(Buildable)
+	 */
+	transient private Frag[][] reusableFrags;
+
+	/**
+	 * Holds the corners of every piece once the set piece has been made.
+	 */
+	transient private GeometryBuffer geometry;
+
 	/**
 	 * When running through instructions, this is the horizontal index of the
 	 * current fragment.
@@ -124,6 +136,38 @@ public abstract class Buildable implements Serializable, CanDraw {
 		Piece.resetName();
 	}
 
+	/**
+	 * Lets the next build of this set piece reuse the fragments of another set
+	 * piece of the same type, so that only the fragments whose size changed
+	 * are built again. The other set piece gives up its fragments, and will
+	 * have to be made again before it can be drawn.
+	 * 
+	 * @param previous
+	 *            The set piece that was built before this one. May be null.
+	 */
+	void reuseFragsFrom(Buildable previous) {
+		if (previous == null || previous == this
+				|| previous.getClass() != getClass() || !previous.made
+				|| previous.frags == null) {
+			return;
+		}
+		reusableFrags = previous.frags;
+		previous.frags = null;
+		previous.made = false;
+	}
+
+	/**
+	 * Hands over the fragments set aside by {@link reuseFragsFrom(Buildable)}.
+	 * They are only handed over once.
+	 * 
+	 * @return The fragments, or null if there are none.
+	 */
+	Frag[][] takeReusableFrags() {
+		Frag[][] result = reusableFrags;
+		reusableFrags = null;
+		return result;
+	}
+
 	/**
 	 * Generates a new cutlist and returns it to the user.
 	 * 
@@ -333,12 +377,44 @@ public abstract class Buildable implements Serializable, CanDraw {
 		this.woodstick = woodstick;
 		this.sheet = sheet;
 		woodThickness = new Dimension(woodstick.getWidth());
-		Piece.resetName();
-		make(context);
+		makeOrRestore(context);
 
 		return new BuildResult(context, true);
 	}
 
+	/**
+	 * Makes this set piece, unless it has been built before and its fragments
+	 * are still in the {@link BuildArtifactCache}, in which case they are read
+	 * from there. Either way the set piece comes out the same. Fragments are
+	 * only read from the cache if there aren't any to reuse from the last
+	 * build, since reusing those is quicker. The pieces are labeled by a
+	 * {@link Piece.Labeler} of this build's own.
+	 * 
+	 * @param context
+	 * @return The result of the build.
+	 */
+	BuildResult makeOrRestore(Context context) {
+		// Label the pieces of this build from A, whatever else is being built
+		Piece.Labeler previous = Piece.useLabeler(new Piece.Labeler());
+		try {
+			if (reusableFrags == null) {
+				Frag[][] cached = BuildArtifactCache.load(context, this);
+				if (cached != null) {
+					frags = cached;
+					setInstructions(context);
+					return new BuildResult(context, true);
+				}
+			}
+			BuildResult result = make(context);
+			if (made) {
+				BuildArtifactCache.store(context, this, frags);
+			}
+			return result;
+		} finally {
+			Piece.useLabeler(previous);
+		}
+	}
+
 	/**
 	 * Creates the instructions for the set piece. Called from {@link
 	 * make(Context)}.
@@ -363,10 +439,36 @@ public abstract class Buildable implements Serializable, CanDraw {
 					.getString(R.string.attach_fragments)));
 		}
 		currentFragNum = 1;
+		packGeometry();
 		made = true;
 
 	}
 
+	/**
+	 * Copies the corners of every piece into a single {@link GeometryBuffer}
+	 * and turns the pieces' vertices into views over it. Called once the
+	 * fragments are in their final positions.
+	 */
+	private void packGeometry() {
+		Piece[] pieces = getPieces();
+		int count = 0;
+		for (int i = 0; i < pieces.length; i++) {
+			count += pieces[i].vertex.length;
+		}
+		geometry = new GeometryBuffer(count);
+		for (int i = 0; i < pieces.length; i++) {
+			pieces[i].bind(geometry);
+		}
+	}
+
+	/**
+	 * @return The buffer holding the corners of every piece, or null if the
+	 *         set piece hasn't been made.
+	 */
+	GeometryBuffer getGeometry() {
+		return geometry;
+	}
+
 	/**
 	 * After all of the data about the set piece has been input, this method
 	 * does the job of actually creating the fragments of the set piece.
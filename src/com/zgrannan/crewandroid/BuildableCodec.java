@@ -0,0 +1,371 @@
+package com.zgrannan.crewandroid;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import com.zgrannan.crewandroid.Consumables.Material;
+import com.zgrannan.crewandroid.Consumables.Sheet;
+import com.zgrannan.crewandroid.Consumables.WoodStick;
+import com.zgrannan.crewandroid.Util.Dimension;
+
+/**
+ * Writes set pieces in a compact binary format, and reads them back.
+ * <p>
+ * Java serialization writes the name of every class and field along with the
+ * values, and reading it back goes through reflection. A set piece only has a
+ * handful of values, so this format just writes those, in a fixed order:
+ *
+ * <pre>
+ * version    1 byte, {@link #VERSION}
+ * type       1 byte, e.g. {@link C#PLATFORM}
+ * filename   varint byte count, then UTF-8
+ * length     dimension
+ * width      dimension
+ * woodstick  material
+ * sheet      material
+ * door       two dimensions, height then width (doorframes only)
+ * </pre>
+ *
+ * A dimension is a varint: 0 for null, 1 for a dimension with no content, and
+ * otherwise its length in sixteenths, zigzag encoded, plus 2. A material is a
+ * varint: 0 for null, its id plus 2 for the materials built into the program,
+ * and 1 for a material from the {@link MaterialCatalog} data file, followed by
+ * its kind ('w' or 's'), name, width and depth. Ids of materials from the data
+ * file can change if the file changes, so those are written out in full.
+ * <p>
+ * Varints are written 7 bits at a time, least significant first, with the top
+ * bit of each byte set if another byte follows.
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+public final class BuildableCodec {
+
+	/**
+	 * Thrown when the bytes being read aren't a set piece written by this
+	 * codec.
+	 */
+	public static class FormatException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public FormatException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * The version of the format. Bump this and keep reading the old versions
+	 * if the format ever has to change.
+	 */
+	public static final int VERSION = 1;
+
+	private static final int NULL = 0, NO_CONTENT = 1, INLINE = 1,
+			FIRST_VALUE = 2;
+
+	private BuildableCodec() {
+	}
+
+	/**
+	 * Writes a set piece.
+	 *
+	 * @param setPiece
+	 *            The set piece.
+	 * @return The encoded set piece.
+	 */
+	public static byte[] encode(Buildable setPiece) {
+		return encode(setPiece, setPiece.getFilename());
+	}
+
+	/**
+	 * Writes everything that decides how a set piece is built, leaving out
+	 * its filename, so that two set pieces that come out the same are encoded
+	 * the same. Used as the key of the {@link BuildArtifactCache}.
+	 *
+	 * @param setPiece
+	 *            The set piece.
+	 * @return The encoded set piece, with a null filename.
+	 */
+	static byte[] encodeSpec(Buildable setPiece) {
+		return encode(setPiece, null);
+	}
+
+	private static byte[] encode(Buildable setPiece, String filename) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+		out.write(VERSION);
+		out.write(typeOf(setPiece));
+		writeString(out, filename);
+		writeDimension(out, setPiece.length);
+		writeDimension(out, setPiece.width);
+		writeMaterial(out, setPiece.woodstick);
+		writeMaterial(out, setPiece.sheet);
+		if (setPiece instanceof Doorframe) {
+			Doorframe doorframe = (Doorframe) setPiece;
+			writeDimension(out, doorframe.doorHeight);
+			writeDimension(out, doorframe.doorWidth);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Reads a set piece. Like a set piece read with Java serialization, it
+	 * hasn't been made yet.
+	 *
+	 * @param data
+	 *            An array holding the encoded set piece.
+	 * @param offset
+	 *            The index in data where the set piece starts.
+	 * @param length
+	 *            The number of bytes in the encoded set piece.
+	 * @return The set piece.
+	 * @throws FormatException
+	 *             If the bytes aren't a set piece.
+	 */
+	public static Buildable decode(byte[] data, int offset, int length)
+			throws FormatException {
+		Reader in = new Reader(data, offset, offset + length);
+		int version = in.readByte();
+		if (version != VERSION) {
+			throw new FormatException("Unknown set piece version " + version);
+		}
+		int type = in.readByte();
+		Buildable setPiece = newInstance(type);
+		setPiece.setFilename(in.readString());
+		setPiece.length = in.readDimension();
+		setPiece.width = in.readDimension();
+		Material woodstick = in.readMaterial();
+		Material sheet = in.readMaterial();
+		if (woodstick != null && !(woodstick instanceof WoodStick)
+				|| sheet != null && !(sheet instanceof Sheet)) {
+			throw new FormatException("Materials are the wrong kind");
+		}
+		setPiece.woodstick = (WoodStick) woodstick;
+		setPiece.sheet = (Sheet) sheet;
+		if (setPiece instanceof Doorframe) {
+			Doorframe doorframe = (Doorframe) setPiece;
+			doorframe.doorHeight = in.readDimension();
+			doorframe.doorWidth = in.readDimension();
+		}
+		if (in.position != in.end) {
+			throw new FormatException("Unexpected data after set piece");
+		}
+		return setPiece;
+	}
+
+	/**
+	 * Reads just the filename, type and size of a set piece, which come first
+	 * in the format, and skips the rest.
+	 *
+	 * @param data
+	 *            An array holding the encoded set piece.
+	 * @param offset
+	 *            The index in data where the set piece starts.
+	 * @param length
+	 *            The number of bytes in the encoded set piece.
+	 * @param recordOffset
+	 *            Where the set piece's record is in the {@link SetPieceLog}.
+	 * @param recordSize
+	 *            The size of the record.
+	 * @return What the list of saved set pieces needs to know about it.
+	 * @throws FormatException
+	 *             If the bytes aren't a set piece.
+	 */
+	static SetPieceInfo decodeInfo(byte[] data, int offset, int length,
+			long recordOffset, int recordSize) throws FormatException {
+		Reader in = new Reader(data, offset, offset + length);
+		int version = in.readByte();
+		if (version != VERSION) {
+			throw new FormatException("Unknown set piece version " + version);
+		}
+		int type = in.readByte();
+		String filename = in.readString();
+		return new SetPieceInfo(filename, type, in.readDimension(),
+				in.readDimension(), recordOffset, recordSize);
+	}
+
+	/**
+	 * @return The type of a set piece, as one of the constants in {@link C}.
+	 */
+	static int typeOf(Buildable setPiece) {
+		Class<?> type = setPiece.getClass();
+		if (type == Platform.class) {
+			return C.PLATFORM;
+		} else if (type == Hollywood.class) {
+			return C.HOLLYWOOD;
+		} else if (type == Broadway.class) {
+			return C.BROADWAY;
+		} else if (type == Doorframe.class) {
+			return C.DOORFRAME;
+		} else if (type == Studwall.class) {
+			return C.STUDWALL;
+		}
+		throw new IllegalArgumentException("Can't encode a " + type);
+	}
+
+	private static Buildable newInstance(int type) throws FormatException {
+		switch (type) {
+		case C.PLATFORM:
+			return new Platform();
+		case C.HOLLYWOOD:
+			return new Hollywood();
+		case C.BROADWAY:
+			return new Broadway();
+		case C.DOORFRAME:
+			return new Doorframe();
+		case C.STUDWALL:
+			return new Studwall();
+		default:
+			throw new FormatException("Unknown set piece type " + type);
+		}
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	private static void writeString(ByteArrayOutputStream out, String string) {
+		if (string == null) {
+			writeVarint(out, NULL);
+			return;
+		}
+		byte[] bytes = utf8(string);
+		writeVarint(out, bytes.length + 1);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	private static void writeDimension(ByteArrayOutputStream out,
+			Dimension dimension) {
+		if (dimension == null) {
+			writeVarint(out, NULL);
+		} else if (!dimension.hasContent()) {
+			writeVarint(out, NO_CONTENT);
+		} else {
+			long sixteenths = dimension.getSixteenths();
+			writeVarint(out, ((sixteenths << 1) ^ (sixteenths >> 63))
+					+ FIRST_VALUE);
+		}
+	}
+
+	private static void writeMaterial(ByteArrayOutputStream out,
+			Material material) {
+		if (material == null) {
+			writeVarint(out, NULL);
+		} else if (MaterialCatalog.isBuiltIn(material)) {
+			writeVarint(out, material.id() + FIRST_VALUE);
+		} else {
+			writeVarint(out, INLINE);
+			out.write(material instanceof WoodStick ? 'w' : 's');
+			writeString(out, material.toString());
+			writeDimension(out, material.getWidth());
+			writeDimension(out, material.getDepth());
+		}
+	}
+
+	private static byte[] utf8(String string) {
+		try {
+			return string.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// Every Java platform has UTF-8.
+			throw new IllegalStateException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads values from a byte array, checking that it doesn't run past the
+	 * end of the set piece.
+	 */
+	private static class Reader {
+		private final byte[] data;
+		private int position;
+		private final int end;
+
+		Reader(byte[] data, int position, int end) {
+			this.data = data;
+			this.position = position;
+			this.end = end;
+		}
+
+		int readByte() throws FormatException {
+			if (position >= end) {
+				throw new FormatException("Set piece is cut short");
+			}
+			return data[position++] & 0xFF;
+		}
+
+		long readVarint() throws FormatException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = readByte();
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new FormatException("Varint is too long");
+		}
+
+		String readString() throws FormatException {
+			long length = readVarint();
+			if (length == NULL) {
+				return null;
+			}
+			length--;
+			if (length > end - position) {
+				throw new FormatException("Set piece is cut short");
+			}
+			String string;
+			try {
+				string = new String(data, position, (int) length, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e.getMessage());
+			}
+			position += length;
+			return string;
+		}
+
+		Dimension readDimension() throws FormatException {
+			long value = readVarint();
+			if (value == NULL) {
+				return null;
+			} else if (value == NO_CONTENT) {
+				return new Dimension();
+			}
+			value -= FIRST_VALUE;
+			Dimension dimension = new Dimension();
+			dimension.setSixteenths((value >>> 1) ^ -(value & 1));
+			return dimension;
+		}
+
+		Material readMaterial() throws FormatException {
+			long value = readVarint();
+			if (value == NULL) {
+				return null;
+			} else if (value != INLINE) {
+				Material material = MaterialCatalog
+						.getMaterial((int) (value - FIRST_VALUE));
+				if (material == null) {
+					throw new FormatException("Unknown material " + value);
+				}
+				return material;
+			}
+			int kind = readByte();
+			String name = readString();
+			Dimension width = readDimension();
+			Dimension depth = readDimension();
+			Material material;
+			if (kind == 'w') {
+				material = new WoodStick(width, depth, name);
+			} else if (kind == 's') {
+				material = new Sheet(depth, name);
+			} else {
+				throw new FormatException("Unknown material kind " + kind);
+			}
+			return MaterialCatalog.resolve(material);
+		}
+	}
+}
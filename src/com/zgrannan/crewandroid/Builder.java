@@ -25,6 +25,7 @@ import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.zgrannan.crewandroid.BuildableCodec.FormatException;
 import com.zgrannan.crewandroid.Consumables.Sheet;
 import com.zgrannan.crewandroid.Consumables.WoodStick;
 import com.zgrannan.crewandroid.Util.Dimension;
@@ -182,7 +183,7 @@ public class Builder extends Activity {
 				return result;
 			}
 			if (result.success()) {
-				toBuild = new Broadway(context, length, width, woodstick, sheet);
+				toBuild = rebuild(new Broadway(), woodstick, sheet);
 			}
 			break;
 		case C.DOORFRAME:
@@ -202,8 +203,7 @@ public class Builder extends Activity {
 				return result;
 			}
 			if (result.success()) {
-				toBuild = new Hollywood(context, length, width, woodstick,
-						sheet);
+				toBuild = rebuild(new Hollywood(), woodstick, sheet);
 			}
 			break;
 		case C.PLATFORM:
@@ -212,7 +212,7 @@ public class Builder extends Activity {
 				return result;
 			}
 			if (result.success()) {
-				toBuild = new Platform(context, length, width, woodstick, sheet);
+				toBuild = rebuild(new Platform(), woodstick, sheet);
 			}
 			break;
 		case C.STUDWALL:
@@ -221,7 +221,7 @@ public class Builder extends Activity {
 				return result;
 			}
 			if (result.success()) {
-				toBuild = new Studwall(context, length, width, woodstick, sheet);
+				toBuild = rebuild(new Studwall(), woodstick, sheet);
 			}
 			break;
 		}
@@ -245,6 +245,24 @@ public class Builder extends Activity {
 		return result;
 	}
 
+	/**
+	 * Makes a set piece from the current length and width. Fragments of the
+	 * previously built set piece that haven't changed are reused, so small
+	 * edits to a large set piece don't rebuild the whole thing.
+	 * 
+	 * @param setPiece
+	 *            An empty set piece of the type being built.
+	 * @param woodstick
+	 * @param sheet
+	 * @return The set piece, made.
+	 */
+	private Buildable rebuild(Buildable setPiece, WoodStick woodstick,
+			Sheet sheet) {
+		setPiece.reuseFragsFrom(toBuild);
+		setPiece.make(context, length, width, woodstick, sheet);
+		return setPiece;
+	}
+
 	/**
 	 * This function is called when loading a set piece. It sets the interface
 	 * to correspond with the set piece and loads the data from the set piece
@@ -253,7 +271,10 @@ public class Builder extends Activity {
 	 * called explicitly.
 	 */
 	private void loadFromIntent() {
-		toBuild = (Buildable) intent.getSerializableExtra("setpiece");
+		Buildable setPiece = HandleRegistry.getSetPiece(intent, "setpiece");
+		if (setPiece == null)
+			return;
+		toBuild = setPiece;
 		if (toBuild instanceof Doorframe) {
 			toBuildSpinner.setSelection(C.DOORFRAME);
 			setInterface(C.DOORFRAME);
@@ -408,6 +429,34 @@ public class Builder extends Activity {
 
 	}
 
+	/**
+	 * Lets go of the set piece this activity was opened with, if it is
+	 * finishing.
+	 */
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		if (isFinishing()) {
+			HandleRegistry.release(getIntent(), "setpiece");
+		}
+	}
+
+	/**
+	 * Makes sure any set pieces saved or deleted here reach the phone storage
+	 * before the activity goes away.
+	 */
+	@Override
+	protected void onPause() {
+		super.onPause();
+		try {
+			CrewAndroid.flushSetPieces();
+		} catch (IOException e) {
+			Toast.makeText(getBaseContext(),
+					getString(R.string.set_piece_could_not_be_saved),
+					Toast.LENGTH_LONG).show();
+		}
+	}
+
 	/**
 	 * Looks like the options menu was selected for the first time. Create it
 	 * ... and then never get called again.
@@ -434,7 +483,8 @@ public class Builder extends Activity {
 
 			if (attemptBuild().success()) {
 				Intent intent = new Intent(getBaseContext(), ViewCutlist.class);
-				intent.putExtra("cutlist", toBuild.getCutlist());
+				HandleRegistry.put(intent, "cutlist", toBuild.getCutlist(),
+						toBuild);
 				startActivity(intent);
 			} else {
 				attemptBuild().showErrors(context);
@@ -445,7 +495,7 @@ public class Builder extends Activity {
 
 			if (attemptBuild().success()) {
 				intent = new Intent(context, ViewDiagram.class);
-				intent.putExtra("setpiece", toBuild);
+				HandleRegistry.put(intent, "setpiece", toBuild, toBuild);
 				startActivity(intent);
 			} else {
 				attemptBuild().showErrors(context);
@@ -471,7 +521,7 @@ public class Builder extends Activity {
 
 			if (attemptBuild().success()) {
 				intent = new Intent(context, ViewInstructions.class);
-				intent.putExtra("setpiece", toBuild);
+				HandleRegistry.put(intent, "setpiece", toBuild, toBuild);
 				startActivity(intent);
 			} else {
 				attemptBuild().showErrors(context);
@@ -481,7 +531,7 @@ public class Builder extends Activity {
 		case R.id.view_diagram_3d: {
 			if (attemptBuild().success()) {
 				intent = new Intent(context, ViewDiagram3d.class);
-				intent.putExtra("setpiece", toBuild);
+				HandleRegistry.put(intent, "setpiece", toBuild, toBuild);
 				startActivity(intent);
 			} else {
 				attemptBuild().showErrors(context);
@@ -496,7 +546,10 @@ public class Builder extends Activity {
 
 	/**
 	 * Load anything important into the savedInstanceState if the activity needs
-	 * to be restarted.
+	 * to be restarted. Only the spec of the set piece is saved, which is a few
+	 * bytes however large the set piece is. The built set piece is kept in the
+	 * {@link BuildSpec} cache, so it doesn't have to be built again if the
+	 * activity is restarted in the same process.
 	 */
 	@Override
 	public void onSaveInstanceState(Bundle savedInstanceState) {
@@ -504,8 +557,12 @@ public class Builder extends Activity {
 		savedInstanceState.putInt("buildType", buildType);
 		savedInstanceState.putBoolean("doorframeMessage",
 				hasDisplayedDoorframeMessage);
-		if (toBuild != null)
-			savedInstanceState.putSerializable("toBuild", toBuild);
+		if (toBuild != null) {
+			savedInstanceState.putByteArray("toBuildSpec", BuildSpec.cache(
+					toBuild).toByteArray());
+			savedInstanceState.putString("toBuildFilename",
+					toBuild.getFilename());
+		}
 	}
 
 	/**
@@ -518,11 +575,39 @@ public class Builder extends Activity {
 	@Override
 	public void onRestoreInstanceState(Bundle bundle) {
 		super.onRestoreInstanceState(bundle);
+		byte[] spec = bundle.getByteArray("toBuildSpec");
+		if (spec != null) {
+			restoreSetPiece(spec, bundle.getString("toBuildFilename"));
+		}
 		buildType = bundle.getInt("buildType");
 		setInterface(buildType, true);
 		hasDisplayedDoorframeMessage = bundle.getBoolean("doorframeMessage");
 	}
 
+	/**
+	 * Gets back the set piece saved by {@link #onSaveInstanceState(Bundle)}.
+	 * If it is still in memory it is used as is, otherwise it is created from
+	 * its spec, and will be built the next time it is needed.
+	 * 
+	 * @param bytes
+	 *            The spec of the set piece.
+	 * @param filename
+	 *            The filename of the set piece.
+	 */
+	private void restoreSetPiece(byte[] bytes, String filename) {
+		BuildSpec spec;
+		try {
+			spec = BuildSpec.fromByteArray(bytes);
+		} catch (FormatException e) {
+			return;
+		}
+		if (toBuild == null || !spec.equals(BuildSpec.of(toBuild))) {
+			Buildable cached = spec.getCached();
+			toBuild = cached != null ? cached : spec.newSetPiece();
+		}
+		toBuild.setFilename(filename);
+	}
+
 	/**
 	 * Loads the interface.
 	 * 
@@ -589,13 +674,14 @@ public class Builder extends Activity {
 		buildButton = (Button) findViewById(R.id.build_button);
 		buildButton.setOnClickListener(buildButtonListener);
 
+		Buildable selected = (Buildable) toBuildSpinner.getSelectedItem();
 		ArrayAdapter<WoodStick> frameAdapter = new ArrayAdapter<WoodStick>(
 				getBaseContext(), android.R.layout.simple_spinner_item,
-				((Buildable) toBuildSpinner.getSelectedItem())
-						.getValidWoodSticks());
+				MaterialCatalog.validWoodSticks(selected,
+						selected.getValidWoodSticks()));
 		ArrayAdapter<Sheet> lidAdapter = new ArrayAdapter<Sheet>(
 				getBaseContext(), android.R.layout.simple_spinner_item,
-				((Buildable) toBuildSpinner.getSelectedItem()).getValidSheets());
+				MaterialCatalog.validSheets(selected, selected.getValidSheets()));
 
 		frameAdapter
 				.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
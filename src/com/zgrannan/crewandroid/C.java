@@ -44,11 +44,6 @@ public class C {
 	 */
 	public static final int ADD = 0, SUBTRACT = 1, MULTIPLY = 2, DIVIDE = 3;
 
-	/*
-	 * Graphic stuff
-	 */
-	public static final int UNDER_LINE_DENSITY = 2;
-
 	/*
 	 * Builder stuff
 	 */
@@ -56,10 +51,16 @@ public class C {
 			DOORHEIGHT_EDIT = 7, DOORWIDTH_EDIT = 8;
 
 	/**
-	 * The String representing the filename that saves the set pieces.
+	 * The String representing the filename that saved the set pieces in older
+	 * versions. It is only read to bring those set pieces into the log.
 	 */
 	public static final String FILENAME = "SavedData";
 
+	/**
+	 * The filename of the {@link SetPieceLog} that saves the set pieces.
+	 */
+	public static final String LOG_FILENAME = "SetPieces.log";
+
 	/**
 	 * The ID for the dialog that occurs when the user first launches the
 	 * application.
@@ -1,5 +1,6 @@
 package com.zgrannan.crewandroid;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 
 import android.app.Activity;
@@ -102,6 +103,11 @@ public class Consumables {
 		 */
 		private String name;
 
+		/**
+		 * Given by {@link MaterialCatalog} when the material is registered.
+		 */
+		transient int id = -1;
+
 		Material(Dimension width, Dimension depth, String name) {
 			this(depth, name);
 			this.width = new Dimension(width);
@@ -131,21 +137,19 @@ public class Consumables {
 		/**
 		 * This function is only used when comparing pieces for sorting.
 		 * 
-		 * @return A highly arbitrary unique integer.
+		 * @return A highly arbitrary unique integer, or -1 if this material
+		 *         isn't in the {@link MaterialCatalog}.
 		 */
 		public int id() {
+			return MaterialCatalog.idOf(this);
+		}
 
-			for (int i = 0; i < woodstick.length; i++) {
-				if (this == woodstick[i]) {
-					return i;
-				}
-			}
-			for (int i = 0; i < sheet.length; i++) {
-				if (this == sheet[i]) {
-					return i + woodstick.length;
-				}
-			}
-			return -1;
+		/**
+		 * Replaces a material that has been read back from a file with the
+		 * same material from the catalog.
+		 */
+		protected Object readResolve() throws ObjectStreamException {
+			return MaterialCatalog.resolve(this);
 		}
 
 		@Override
@@ -162,6 +166,8 @@ public class Consumables {
 		 * @return True if the materials are the same, false otherwise.
 		 */
 		public boolean equals(Material other) {
+			if (other == this)
+				return true;
 			if (other != null)
 				return name.equals(other.name);
 			else
@@ -191,23 +197,7 @@ public class Consumables {
 		 * @return A screw that will fasten the sheet to the wood.
 		 */
 		public static Screw getScrew(Sheet sheet, WoodStick wood) {
-
-			if (sheet.toString().equals("3/4\" Plywood")) {
-				if (wood.toString().equals("2x4"))
-					return Consumables.getScrew(new Dimension(1.625));
-				if (wood.toString().equals("1x3") || wood.toString().equals("1x4"))
-					if (wood.getDepth().toFloat() < 1.0f)
-						return Consumables.getScrew(new Dimension(1.25));
-					else
-						return Consumables.getScrew(new Dimension(1.625));
-			}
-			if (sheet.toString().equals("1/4\" Plywood")
-					|| sheet.toString().equals("Luaun")) {
-				if (wood.toString().equals("1x4")
-						|| wood.toString().equals("1x3"))
-					return Consumables.getScrew(new Dimension(1.25));
-			}
-			return null;
+			return MaterialCatalog.getScrew(sheet, wood);
 		}
 
 		/**
@@ -222,20 +212,7 @@ public class Consumables {
 		 *         screw can be found.
 		 */
 		public static Screw getScrew(WoodStick wood1, WoodStick wood2) {
-
-			if (wood1.toString().equals("2x4")
-					&& wood2.toString().equals("2x4")) {
-				return Consumables.getScrew(new Dimension(3));
-			}
-			if (wood1.toString().equals("1x3")
-					&& wood2.toString().equals("1x3")) {
-				return Consumables.getScrew(new Dimension(1.625));
-			}
-			if (wood1.toString().equals("1x4")
-					&& wood2.toString().equals("1x4")) {
-				return Consumables.getScrew(new Dimension(1.625));
-			}
-			return null;
+			return MaterialCatalog.getScrew(wood1, wood2);
 		}
 
 		Screw(double length) {
@@ -276,23 +253,7 @@ public class Consumables {
 		 * @return An appropriate fastener, or null
 		 */
 		public Fastener getFastener(WoodStick woodstick) {
-
-			Screw s = Screw.getScrew(this, woodstick);
-			if (s != null) // If no screw is found, checks to see if it is cloth
-				return s;
-			if (this.toString().equals("Cloth"))
-
-				/*
-				 * If this is cloth, then return handStaple
-				 */
-				return handStaple;
-			return null;
-
-			/*
-			 * Otherwise return nothing TODO V2 There's a better way to do this
-			 * that involves a getFastener() method in Fastener
-			 */
-
+			return MaterialCatalog.getFastener(this, woodstick);
 		}
 
 		/**
@@ -339,7 +300,7 @@ public class Consumables {
 		 * @return An appropriate fastener, or null
 		 */
 		public Fastener getFastener(WoodStick woodstick) {
-			return Screw.getScrew(this, woodstick);
+			return MaterialCatalog.getFastener(this, woodstick);
 		}
 
 		/**
@@ -410,21 +371,11 @@ public class Consumables {
 	}
 
 	public static Sheet getSheet(String name) {
-		for (int i = 0; i < sheet.length; i++) {
-			if (sheet[i].toString().equals(name)) {
-				return sheet[i];
-			}
-		}
-		return null;
+		return MaterialCatalog.getSheet(name);
 	}
 
 	public static WoodStick getWoodStick(String name) {
-		for (int i = 0; i < woodstick.length; i++) {
-			if (woodstick[i].toString().equals(name)) {
-				return woodstick[i];
-			}
-		}
-		return null;
+		return MaterialCatalog.getWoodStick(name);
 	}
 
 	public static boolean setMaterial(Piece[] pieces, Material material) {
@@ -1,12 +1,13 @@
 package com.zgrannan.crewandroid;
 
+import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import android.app.AlertDialog;
@@ -34,51 +35,21 @@ import android.widget.Toast;
 public class CrewAndroid extends ListActivity {
 
 	/**
-	 * List that contains all of the user's set pieces This list should be
-	 * accessible to other activities that require it through the use of
-	 * getSetPieces().
+	 * The saved set pieces. Only the filename, type and size of each set piece
+	 * are kept in memory; a set piece is read from the log when it is opened.
+	 * Changes are written to the log in the background.
 	 */
-	private static ArrayList<Buildable> setpieces;
+	private static SetPieceRepository repository;
 
 	/**
-	 * Used for reading the file containing the saved set pieces.
-	 */
-	private static FileInputStream fileIn;
-
-	/**
-	 * Used for reading the saved data from the file input stream.
-	 */
-	private static ObjectInputStream objectIn;
-
-	/**
-	 * Class containing data saved on the phone. During initialization, data
-	 * will be loaded from this class.
-	 */
-	private static SavedData savedData;
-
-	/**
-	 * Used for writing the file containing saved set pieces.
-	 */
-	private static FileOutputStream fileOut;
-
-	/**
-	 * Used for writing the saved data to the file output stream.
-	 */
-	private static ObjectOutputStream objectOut;
-
-	/**
-	 * @param context
-	 * @throws FileNotFoundException
-	 *             , IOException
-	 * 
+	 * @return The saved set pieces.
+	 * @throws IOException
+	 *             If the log couldn't be opened when the application started.
 	 */
-	public static void updateFile(Context context)
-			throws FileNotFoundException, IOException {
-		fileOut = context.openFileOutput(C.FILENAME, Context.MODE_PRIVATE);
-		objectOut = new ObjectOutputStream(fileOut);
-		objectOut.writeObject(savedData);
-		objectOut.close();
-		fileOut.close();
+	private static SetPieceRepository getRepository() throws IOException {
+		if (repository == null)
+			throw new IOException("The set piece log isn't open");
+		return repository;
 	}
 
 	/**
@@ -91,13 +62,11 @@ public class CrewAndroid extends ListActivity {
 	 */
 	public static void deleteSetPiece(String filename, Context context)
 			throws NoSuchElementException, IOException {
-		// Get the index of the set piece
-		int index = CrewAndroid.findIndex(filename);
-
-		if (index == -1) // If the set piece can't be found, throw an exception
+		if (!getRepository().contains(filename)) // If the set piece can't be
+													// found, throw an exception
 			throw new NoSuchElementException();
 
-		deleteSetPiece(index, context);
+		getRepository().delete(filename);
 	}
 
 	/**
@@ -118,8 +87,7 @@ public class CrewAndroid extends ListActivity {
 	 */
 	public static void deleteSetPiece(int index, Context context)
 			throws IOException {
-		setpieces.remove(index);
-		updateFile(context);
+		getRepository().delete(getSetpieces().get(index).getFilename());
 	}
 
 	/**
@@ -130,23 +98,40 @@ public class CrewAndroid extends ListActivity {
 	 * @return the index of the setpiece, or -1 if no setpiece exists.
 	 */
 	public static int findIndex(String filename) {
-		Buildable temp;
-		for (int i = 0; i < setpieces.size(); i++) {
-			temp = setpieces.get(i);
-			if (temp.getFilename().equals(filename)) {
-				return i;
-			}
-		}
-		return -1;
+		if (repository == null)
+			return -1;
+		return repository.indexOf(filename);
 	}
 
 	/**
-	 * Returns a list of all of the set pieces that are saved.
+	 * Returns a list of all of the set pieces that are saved. Only what is
+	 * needed to list them is read; use {@link #openSetPiece(String)} to get
+	 * the set piece itself.
 	 * 
 	 * @return a list of all of the set pieces that are saved.
 	 */
-	public static ArrayList<Buildable> getSetpieces() {
-		return setpieces;
+	public static List<SetPieceInfo> getSetpieces() {
+		if (repository == null)
+			return new ArrayList<SetPieceInfo>();
+		return repository.getInfos();
+	}
+
+	/**
+	 * Reads a saved set piece.
+	 * 
+	 * @param filename
+	 *            The filename of the set piece.
+	 * @return The set piece. It hasn't been made yet.
+	 * @throws NoSuchElementException
+	 *             If no set piece has this filename.
+	 * @throws IOException
+	 *             If the set piece can't be read.
+	 */
+	public static Buildable openSetPiece(String filename) throws IOException {
+		Buildable setPiece = getRepository().read(filename);
+		if (setPiece == null)
+			throw new NoSuchElementException();
+		return setPiece;
 	}
 
 	/**
@@ -159,14 +144,17 @@ public class CrewAndroid extends ListActivity {
 	 *            The filename that you wish to rename this set piece to.
 	 * @throws FileNotFoundException
 	 *             If {@link filename1} does not refer to a piece that exists.
+	 * @throws IOException
+	 *             If the set piece can't be read.
 	 */
 	public static void renameSetPiece(String filename1, String filename2)
-			throws FileNotFoundException {
-		// TODO V2 Implement renameSetPiece for
+			throws FileNotFoundException, IOException {
+		getRepository().rename(filename1, filename2);
 	}
 
 	/**
-	 * Saves a set piece.
+	 * Saves a set piece. It is written to the phone storage in the background;
+	 * call {@link #flushSetPieces()} to wait until it has been.
 	 * 
 	 * @param setPiece
 	 *            The set piece to be saved.
@@ -176,11 +164,23 @@ public class CrewAndroid extends ListActivity {
 	public static void saveSetPiece(Buildable setPiece, Context context)
 			throws IOException {
 
-		setpieces.add(setPiece);
-		updateFile(context);
+		getRepository().put(setPiece);
 
 	}
 
+	/**
+	 * Waits until every change to the saved set pieces has been written to
+	 * the phone storage. Activities that change set pieces call this when they
+	 * are paused, because the application may be closed after that.
+	 * 
+	 * @throws IOException
+	 *             If the changes couldn't be written.
+	 */
+	public static void flushSetPieces() throws IOException {
+		if (repository != null)
+			repository.flush();
+	}
+
 	/**
 	 * Check to see if a setpiece with a given filename exists.
 	 * 
@@ -189,7 +189,7 @@ public class CrewAndroid extends ListActivity {
 	 * @return True if the setpiece exists, false if the piece doesn't exist.
 	 */
 	public static boolean setPieceExists(String filename) {
-		return findIndex(filename) >= 0;
+		return repository != null && repository.contains(filename);
 	}
 
 	/**
@@ -197,48 +197,67 @@ public class CrewAndroid extends ListActivity {
 	 */
 	private void loadSavedDataFromFile() throws FileNotFoundException,
 			IOException {
-		try {
-			fileIn = openFileInput(C.FILENAME);
-
-		} catch (FileNotFoundException e) {
+		File logFile = getFileStreamPath(C.LOG_FILENAME);
+		File legacyFile = getFileStreamPath(C.FILENAME);
+		if (!logFile.exists() && !legacyFile.exists()) {
 			/*
-			 * If the file doesn't exist, assume the user just downloaded the
-			 * application. Show the dialog and then create the file.
+			 * If neither file exists, assume the user just downloaded the
+			 * application. Show the dialog, the log is created below.
 			 */
 			showDialog(C.FIRST_START_DIALOG);
-			openFileOutput(C.FILENAME, Context.MODE_PRIVATE).close();
-			return;
 		}
 
-		try {
-			objectIn = new ObjectInputStream(fileIn);
+		SetPieceLog log = new SetPieceLog(logFile);
+		log.load();
 
-			if (objectIn != null) {
-				savedData = (SavedData) objectIn.readObject();
-			}
+		if (legacyFile.exists()) {
+			importLegacyData(log, legacyFile);
+		}
+		repository = new SetPieceRepository(log);
+	}
 
-		} catch (IOException e) {
-			/*
-			 * It appears the file is empty. Close the input stream.
-			 */
-			try {
-				fileIn.close();
-				if (objectIn != null)
-					objectIn.close();
-			} catch (IOException e2) {
-				/*
-				 * If there is an exception at this point, just ignore it.
-				 */
+	/**
+	 * Moves the set pieces saved by older versions of the program into the
+	 * log, then deletes the old file. If the application is closed halfway
+	 * through, the import simply happens again next time. The old file is
+	 * only deleted once its set pieces are safely in the log, or if it is
+	 * empty; if it can't be read, it is kept for the next launch.
+	 */
+	private void importLegacyData(SetPieceLog log, File legacyFile)
+			throws IOException {
+		SavedData savedData = null;
+		ObjectInputStream objectIn = null;
+		try {
+			objectIn = new ObjectInputStream(new FileInputStream(legacyFile));
+			savedData = (SavedData) objectIn.readObject();
+		} catch (EOFException e) {
+			if (legacyFile.length() != 0) {
+				showLegacyDataProblem();
 				return;
 			}
+			// The file is empty, so there is nothing to import.
+		} catch (IOException e) {
+			showLegacyDataProblem();
 			return;
 		} catch (ClassNotFoundException e) {
-			Toast.makeText(getBaseContext(),
-					getString(R.string.problem_loading_set_pieces_from_file),
-					Toast.LENGTH_LONG).show();
+			showLegacyDataProblem();
+			return;
+		} finally {
+			if (objectIn != null)
+				objectIn.close();
+		}
+
+		// putAll waits for the log to reach the disk
+		if (savedData != null && savedData.getSetPieces() != null) {
+			log.putAll(savedData.getSetPieces());
 		}
-		if (savedData != null)
-			setpieces = savedData.getSetPieces();
+		legacyFile.delete();
+	}
+
+	private void showLegacyDataProblem() {
+		Toast.makeText(getBaseContext(),
+				getString(R.string.problem_loading_set_pieces_from_file),
+				Toast.LENGTH_LONG).show();
 	}
 
 	@Override
@@ -262,6 +281,12 @@ public class CrewAndroid extends ListActivity {
 
 		// Initialize file I/O if this hasn't happened already.
 		if (initialLaunch) {
+			// The shop's materials were loaded by CrewApplication
+			if (CrewApplication.isMaterialsMissing()) {
+				Toast.makeText(getBaseContext(),
+						getString(R.string.io_exception_occurred),
+						Toast.LENGTH_LONG).show();
+			}
 			try {
 				loadSavedDataFromFile();
 			} catch (FileNotFoundException e) {
@@ -275,16 +300,6 @@ public class CrewAndroid extends ListActivity {
 			}
 			initialLaunch = false;
 		}
-		// Initialize savedData, if it wasn't recovered by a file
-		if (savedData == null) {
-			savedData = new SavedData();
-		}
-		// Initialize setPieces, if it isn't associated with anything.
-		if (setpieces == null) {
-			setpieces = new ArrayList<Buildable>();
-			savedData.setSetPieces(setpieces);
-		}
-
 		lv.setOnItemClickListener(new OnItemClickListener() {
 
 			@Override
@@ -311,7 +326,6 @@ public class CrewAndroid extends ListActivity {
 					// Opens the saved pieces for viewing
 					Intent intent = new Intent(getBaseContext(),
 							SavedPieces.class);
-					intent.putExtra("setpieces", setpieces);
 					startActivity(intent);
 					break;
 				}
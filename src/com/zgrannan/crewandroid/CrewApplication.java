@@ -0,0 +1,49 @@
+package com.zgrannan.crewandroid;
+
+import java.io.IOException;
+
+import android.app.Application;
+
+/**
+ * Sets up what the whole program needs before any of its activities start.
+ * <p>
+ * Android may stop the process while the program is in the background, and
+ * start it again later at whichever activity was showing, which isn't always
+ * {@link CrewAndroid}. This is the only place sure to run first either way.
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+public class CrewApplication extends Application {
+
+	/**
+	 * Whether the shop's materials couldn't be read.
+	 */
+	private static boolean materialsMissing;
+
+	@Override
+	public void onCreate() {
+		super.onCreate();
+
+		/*
+		 * The shop's materials have to be in the catalog before any set piece
+		 * is read or built, so that set pieces built with them can find them
+		 * and their fasteners.
+		 */
+		try {
+			MaterialCatalog.load(getResources().openRawResource(
+					R.raw.materials));
+		} catch (IOException e) {
+			materialsMissing = true;
+		}
+	}
+
+	/**
+	 * @return True if the shop's materials couldn't be read, in which case
+	 *         only the built-in materials can be used.
+	 */
+	static boolean isMaterialsMissing() {
+		return materialsMissing;
+	}
+}
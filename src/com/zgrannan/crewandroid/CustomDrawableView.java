@@ -1,22 +1,25 @@
 package com.zgrannan.crewandroid;
 
+import java.util.ArrayList;
+
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Shader;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.View;
 
+import com.zgrannan.crewandroid.DiagramGeometry.Chunk;
+import com.zgrannan.crewandroid.DiagramGeometry.Floats;
 import com.zgrannan.crewandroid.Geometry.DimLine;
-import com.zgrannan.crewandroid.Geometry.Line;
-import com.zgrannan.crewandroid.Geometry.Vertex;
 import com.zgrannan.crewandroid.Pieces.CanShowDimLine;
 import com.zgrannan.crewandroid.Pieces.Piece;
-import com.zgrannan.crewandroid.Pieces.RectPiece;
-import com.zgrannan.crewandroid.Pieces.RightTriPiece;
-import com.zgrannan.crewandroid.Util.Dimension;
 
 /**
  * This class describes a view that can draw set pieces. All graphics operations
@@ -40,8 +43,8 @@ public class CustomDrawableView extends View {
 		public boolean onScale(ScaleGestureDetector detector) {
 
 			scale *= detector.getScaleFactor();
-			if (scale < 1) {
-				scale = 1; // Don't let the scale be less than one
+			if (scale < MIN_SCALE) {
+				scale = MIN_SCALE; // Don't let the scale get any smaller
 			}
 			labelPaint.setTextSize(scale * 5);
 			invalidate(); // Force the view to redraw itself
@@ -49,6 +52,37 @@ public class CustomDrawableView extends View {
 		}
 	}
 
+	/**
+	 * The smallest scale, in pixels per inch. Small enough to fit a large deck
+	 * on the screen, since less detail is drawn the further out the user
+	 * zooms.
+	 */
+	private static final float MIN_SCALE = .25f;
+
+	/**
+	 * Piece labels are only written at this scale or larger. Below it a stick
+	 * of lumber is narrower than its label, and the labels run together.
+	 */
+	private static final float MIN_LABEL_SCALE = 2;
+
+	/**
+	 * The pixels between the lines shading a piece that is underneath another.
+	 */
+	private static final int HATCH_SPACING = 8;
+
+	/**
+	 * Pieces underneath another are only shaded with lines at this scale or
+	 * larger. Below it a stick of lumber is narrower than the space between
+	 * the lines, so the piece is filled flat instead.
+	 */
+	private static final float MIN_HATCH_SCALE = 4;
+
+	/**
+	 * The fewest pixels across a fragment for its pieces to be drawn. A
+	 * smaller fragment is drawn as its outline.
+	 */
+	private static final float MIN_CHUNK_SIZE = 24;
+
 	private Paint piecePaint, // Paint for drawing the piece outline normally
 			dimPaint, // Paint for writing the dimension and drawing dimLines
 			labelPaint, // Paint for writing piece labels
@@ -57,17 +91,35 @@ public class CustomDrawableView extends View {
 			/*
 			 * Paint for indicating that a piece is under another (border)
 			 */
-			underFillPaint,
+			underHatchPaint,
 
 			/*
 			 * Paint for indicating that a piece is under another (fill)
 			 */
-			selectFillPaint;
+			selectFillPaint,
+
+			/*
+			 * Paint for indicating that a piece is selected (fill)
+			 */
+			underFlatPaint,
+
+			/*
+			 * Paint for indicating that a piece is under another when zoomed
+			 * too far out to shade it (fill)
+			 */
+			chunkPaint;
 
 	/*
-	 * Paint for indicating that a piece is selected (fill)
+	 * Paint for outlining fragments that are too small to draw
 	 */
 
+	/*
+	 * The shading drawn by underHatchPaint, and the matrix that keeps it the
+	 * same size on the screen however far the user zooms
+	 */
+	private BitmapShader hatchShader;
+	private Matrix hatchMatrix = new Matrix();
+
 	private float scale, // Graphical scale
 			xPad = 50, // Graphical horizontal offset
 			yPad = 50, // Graphical vertical offset
@@ -80,6 +132,17 @@ public class CustomDrawableView extends View {
 	private ScaleGestureDetector mScaleDetector;
 	private CanDraw toDraw; // The set piece being built
 
+	/*
+	 * The lines and text of toDraw, or null if they have to be worked out
+	 * again
+	 */
+	private DiagramGeometry geometry;
+
+	/*
+	 * Finds the piece the user tapped, or null if it hasn't been built yet
+	 */
+	private PieceIndex index;
+
 	/**
 	 * Sets the paint properties, and initializes the view
 	 * 
@@ -102,309 +165,173 @@ public class CustomDrawableView extends View {
 		underPaint = new Paint();
 		underPaint.setColor(Color.MAGENTA);
 
-		underFillPaint = new Paint();
-		underFillPaint.setColor(Color.GRAY);
-
-		selectFillPaint = new Paint();
-		selectFillPaint.setARGB(127, 54, 102, 201);
-
-		mScaleDetector = new ScaleGestureDetector(context, new ScaleListener());
-
-	}
-
-	/**
-	 * Draws a dimension line.
-	 * 
-	 * @param dimLine
-	 *            The dimension line to be drawn.
-	 * @param canvas
-	 *            The canvas that it is drawn on.
-	 */
-	private void drawLine(DimLine dimLine, Canvas canvas) {
-
-		final float SMALL_SPACE = 5, TEXT_SPACE = 50;
-		if (dimLine == null || canvas == null || !dimLine.visible)
-			return;
-
 		/*
-		 * If either the dimLine or canvas don't exist, or if the dimLine is
-		 * invisible, return
+		 * One tile of the shading: a diagonal line, which joins up with the
+		 * lines in the tiles around it
 		 */
-
-		float fromX = dimLine.from.x.toFloat() * scale + xPad;
-		float fromY = dimLine.from.y.toFloat() * scale + yPad;
-
-		float toX = dimLine.to.x.toFloat() * scale + xPad;
-		float toY = dimLine.to.y.toFloat() * scale + yPad;
-
-		if (fromX > toX) {
-
-			float temp = fromX;
-			fromX = toX;
-			toX = temp;
-
-			temp = fromY;
-			fromY = toY;
-			toY = temp;
-
+		Bitmap hatch = Bitmap.createBitmap(HATCH_SPACING, HATCH_SPACING,
+				Bitmap.Config.ARGB_8888);
+		for (int i = 0; i < HATCH_SPACING; i++) {
+			hatch.setPixel(i, HATCH_SPACING - 1 - i, Color.GRAY);
 		}
+		hatchShader = new BitmapShader(hatch, Shader.TileMode.REPEAT,
+				Shader.TileMode.REPEAT);
+		underHatchPaint = new Paint();
+		underHatchPaint.setShader(hatchShader);
 
-		float dX = toX - fromX;
-		float dY = toY - fromY;
-		float dist = (float) Math.hypot(dX, dY);
-		float angle = (float) Math.atan2(dY, dX);
-		float perp = (float) (Math.PI / 2 + angle);
+		selectFillPaint = new Paint();
+		selectFillPaint.setARGB(127, 54, 102, 201);
 
-		Vertex start = new Vertex(fromX + SMALL_SPACE * Math.cos(perp), fromY
-				+ Math.sin(perp) * SMALL_SPACE);
-		Vertex stop = new Vertex(toX + SMALL_SPACE * Math.cos(perp), toY
-				+ Math.sin(perp) * SMALL_SPACE);
-		Vertex vertex, startEnd, stopEnd, startWrite;
+		underFlatPaint = new Paint();
+		underFlatPaint.setARGB(64, 136, 136, 136);
 
-		/*
-		 * Depending on the relationship between the dimension line and the line
-		 * it describes, Draw it
-		 */
-		if (dimLine.orientation == C.ABOVE || dimLine.orientation == C.LEFT) {
-			perp -= Math.PI;
-		} else {
-			if (dimLine.orientation == C.RIGHT) {
-				perp += Math.PI;
-			}
-		}
-		vertex = drawLine(start, perp, dimLine.DIMSIZE, canvas, dimPaint);
-		startEnd = drawLine(vertex, angle, (dist - TEXT_SPACE) / 2, canvas,
-				dimPaint);
+		chunkPaint = new Paint();
+		chunkPaint.setColor(Color.RED);
+		chunkPaint.setStyle(Paint.Style.STROKE);
 
-		vertex = drawLine(stop, perp, dimLine.DIMSIZE, canvas, dimPaint);
-		stopEnd = drawLine(vertex, angle, 0 - (dist - TEXT_SPACE) / 2, canvas,
-				dimPaint);
-
-		startWrite = Geometry.getVertexAt(startEnd, angle, SMALL_SPACE);
-		startWrite.y
-				.setDimension((startEnd.y.toDouble() + stopEnd.y.toDouble()) / 2);
+		mScaleDetector = new ScaleGestureDetector(context, new ScaleListener());
 
-		canvas.drawText(dimLine.getDimension().toString(),
-				startWrite.x.toFloat(), startWrite.y.toFloat(), this.dimPaint);
 	}
 
 	/**
-	 * Draws a regular line.
+	 * Draws the lines in a batch with a single call.
 	 * 
-	 * @param line
-	 *            The line that will be drawn.
+	 * @param lines
+	 *            Pairs of points.
 	 * @param canvas
-	 *            The canvas that the line will be drawn on.
+	 *            The canvas that they are drawn on.
 	 * @param paint
-	 *            The paint that describes the style of the line.
-	 */
-	private void drawLine(Line line, Canvas canvas, Paint paint) {
-
-		if (line != null && canvas != null) {
-
-			/*
-			 * Provided that the line and canvas both exist
-			 */
-			canvas.drawLine(line.from.x.toFloat() * scale + xPad,
-					line.from.y.toFloat() * scale + yPad, line.to.x.toFloat()
-							* scale + xPad, line.to.y.toFloat() * scale + yPad,
-					paint);
-			drawLine(line.dimLine, canvas); // Also try to draw the dimline
-		}
-	}
-
-	/**
-	 * Draws a piece.
-	 * 
-	 * @param piece
-	 *            The piece that will be drawn.
-	 * @param canvas
-	 *            The canvas that it will be drawn on.
+	 *            The paint that describes the style of the lines.
 	 */
-	private void drawPiece(Piece piece, Canvas canvas) {
-		// Find the right way to draw it
-		if (piece instanceof RectPiece) {
-			drawPiece((RectPiece) piece, canvas);
-		}
-		if (piece instanceof RightTriPiece) {
-			drawPiece((RightTriPiece) piece, canvas);
+	private static void drawLines(Floats lines, Canvas canvas, Paint paint) {
+		if (lines.size > 0) {
+			canvas.drawLines(lines.values, 0, lines.size, paint);
 		}
 	}
 
 	/**
-	 * Draws a RightTriPiece. Labels the vertices and also shows the angles if
-	 * the piece requests it.
+	 * Draws text at places given in inches.
 	 * 
-	 * @param piece
-	 *            The piece that will be drawn.
+	 * @param texts
+	 *            The text to write.
+	 * @param positions
+	 *            Where each is written, in inches.
 	 * @param canvas
-	 *            The canvas that it will be drawn on.
+	 *            The canvas that it is drawn on.
+	 * @param paint
+	 *            The paint that describes the style of the text.
 	 */
-	private void drawPiece(RightTriPiece piece, Canvas canvas) {
-
-		drawLine(piece.d, canvas, piecePaint);
-		drawLine(piece.e, canvas, piecePaint);
-		drawLine(piece.f, canvas, piecePaint);
-
-		canvas.drawText("A", piece.a.x.toFloat() * scale + xPad,
-				piece.a.y.toFloat() * scale + yPad, dimPaint);
-		canvas.drawText("B", piece.b.x.toFloat() * scale + xPad,
-				piece.b.y.toFloat() * scale + yPad, dimPaint);
-		canvas.drawText("C", piece.c.x.toFloat() * scale + xPad,
-				piece.c.y.toFloat() * scale + yPad, dimPaint);
-
-		if (piece.canShowAngles()) {
-			Vertex a = Geometry.getVertexAt(piece.a,
-					0 - Math.toRadians(piece.getPrimaryAngle() / 2),
-					piece.hypotenuse.getLength() / 10);
-			Vertex b = Geometry.getVertexAt(piece.b, 5 * Math.PI / 4,
-					piece.hypotenuse.getLength() / 10);
-			Vertex c = Geometry
-					.getVertexAt(
-							piece.c,
-							Math.PI
-									/ 2
-									+ Math.toRadians(piece.getSecondaryAngle() / 2),
-							piece.hypotenuse.getLength() / 5);
-
-			String aText = String.format("%1$.0f",
-					Math.abs(piece.getPrimaryAngle()));
-			String cText = String.format("%1$.0f",
-					Math.abs(piece.getSecondaryAngle()));
-
-			canvas.drawText(aText, a.x.toFloat() * scale + xPad, a.y.toFloat()
-					* scale + yPad, dimPaint);
-			canvas.drawText("90", b.x.toFloat() * scale + xPad, b.y.toFloat()
-					* scale + yPad, dimPaint);
-			canvas.drawText(cText, c.x.toFloat() * scale + xPad, c.y.toFloat()
-					* scale + yPad, dimPaint);
-
+	private void drawTexts(ArrayList<String> texts, Floats positions,
+			Canvas canvas, Paint paint) {
+		for (int i = 0; i < texts.size(); i++) {
+			canvas.drawText(texts.get(i), positions.values[2 * i] * scale + xPad,
+					positions.values[2 * i + 1] * scale + yPad, paint);
 		}
 	}
 
 	/**
-	 * Draws a rectpiece
+	 * Draws rectangles given as left, top, right and bottom.
 	 * 
-	 * @param piece
-	 *            The piece that will be drawn.
+	 * @param rects
+	 *            The rectangles.
+	 * @param inset
+	 *            How far inside each rectangle to draw.
 	 * @param canvas
-	 *            The canvas that it will be drawn on.
+	 *            The canvas that they are drawn on.
+	 * @param paint
+	 *            The paint that describes the style of the rectangles.
 	 */
-	private void drawPiece(RectPiece piece, Canvas canvas) {
-
-		if (piece.isVisible()) {
-
-			// Only draw if visible
-
-			if (piece.isUnder()) {
-
-				// Draw it this way if it's underneath something
-
-				drawLine(piece.e, canvas, underPaint);
-				drawLine(piece.f, canvas, underPaint);
-				drawLine(piece.g, canvas, underPaint);
-				drawLine(piece.h, canvas, underPaint);
-				drawUnder(piece, canvas, underFillPaint);
-
-				/*
-				 * Draw shading to indicate it's underneath something
-				 */
-			} else {
-
-				// Otherwise draw it like this, including
-				drawLine(piece.e, canvas, piecePaint);
-				drawLine(piece.f, canvas, piecePaint);
-				drawLine(piece.g, canvas, piecePaint);
-				drawLine(piece.h, canvas, piecePaint);
-
-				canvas.drawText(piece.name,
-						(float) ((piece.getMidpoint().x.toFloat() - .75)
-								* scale + xPad),
-						(piece.getMidpoint().y.toFloat() + 1) * scale + yPad,
-						labelPaint);
-			}
-			if (piece.isSelected()) {
-
-				// If the piece is selected, fill it with some paint
-
-				canvas.drawRect(piece.a.x.toFloat() * scale + xPad + 1,
-						piece.a.y.toFloat() * scale + yPad + 1,
-						piece.c.x.toFloat() * scale + xPad - 1,
-						piece.c.y.toFloat() * scale + yPad - 1, selectFillPaint);
-			}
+	private static void drawRects(Floats rects, float inset, Canvas canvas,
+			Paint paint) {
+		float[] r = rects.values;
+		for (int i = 0; i < rects.size; i += 4) {
+			canvas.drawRect(r[i] + inset, r[i + 1] + inset, r[i + 2] - inset,
+					r[i + 3] - inset, paint);
 		}
-
 	}
 
 	/**
-	 * Draws a whole set piece to the canvas.
+	 * Draws everything in the geometry that is on the screen. The pieces are
+	 * drawn in inches through the canvas matrix, and text and dimension lines,
+	 * which stay the same size however far the user zooms, are drawn in
+	 * pixels. The less room something would take on the screen, the less of
+	 * its detail is drawn.
 	 * 
-	 * @param setPiece
-	 *            The set piece that will be drawn.
+	 * @param geometry
+	 *            The geometry of the object being drawn.
 	 * @param canvas
 	 *            The canvas that it will be drawn on.
 	 */
-	private void drawSetPiece(Buildable setPiece, Canvas canvas) {
+	private void drawGeometry(DiagramGeometry geometry, Canvas canvas) {
 
-		for (int i = 0; i < setPiece.getPieces().length; i++) {
-			// Piece by piece
-			drawPiece(setPiece.getPieces()[i], canvas);
-		}
-	}
+		// The part of the drawing on the screen, in inches
+		float left = -xPad / scale, top = -yPad / scale;
+		float right = (getWidth() - xPad) / scale;
+		float bottom = (getHeight() - yPad) / scale;
 
-	/**
-	 * Draw the shading for a rectangular piece that is underneath another
-	 * piece.
-	 * 
-	 * @param piece
-	 *            The piece that will be drawn.
-	 * @param canvas
-	 *            The canvas that it will be drawn on.
-	 * @param paint
-	 *            The paint that describes how the piece will be drawn.
-	 * 
-	 */
-	private void drawUnder(RectPiece piece, Canvas canvas, Paint paint) {
+		boolean hatch = scale >= MIN_HATCH_SCALE;
+		boolean label = scale >= MIN_LABEL_SCALE;
+		float smallest = MIN_CHUNK_SIZE / scale;
 
-		boolean orient = piece.getLongSide();
+		canvas.save();
+		canvas.translate(xPad, yPad);
+		canvas.scale(scale, scale);
 
 		/*
-		 * Figure out the long side of the piece
+		 * Undo the scale for the shading, so its lines stay a pixel wide, and
+		 * it moves with the drawing
 		 */
+		hatchMatrix.setScale(1 / scale, 1 / scale);
+		hatchShader.setLocalMatrix(hatchMatrix);
 
-		Vertex from, to; // These set the endpoints for each line drawn
-
-		// Depending on the orientation, find the vertexes of the initial line
+		for (Chunk chunk : geometry.chunks) {
+			if (chunk.right < left || chunk.left > right
+					|| chunk.bottom < top || chunk.top > bottom) {
+				continue;
+			}
+			if (chunk.right - chunk.left < smallest
+					&& chunk.bottom - chunk.top < smallest) {
+				canvas.drawRect(chunk.left, chunk.top, chunk.right,
+						chunk.bottom, chunkPaint);
+				continue;
+			}
+			drawRects(chunk.underRects, 0, canvas, hatch ? underHatchPaint
+					: underFlatPaint);
+			drawLines(chunk.underLines, canvas, underPaint);
+			drawLines(chunk.pieceLines, canvas, piecePaint);
 
-		if (orient == C.HORIZONTAL) {
-			from = new Vertex(piece.d);
-			to = new Vertex(piece.a);
-			to.move(new Dimension(C.UNDER_LINE_DENSITY), new Dimension(0));
-		} else {
-			from = new Vertex(piece.a);
-			to = new Vertex(piece.b);
-			to.move(new Dimension(0), new Dimension(C.UNDER_LINE_DENSITY));
+			// Fill selected pieces, leaving a pixel clear inside the outline
+			drawRects(chunk.selections, 1 / scale, canvas, selectFillPaint);
 		}
-
-		Line line = new Line(from, to); // Creates the first line
-
-		for (int i = 0; i < piece.getLongDimension().toDouble()
-				- C.UNDER_LINE_DENSITY; i += C.UNDER_LINE_DENSITY) {
-
-			// Draw lines, depending on orientation
-
-			drawLine(line, canvas, paint);
-			if (orient == C.HORIZONTAL) {
-				line.move(new Dimension(C.UNDER_LINE_DENSITY), new Dimension(0));
-			} else {
-				line.move(new Dimension(0), new Dimension(C.UNDER_LINE_DENSITY));
+		canvas.restore();
+
+		if (label) {
+			for (Chunk chunk : geometry.chunks) {
+				if (chunk.right >= left && chunk.left <= right
+						&& chunk.bottom >= top && chunk.top <= bottom
+						&& (chunk.right - chunk.left >= smallest || chunk.bottom
+								- chunk.top >= smallest)) {
+					drawTexts(chunk.labels, chunk.labelPositions, canvas,
+							labelPaint);
+				}
 			}
 		}
+		drawTexts(geometry.notes, geometry.notePositions, canvas, dimPaint);
+
+		geometry.layoutDimLines(scale, xPad, yPad, getWidth(), getHeight());
+		drawLines(geometry.dimPoints, canvas, dimPaint);
+		float[] positions = geometry.dimLabelPositions.values;
+		for (int i = 0; i < geometry.dimLabels.size(); i++) {
+			canvas.drawText(geometry.dimLabels.get(i), positions[2 * i],
+					positions[2 * i + 1], dimPaint);
+		}
 	}
 
 	/**
 	 * Finds the piece within FUDGE_FACTOR of the given coordinates that is
 	 * capable of showing it's dimension line and is also makes up setPiece.
+	 * The pieces are looked up in a {@link PieceIndex}, which is built the
+	 * first time this is called for a set piece.
 	 * 
 	 * @param setPiece
 	 *            The set piece that contains a piece that could be returned by
@@ -425,28 +352,13 @@ public class CustomDrawableView extends View {
 		y -= yPad;
 		y /= scale;
 
-		// Creates a vertex where the user clicked
-		Vertex v = new Vertex(x, y);
-
-		/*
-		 * Creates an array of doubles to represent distances between the pieces
-		 * of the object And where the screen was clicked
-		 */
-		double[] dist = new double[setPiece.getPieces().length];
-		for (int i = 0; i < setPiece.getPieces().length; i++) {
-			if (setPiece.getPieces()[i] != null)
-				dist[i] = Line.getLength(v,
-						setPiece.getPieces()[i].getMidpoint()).toDouble();
-			else
-				dist[i] = Double.MAX_VALUE;
+		if (index == null) {
+			index = new PieceIndex(setPiece.getPieces());
 		}
+		Piece piece = index.nearest(x, y, Geometry.FUDGE_FACTOR);
 
-		// Stores the closes piece into piece
-		Piece piece;
-		piece = setPiece.getPieces()[Util.indexOfMinValue(dist)];
-
-		// If the piece is too far away, forget it and return nothing
-		if (Line.getLength(v, piece.getMidpoint()).toDouble() < Geometry.FUDGE_FACTOR) {
+		// If nothing is near enough, return nothing
+		if (piece instanceof CanShowDimLine) {
 			return (CanShowDimLine) piece;
 		} else {
 			return null;
@@ -466,15 +378,12 @@ public class CustomDrawableView extends View {
 				scale = (float) Math.abs(Math.min(this.getHeight()
 						/ toDraw.getHeight().toDouble(), this.getWidth()
 						/ toDraw.getWidth().toDouble()) * 2 / 3);
-				scale = Math.max(scale, 1);
-			}
-			if (toDraw instanceof Buildable) {
-				drawSetPiece((Buildable) toDraw, canvas); // Draws the piece, if
-															// it exists
+				scale = Math.max(scale, MIN_SCALE);
 			}
-			if (toDraw instanceof Piece) {
-				drawPiece((Piece) toDraw, canvas);
+			if (geometry == null) {
+				geometry = new DiagramGeometry(toDraw);
 			}
+			drawGeometry(geometry, canvas);
 		}
 	}
 
@@ -517,6 +426,9 @@ public class CustomDrawableView extends View {
 						(Buildable) toDraw, x, y);
 				if (piece != null) {
 					piece.toggleDimLine();
+					if (geometry != null) {
+						geometry.updateDimLines();
+					}
 
 					/*
 					 * If that's what they were trying to do, have the piece
@@ -573,17 +485,17 @@ public class CustomDrawableView extends View {
 	 */
 	public void setDrawable(CanDraw toDraw) {
 		this.toDraw = toDraw;
+		geometry = null;
+		index = null;
 		scale = 0;
 	}
 
-	public Vertex drawLine(Vertex from, float angle, float distance, Canvas c,
-			Paint paint) {
-		c.drawLine(from.x.toFloat(), from.y.toFloat(),
-				(float) (from.x.toFloat() + distance * Math.cos(angle)),
-				(float) (from.y.toFloat() + distance * Math.sin(angle)), paint);
-		return new Vertex(from.x.toFloat() + distance * Math.cos(angle),
-				from.y.toFloat() + distance * Math.sin(angle));
-
+	/**
+	 * Redraws the item after the visibility of its pieces has changed.
+	 */
+	public void piecesChanged() {
+		geometry = null;
+		invalidate();
 	}
 
 }
@@ -0,0 +1,179 @@
+package com.zgrannan.crewandroid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.zgrannan.crewandroid.Pieces.Piece;
+import com.zgrannan.crewandroid.Util.CutlistObject;
+
+/**
+ * Groups pieces that are cut the same way, for {@link Util.Cutlist}.
+ * <p>
+ * Each piece is reduced to a single <code>long</code> holding its material
+ * id, length and width, and counted in an open-addressing hash table keyed on
+ * that number. This takes one pass over the pieces. Only the distinct groups
+ * are sorted at the end, so a cutlist for a very large number of pieces costs
+ * little more than reading them.
+ * <p>
+ * The groups come out in the same order as before: by material id, then
+ * length, then width, all descending. Within a group the pieces keep the
+ * order they were given in.
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+final class CutlistAggregator {
+
+	/*
+	 * The layout of a key, from the most significant bit: 16 bits of material
+	 * id plus one, 24 bits of length and 24 bits of width, both in sixteenths.
+	 * The id is shifted up by one so that materials with no id (-1) sort
+	 * last. Sorting keys numerically sorts by material, then length, then
+	 * width.
+	 */
+	private static final int SIZE_BITS = 24;
+	private static final long SIZE_MASK = (1L << SIZE_BITS) - 1;
+	private static final int ID_MASK = 0xFFFF;
+
+	/**
+	 * Marks an empty slot in the table. No real key can have this value,
+	 * because there are nowhere near 0xFFFF materials.
+	 */
+	private static final long EMPTY = -1L;
+
+	private long[] keys;
+	private int[] groups;
+	private int size;
+	private final ArrayList<List<Piece>> pieceLists = new ArrayList<List<Piece>>();
+
+	private CutlistAggregator(int expected) {
+		int capacity = 16;
+		while (capacity < expected * 2) {
+			capacity <<= 1;
+		}
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		groups = new int[capacity];
+	}
+
+	/**
+	 * Groups pieces that are the same material and size.
+	 *
+	 * @param pieces
+	 *            The pieces. Null pieces and pieces made of
+	 *            {@link Consumables#noSheet} are left out.
+	 * @return The groups, sorted for display.
+	 */
+	static List<CutlistObject> aggregate(Piece[] pieces) {
+		/*
+		 * Most set pieces only have a handful of distinct cuts, so start
+		 * small and let the table grow if it needs to.
+		 */
+		CutlistAggregator aggregator = new CutlistAggregator(Math.min(
+				pieces.length, 64));
+		for (Piece piece : pieces) {
+			if (piece == null
+					|| piece.getMaterial().equals(Consumables.noSheet)) {
+				continue;
+			}
+			aggregator.add(piece);
+		}
+		return aggregator.toCutlist();
+	}
+
+	/**
+	 * Packs the material, length and width of a piece into one number.
+	 */
+	private static long keyOf(Piece piece) {
+		long length = piece.length.getSixteenths();
+		long width = piece.width.getSixteenths();
+		if (length < 0 || length > SIZE_MASK || width < 0 || width > SIZE_MASK) {
+			throw new IllegalArgumentException("Piece is too large to cut: "
+					+ piece);
+		}
+		long id = (piece.getMaterial().id() + 1) & ID_MASK;
+		return id << (2 * SIZE_BITS) | length << SIZE_BITS | width;
+	}
+
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	private void add(Piece piece) {
+		long key = keyOf(piece);
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while (keys[slot] != EMPTY) {
+			if (keys[slot] == key) {
+				pieceLists.get(groups[slot]).add(piece);
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		groups[slot] = pieceLists.size();
+		List<Piece> list = new ArrayList<Piece>();
+		list.add(piece);
+		pieceLists.add(list);
+		if (++size * 2 > keys.length) {
+			grow();
+		}
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldGroups = groups;
+		keys = new long[oldKeys.length * 2];
+		Arrays.fill(keys, EMPTY);
+		groups = new int[keys.length];
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == EMPTY) {
+				continue;
+			}
+			int slot = hash(oldKeys[i]) & mask;
+			while (keys[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = oldKeys[i];
+			groups[slot] = oldGroups[i];
+		}
+	}
+
+	private List<CutlistObject> toCutlist() {
+		long[] sorted = new long[size];
+		int[] order = new int[size];
+		int n = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != EMPTY) {
+				sorted[n++] = keys[i];
+			}
+		}
+		Arrays.sort(sorted);
+
+		/*
+		 * Look up the group for each sorted key. The table is small by now
+		 * (one entry per distinct cut), so this is cheap.
+		 */
+		int mask = keys.length - 1;
+		for (int i = 0; i < size; i++) {
+			int slot = hash(sorted[i]) & mask;
+			while (keys[slot] != sorted[i]) {
+				slot = (slot + 1) & mask;
+			}
+			order[i] = groups[slot];
+		}
+
+		List<CutlistObject> cutlist = new LinkedList<CutlistObject>();
+		for (int i = size - 1; i >= 0; i--) {
+			cutlist.add(new CutlistObject(pieceLists.get(order[i])));
+		}
+		return cutlist;
+	}
+}
@@ -0,0 +1,404 @@
+package com.zgrannan.crewandroid;
+
+import java.util.ArrayList;
+
+import com.zgrannan.crewandroid.Geometry.DimLine;
+import com.zgrannan.crewandroid.Geometry.Line;
+import com.zgrannan.crewandroid.Geometry.Vertex;
+import com.zgrannan.crewandroid.Pieces.Piece;
+import com.zgrannan.crewandroid.Pieces.RectPiece;
+import com.zgrannan.crewandroid.Pieces.RightTriPiece;
+
+/**
+ * The lines and text of something drawn by {@link CustomDrawableView}, worked
+ * out once and kept in flat arrays, so that a frame is drawn with one call to
+ * {@link android.graphics.Canvas#drawLines(float[], int, int,
+ * android.graphics.Paint)} per paint instead of one call per edge.
+ * <p>
+ * Outlines, shading and selections are kept in inches and drawn through the
+ * canvas matrix, so panning and zooming don't change them. Dimension lines
+ * have ticks and gaps a fixed number of pixels long, so only their ends and
+ * directions are kept, and
+ * {@link #layoutDimLines(float, float, float, int, int)} works out where they
+ * go on the screen into arrays that are reused every frame.
+ * <p>
+ * The pieces are kept in chunks, one for each fragment of a set piece, each
+ * with its own batches and bounds. The view skips the chunks that are off the
+ * screen, so a frame costs about as much as what can be seen, and draws a
+ * chunk as a plain rectangle when it would be too small to make out.
+ * <p>
+ * Nothing here notices when a piece changes. The view builds a new one when it
+ * is given something else to draw or is told that the pieces have changed,
+ * and calls {@link #updateDimLines()} when a dimension line is shown or
+ * hidden.
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+final class DiagramGeometry {
+
+	/**
+	 * A growable array of floats.
+	 */
+	static final class Floats {
+		float[] values = new float[64];
+		int size;
+
+		void add(float a, float b) {
+			if (size + 2 > values.length) {
+				float[] grown = new float[values.length * 2];
+				System.arraycopy(values, 0, grown, 0, size);
+				values = grown;
+			}
+			values[size++] = a;
+			values[size++] = b;
+		}
+
+		void add(float a, float b, float c, float d) {
+			add(a, b);
+			add(c, d);
+		}
+
+		void clear() {
+			size = 0;
+		}
+	}
+
+	/**
+	 * The gap, in pixels, between a line and its dimension line, and between
+	 * the end of a dimension line and its text.
+	 */
+	private static final float SMALL_SPACE = 5;
+
+	/**
+	 * The room, in pixels, left in the middle of a dimension line for its text.
+	 */
+	private static final float TEXT_SPACE = 50;
+
+	/**
+	 * The number of floats kept for each dimension line in {@link #dimData}.
+	 */
+	private static final int DIM_STRIDE = 11;
+
+	/**
+	 * The pieces of one fragment, or of whatever is drawn if it isn't a set
+	 * piece.
+	 */
+	static final class Chunk {
+
+		/**
+		 * Outlines of pieces drawn normally, as pairs of points in inches.
+		 */
+		final Floats pieceLines = new Floats();
+
+		/**
+		 * Outlines of pieces that are underneath another piece.
+		 */
+		final Floats underLines = new Floats();
+
+		/**
+		 * The left, top, right and bottom of each piece that is underneath
+		 * another piece, in inches, which is filled with shading.
+		 */
+		final Floats underRects = new Floats();
+
+		/**
+		 * The left, top, right and bottom of each selected piece, in inches.
+		 */
+		final Floats selections = new Floats();
+
+		/**
+		 * The names of pieces drawn normally, and where they are written, in
+		 * inches.
+		 */
+		final ArrayList<String> labels = new ArrayList<String>();
+		final Floats labelPositions = new Floats();
+
+		/**
+		 * The left, top, right and bottom of everything drawn in this chunk,
+		 * in inches.
+		 */
+		float left = Float.MAX_VALUE, top = Float.MAX_VALUE,
+				right = -Float.MAX_VALUE, bottom = -Float.MAX_VALUE;
+
+		/**
+		 * @return True if nothing in this chunk is drawn.
+		 */
+		boolean isEmpty() {
+			return left > right;
+		}
+
+		private void include(Line line) {
+			left = Math.min(left, Math.min(line.from.getX(), line.to.getX()));
+			top = Math.min(top, Math.min(line.from.getY(), line.to.getY()));
+			right = Math.max(right, Math.max(line.from.getX(), line.to.getX()));
+			bottom = Math.max(bottom,
+					Math.max(line.from.getY(), line.to.getY()));
+		}
+	}
+
+	/**
+	 * The chunks that have something in them.
+	 */
+	final ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+
+	/**
+	 * The corner letters and angles of triangles, and where they are written,
+	 * in inches.
+	 */
+	final ArrayList<String> notes = new ArrayList<String>();
+	final Floats notePositions = new Floats();
+
+	/**
+	 * The text of each dimension line that is showing.
+	 */
+	private final ArrayList<String> dimTexts = new ArrayList<String>();
+
+	/**
+	 * The dimension lines, in pixels, as laid out by the last call to
+	 * {@link #layoutDimLines(float, float, float, int, int)}.
+	 */
+	final Floats dimPoints = new Floats();
+
+	/**
+	 * The text of each dimension line laid out, and where it is written, in
+	 * pixels.
+	 */
+	final ArrayList<String> dimLabels = new ArrayList<String>();
+	final Floats dimLabelPositions = new Floats();
+
+	/**
+	 * Every line of a piece that is drawn. Those with a dimension line showing
+	 * are found again here when one is shown or hidden.
+	 */
+	private final ArrayList<Line> lines = new ArrayList<Line>();
+
+	/**
+	 * For each dimension line that is showing: its ends in inches, its length
+	 * in inches, the direction it runs in, the direction it is moved off its
+	 * line, and the tick at each end.
+	 */
+	private float[] dimData = new float[0];
+
+	/**
+	 * Works out the geometry of something that can be drawn.
+	 *
+	 * @param toDraw
+	 *            A set piece or a single piece.
+	 */
+	DiagramGeometry(CanDraw toDraw) {
+		if (toDraw instanceof Buildable) {
+			Frag[][] frags = ((Buildable) toDraw).frags;
+			for (int i = 0; frags != null && i < frags.length; i++) {
+				for (int j = 0; j < frags[i].length; j++) {
+					Chunk chunk = new Chunk();
+					for (Piece piece : frags[i][j].getPieces()) {
+						add(chunk, piece);
+					}
+					addChunk(chunk);
+				}
+			}
+		} else if (toDraw instanceof Piece) {
+			Chunk chunk = new Chunk();
+			add(chunk, (Piece) toDraw);
+			addChunk(chunk);
+		}
+		updateDimLines();
+	}
+
+	private void addChunk(Chunk chunk) {
+		if (!chunk.isEmpty()) {
+			chunks.add(chunk);
+		}
+	}
+
+	private void add(Chunk chunk, Piece piece) {
+		if (piece instanceof RectPiece) {
+			add(chunk, (RectPiece) piece);
+		}
+		if (piece instanceof RightTriPiece) {
+			add(chunk, (RightTriPiece) piece);
+		}
+	}
+
+	private void add(Chunk chunk, RectPiece piece) {
+		if (!piece.isVisible()) {
+			return;
+		}
+		if (piece.isUnder()) {
+			addOutline(chunk, chunk.underLines, piece.e, piece.f, piece.g,
+					piece.h);
+			chunk.underRects.add(piece.a.getX(), piece.a.getY(),
+					piece.c.getX(), piece.c.getY());
+		} else {
+			addOutline(chunk, chunk.pieceLines, piece.e, piece.f, piece.g,
+					piece.h);
+			chunk.labels.add(piece.name);
+			chunk.labelPositions.add(piece.getMidpoint().getX() - .75f, piece
+					.getMidpoint().getY() + 1);
+		}
+		if (piece.isSelected()) {
+			chunk.selections.add(piece.a.getX(), piece.a.getY(), piece.c.getX(),
+					piece.c.getY());
+		}
+	}
+
+	private void add(Chunk chunk, RightTriPiece piece) {
+		addOutline(chunk, chunk.pieceLines, piece.d, piece.e, piece.f);
+		addNote("A", piece.a);
+		addNote("B", piece.b);
+		addNote("C", piece.c);
+
+		if (piece.canShowAngles()) {
+			double length = piece.hypotenuse.getLength();
+			addNote(String.format("%1$.0f", Math.abs(piece.getPrimaryAngle())),
+					Geometry.getVertexAt(piece.a,
+							0 - Math.toRadians(piece.getPrimaryAngle() / 2),
+							length / 10));
+			addNote("90",
+					Geometry.getVertexAt(piece.b, 5 * Math.PI / 4, length / 10));
+			addNote(String.format("%1$.0f",
+					Math.abs(piece.getSecondaryAngle())), Geometry.getVertexAt(
+					piece.c,
+					Math.PI / 2 + Math.toRadians(piece.getSecondaryAngle() / 2),
+					length / 5));
+		}
+	}
+
+	private void addOutline(Chunk chunk, Floats to, Line... outline) {
+		for (Line line : outline) {
+			to.add(line.from.getX(), line.from.getY(), line.to.getX(),
+					line.to.getY());
+			chunk.include(line);
+			lines.add(line);
+		}
+	}
+
+	private void addNote(String text, Vertex at) {
+		notes.add(text);
+		notePositions.add(at.getX(), at.getY());
+	}
+
+	/**
+	 * Finds the dimension lines that are showing again. Called when one is
+	 * shown or hidden.
+	 */
+	void updateDimLines() {
+		dimTexts.clear();
+		int count = 0;
+		for (Line line : lines) {
+			if (line.dimLine != null && line.dimLine.visible) {
+				count++;
+			}
+		}
+		dimData = new float[count * DIM_STRIDE];
+		int o = 0;
+		for (Line line : lines) {
+			DimLine dimLine = line.dimLine;
+			if (dimLine == null || !dimLine.visible) {
+				continue;
+			}
+			float fromX = dimLine.from.getX(), fromY = dimLine.from.getY();
+			float toX = dimLine.to.getX(), toY = dimLine.to.getY();
+			if (fromX > toX) {
+				float temp = fromX;
+				fromX = toX;
+				toX = temp;
+
+				temp = fromY;
+				fromY = toY;
+				toY = temp;
+			}
+			double angle = Math.atan2(toY - fromY, toX - fromX);
+			double perp = Math.PI / 2 + angle;
+
+			/*
+			 * Depending on the relationship between the dimension line and
+			 * the line it describes, the ticks point one way or the other.
+			 */
+			double tick = perp;
+			if (dimLine.orientation == C.ABOVE || dimLine.orientation == C.LEFT) {
+				tick -= Math.PI;
+			} else if (dimLine.orientation == C.RIGHT) {
+				tick += Math.PI;
+			}
+
+			dimData[o++] = fromX;
+			dimData[o++] = fromY;
+			dimData[o++] = toX;
+			dimData[o++] = toY;
+			dimData[o++] = (float) Math.hypot(toX - fromX, toY - fromY);
+			dimData[o++] = (float) Math.cos(angle);
+			dimData[o++] = (float) Math.sin(angle);
+			dimData[o++] = (float) Math.cos(perp);
+			dimData[o++] = (float) Math.sin(perp);
+			dimData[o++] = (float) (dimLine.DIMSIZE * Math.cos(tick));
+			dimData[o++] = (float) (dimLine.DIMSIZE * Math.sin(tick));
+			dimTexts.add(dimLine.toString());
+		}
+	}
+
+	/**
+	 * Works out where the dimension lines go on the screen, into
+	 * {@link #dimPoints}, {@link #dimLabels} and {@link #dimLabelPositions}.
+	 * Those that are off the screen are left out, as are those too short for
+	 * their text to fit between their ends.
+	 *
+	 * @param scale
+	 *            Pixels per inch.
+	 * @param xPad
+	 *            Where the left edge of the drawing is, in pixels.
+	 * @param yPad
+	 *            Where the top edge of the drawing is, in pixels.
+	 * @param width
+	 *            The width of the screen, in pixels.
+	 * @param height
+	 *            The height of the screen, in pixels.
+	 */
+	void layoutDimLines(float scale, float xPad, float yPad, int width,
+			int height) {
+		dimPoints.clear();
+		dimLabels.clear();
+		dimLabelPositions.clear();
+		for (int o = 0, n = 0; o < dimData.length; o += DIM_STRIDE, n++) {
+			float length = dimData[o + 4] * scale;
+			if (length < TEXT_SPACE) {
+				continue;
+			}
+			float cosAngle = dimData[o + 5], sinAngle = dimData[o + 6];
+			float offX = SMALL_SPACE * dimData[o + 7];
+			float offY = SMALL_SPACE * dimData[o + 8];
+			float tickX = dimData[o + 9], tickY = dimData[o + 10];
+			float half = (length - TEXT_SPACE) / 2;
+
+			float startX = dimData[o] * scale + xPad + offX;
+			float startY = dimData[o + 1] * scale + yPad + offY;
+			float stopX = dimData[o + 2] * scale + xPad + offX;
+			float stopY = dimData[o + 3] * scale + yPad + offY;
+
+			// The ticks are the furthest any of it reaches from the line
+			float reach = Math.abs(tickX) + Math.abs(tickY) + TEXT_SPACE;
+			if (Math.max(startX, stopX) < -reach
+					|| Math.min(startX, stopX) > width + reach
+					|| Math.max(startY, stopY) < -reach
+					|| Math.min(startY, stopY) > height + reach) {
+				continue;
+			}
+
+			float startEndX = startX + tickX + half * cosAngle;
+			float startEndY = startY + tickY + half * sinAngle;
+			float stopEndX = stopX + tickX - half * cosAngle;
+			float stopEndY = stopY + tickY - half * sinAngle;
+
+			dimPoints.add(startX, startY, startX + tickX, startY + tickY);
+			dimPoints.add(startX + tickX, startY + tickY, startEndX, startEndY);
+			dimPoints.add(stopX, stopY, stopX + tickX, stopY + tickY);
+			dimPoints.add(stopX + tickX, stopY + tickY, stopEndX, stopEndY);
+
+			dimLabels.add(dimTexts.get(n));
+			dimLabelPositions.add(startEndX + SMALL_SPACE * cosAngle,
+					(startEndY + stopEndY) / 2);
+		}
+	}
+}
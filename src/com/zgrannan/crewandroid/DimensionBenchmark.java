@@ -0,0 +1,82 @@
+package com.zgrannan.crewandroid;
+
+import com.zgrannan.crewandroid.Util.Dimension;
+
+/**
+ * Measures how quickly lengths can be parsed, formatted and added. This
+ * doesn't depend on anything from Android, so it can be run on a desktop JVM
+ * against the compiled classes:
+ *
+ * <pre>
+ * java -cp bin/classes com.zgrannan.crewandroid.DimensionBenchmark [count]
+ * </pre>
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+public final class DimensionBenchmark {
+
+	private static final String[] SAMPLES = { "12' 3 + 5/16\"", "147.3125",
+			"3/4\"", "8'", "1' 0 + 1/2\"", "3 1/2\"", "40' 11 + 15/16\"",
+			"7 + 1/4\"" };
+
+	private DimensionBenchmark() {
+	}
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+
+		// Warm up, so the JIT has compiled everything before we time it.
+		run(count / 10);
+		System.out.println(run(count));
+	}
+
+	/**
+	 * Runs each benchmark once.
+	 *
+	 * @param count
+	 *            How many values each benchmark should handle.
+	 * @return A summary of the results, in values per second.
+	 */
+	public static String run(int count) {
+		StringBuilder input = new StringBuilder(count * 12);
+		for (int i = 0; i < count; i++) {
+			input.append(SAMPLES[i % SAMPLES.length]).append('\n');
+		}
+
+		long checksum = 0;
+		long start = System.nanoTime();
+		DimensionParser parser = new DimensionParser(input);
+		while (parser.hasNext()) {
+			checksum += parser.next();
+		}
+		long parseTime = System.nanoTime() - start;
+
+		StringBuilder output = new StringBuilder(32);
+		start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			output.setLength(0);
+			DimensionFormat.appendTo(output, i);
+			checksum += output.length();
+		}
+		long formatTime = System.nanoTime() - start;
+
+		Dimension total = new Dimension(0);
+		Dimension step = new Dimension(0, 1, 1);
+		start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			total.add(step);
+		}
+		long addTime = System.nanoTime() - start;
+		checksum += total.getSixteenths();
+
+		return "parse: " + perSecond(count, parseTime) + "/s, format: "
+				+ perSecond(count, formatTime) + "/s, add: "
+				+ perSecond(count, addTime) + "/s (checksum " + checksum + ")";
+	}
+
+	private static long perSecond(int count, long nanos) {
+		return nanos == 0 ? 0 : (long) (count * 1e9 / nanos);
+	}
+}
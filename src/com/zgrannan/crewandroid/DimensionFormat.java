@@ -0,0 +1,119 @@
+package com.zgrannan.crewandroid;
+
+/**
+ * Formats lengths as pretty strings, e.g. 1' 2 + 3/8".
+ * <p>
+ * The fractions are looked up in a table rather than built, and recently
+ * formatted lengths are kept in a small fixed-size cache, so drawing the same
+ * labels frame after frame doesn't create any new strings. Callers that are
+ * building a larger string can use
+ * {@link #appendTo(StringBuilder, long)}, which doesn't allocate anything at
+ * all.
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+public final class DimensionFormat {
+
+	/**
+	 * The simplified string for each numerator of a fraction over 16.
+	 */
+	private static final String[] FRACTIONS = { "0/16", "1/16", "1/8",
+			"3/16", "1/4", "5/16", "3/8", "7/16", "1/2", "9/16", "5/8", "11/16",
+			"3/4", "13/16", "7/8", "15/16" };
+
+	/**
+	 * The number of entries in the cache. Must be a power of two.
+	 */
+	private static final int CACHE_SIZE = 1024;
+
+	/*
+	 * A direct-mapped cache: each length can only live in one slot, and a new
+	 * length simply replaces whatever was there. Keys and values are kept in
+	 * parallel arrays so a lookup doesn't box anything.
+	 */
+	private static final long[] cachedKeys = new long[CACHE_SIZE];
+	private static final String[] cachedValues = new String[CACHE_SIZE];
+
+	private DimensionFormat() {
+	}
+
+	/**
+	 * Takes a fraction as an integer and returns a simplified string
+	 * representation of it.
+	 *
+	 * @param fraction
+	 *            An integer representing the numerator of the fraction. The
+	 *            denominator is 16.
+	 * @return A string representing the value of this fraction.
+	 */
+	public static String fraction(int fraction) {
+		if (fraction < 0 || fraction >= FRACTIONS.length) {
+			return "error";
+		}
+		return FRACTIONS[fraction];
+	}
+
+	/**
+	 * Returns a pretty string for a length. Negative lengths are shown by
+	 * their magnitude.
+	 *
+	 * @param sixteenths
+	 *            The length, in sixteenths of an inch.
+	 * @return The formatted length.
+	 */
+	public static String format(long sixteenths) {
+		int slot = (int) (sixteenths ^ (sixteenths >>> 32)) & (CACHE_SIZE - 1);
+		synchronized (cachedValues) {
+			String value = cachedValues[slot];
+			if (value != null && cachedKeys[slot] == sixteenths) {
+				return value;
+			}
+		}
+		String value = appendTo(new StringBuilder(16), sixteenths).toString();
+		synchronized (cachedValues) {
+			cachedKeys[slot] = sixteenths;
+			cachedValues[slot] = value;
+		}
+		return value;
+	}
+
+	/**
+	 * Appends the pretty string for a length to a {@link StringBuilder}.
+	 *
+	 * @param builder
+	 *            The builder that will be appended to.
+	 * @param sixteenths
+	 *            The length, in sixteenths of an inch.
+	 * @return The builder, for chaining.
+	 */
+	public static StringBuilder appendTo(StringBuilder builder, long sixteenths) {
+		int feet = Length.feetOf(sixteenths);
+		int inches = Length.inchesOf(sixteenths);
+		int fraction = Length.fractionOf(sixteenths);
+		if (feet != 0) {
+			builder.append(feet).append("' ");
+			if (inches != 0) {
+				builder.append(inches);
+				if (fraction != 0) {
+					builder.append(" + ").append(FRACTIONS[fraction]);
+				}
+				builder.append('"');
+			} else if (fraction != 0) {
+				builder.append("0 + ").append(FRACTIONS[fraction]).append('"');
+			}
+		} else if (inches != 0) {
+			builder.append(inches);
+			if (fraction != 0) {
+				builder.append(" + ").append(FRACTIONS[fraction]);
+			}
+			builder.append('"');
+		} else if (fraction != 0) {
+			builder.append(FRACTIONS[fraction]).append('"');
+		} else {
+			builder.append("0\"");
+		}
+		return builder;
+	}
+}
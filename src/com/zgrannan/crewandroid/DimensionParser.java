@@ -0,0 +1,272 @@
+package com.zgrannan.crewandroid;
+
+/**
+ * Reads imperial lengths out of text, straight into sixteenths of an inch.
+ * <p>
+ * Accepts the same format that {@link DimensionFormat} writes, as well as the
+ * other ways people tend to write lengths by hand:
+ *
+ * <pre>
+ * 12' 3 + 5/16"
+ * 12'3"
+ * 3 1/2"
+ * 147.3125     (a bare number is in inches)
+ * 3/4"
+ * 8'
+ * -1' 6"       (a leading '-' makes the length negative)
+ * </pre>
+ *
+ * Values are rounded to the nearest sixteenth. The parser works on any
+ * {@link CharSequence}, including a {@link java.nio.CharBuffer} over a mapped
+ * file, and doesn't create any objects while parsing, so it can be used to
+ * read long lists of lengths. Several lengths can be read from one input by
+ * separating them with commas, semicolons or new lines:
+ *
+ * <pre>
+ * DimensionParser parser = new DimensionParser(text);
+ * while (parser.hasNext()) {
+ * 	long sixteenths = parser.next();
+ * }
+ * </pre>
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+public final class DimensionParser {
+
+	private final CharSequence input;
+	private final int end;
+	private int position;
+
+	/**
+	 * Creates a parser that reads lengths from the whole input.
+	 *
+	 * @param input
+	 *            The text to read lengths from.
+	 */
+	public DimensionParser(CharSequence input) {
+		this(input, 0, input.length());
+	}
+
+	/**
+	 * Creates a parser that reads lengths from part of the input.
+	 *
+	 * @param input
+	 *            The text to read lengths from.
+	 * @param start
+	 *            The index of the first character to read.
+	 * @param end
+	 *            The index after the last character to read.
+	 */
+	public DimensionParser(CharSequence input, int start, int end) {
+		this.input = input;
+		this.position = start;
+		this.end = end;
+	}
+
+	/**
+	 * @return True if there is another length left to read.
+	 */
+	public boolean hasNext() {
+		while (position < end
+				&& (isSeparator(input.charAt(position)) || Character
+						.isWhitespace(input.charAt(position)))) {
+			position++;
+		}
+		return position < end;
+	}
+
+	/**
+	 * Reads the next length.
+	 *
+	 * @return The length, in sixteenths of an inch.
+	 * @throws NumberFormatException
+	 *             If the next length isn't written properly.
+	 */
+	public long next() {
+		if (!hasNext()) {
+			throw new NumberFormatException("No more lengths");
+		}
+		int start = position;
+		while (position < end && !isSeparator(input.charAt(position))) {
+			position++;
+		}
+		return parse(input, start, position);
+	}
+
+	/**
+	 * @return The index of the next character that will be read.
+	 */
+	public int position() {
+		return position;
+	}
+
+	/**
+	 * Reads a single length.
+	 *
+	 * @param text
+	 *            The text of the length, e.g. 12' 3 + 5/16".
+	 * @return The length, in sixteenths of an inch.
+	 * @throws NumberFormatException
+	 *             If the text isn't a properly written length.
+	 */
+	public static long parse(CharSequence text) {
+		return parse(text, 0, text.length());
+	}
+
+	/**
+	 * Reads a single length from part of some text.
+	 *
+	 * @param text
+	 *            The text containing the length.
+	 * @param start
+	 *            The index of the first character of the length.
+	 * @param end
+	 *            The index after the last character of the length.
+	 * @return The length, in sixteenths of an inch.
+	 * @throws NumberFormatException
+	 *             If the text isn't a properly written length.
+	 */
+	public static long parse(CharSequence text, int start, int end) {
+		int i = skipSpaces(text, start, end);
+		boolean negative = false;
+		if (i < end && text.charAt(i) == '-') {
+			negative = true;
+			i = skipSpaces(text, i + 1, end);
+		}
+		if (i >= end) {
+			throw error(text, start, end);
+		}
+
+		double inches = 0;
+		boolean sawFeet = false, sawInches = false, sawPlus = false;
+
+		/*
+		 * Whether the inches read so far are a whole number on their own, in
+		 * which case a fraction may follow, as in 3 1/2" or 3 + 1/2". Any
+		 * other inches may not be followed by more.
+		 */
+		boolean wholeInches = false;
+
+		// Whether a '+' hasn't been followed by a number yet
+		boolean afterPlus = false;
+
+		while (i < end) {
+			char c = text.charAt(i);
+			if (c == '+') {
+				if (sawPlus || !sawFeet && !sawInches) {
+					throw error(text, start, end);
+				}
+				sawPlus = true;
+				afterPlus = true;
+				i = skipSpaces(text, i + 1, end);
+				continue;
+			}
+			if (!isDigit(c) && c != '.') {
+				throw error(text, start, end);
+			}
+
+			/*
+			 * Read a number, which is either a decimal or an integer over an
+			 * integer.
+			 */
+			long whole = 0, decimal = 0, scale = 1;
+			int digits = 0;
+			boolean sawPoint = false;
+			for (; i < end; i++) {
+				c = text.charAt(i);
+				if (isDigit(c)) {
+					if (++digits > 18) {
+						throw error(text, start, end);
+					}
+					if (sawPoint) {
+						decimal = decimal * 10 + (c - '0');
+						scale *= 10;
+					} else {
+						whole = whole * 10 + (c - '0');
+					}
+				} else if (c == '.' && !sawPoint) {
+					sawPoint = true;
+				} else {
+					break;
+				}
+			}
+			if (digits == 0) {
+				throw error(text, start, end);
+			}
+			afterPlus = false;
+			double value = whole + (double) decimal / scale;
+			boolean fraction = false;
+
+			i = skipSpaces(text, i, end);
+			if (i < end && text.charAt(i) == '/') {
+				if (sawPoint) {
+					throw error(text, start, end);
+				}
+				i = skipSpaces(text, i + 1, end);
+				long denominator = 0;
+				digits = 0;
+				for (; i < end && isDigit(text.charAt(i)); i++) {
+					if (++digits > 18) {
+						throw error(text, start, end);
+					}
+					denominator = denominator * 10 + (text.charAt(i) - '0');
+				}
+				if (digits == 0 || denominator == 0) {
+					throw error(text, start, end);
+				}
+				value = (double) whole / denominator;
+				fraction = true;
+				i = skipSpaces(text, i, end);
+			}
+
+			if (i < end && text.charAt(i) == '\'') {
+				if (sawFeet || sawInches || sawPlus) {
+					throw error(text, start, end);
+				}
+				sawFeet = true;
+				inches += value * 12;
+				i = skipSpaces(text, i + 1, end);
+			} else {
+				if (sawInches && !(wholeInches && fraction)) {
+					throw error(text, start, end);
+				}
+				wholeInches = !sawInches && !sawPoint && !fraction;
+				inches += value;
+				sawInches = true;
+				if (i < end && text.charAt(i) == '"') {
+					i = skipSpaces(text, i + 1, end);
+					if (i < end) {
+						throw error(text, start, end);
+					}
+				}
+			}
+		}
+		if (afterPlus) {
+			throw error(text, start, end);
+		}
+		return Length.toSixteenths(negative ? -inches : inches);
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isSeparator(char c) {
+		return c == ',' || c == ';' || c == '\n' || c == '\r';
+	}
+
+	private static int skipSpaces(CharSequence text, int i, int end) {
+		while (i < end && (text.charAt(i) == ' ' || text.charAt(i) == '\t')) {
+			i++;
+		}
+		return i;
+	}
+
+	private static NumberFormatException error(CharSequence text, int start,
+			int end) {
+		return new NumberFormatException("Invalid length: \""
+				+ text.subSequence(start, end) + "\"");
+	}
+}
@@ -23,6 +23,8 @@ import com.zgrannan.crewandroid.Util.Instruction;
  */
 public class DoorFrag extends Frag {
 
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * This is the amount of space between the bottom of the door and the
 	 * ground.
@@ -192,7 +194,7 @@ public class DoorFrag extends Frag {
 
 		// Piece 9 and 10 are the midpieces for the sides of the doorframe
 		pieces[9] = new RectPiece(new Vertex(woodThicknessD,
-				((RectPiece) pieces[4]).f.getMidpoint().y.toDouble()),
+				((RectPiece) pieces[4]).f.getMidpoint().getY()),
 				((RectPiece) pieces[8]).e.getLength() - 2 * woodThicknessD,
 				woodstick, C.HORIZONTAL);
 		pieces[10] = new RectPiece((RectPiece) pieces[9]);
@@ -1,6 +1,17 @@
 package com.zgrannan.crewandroid;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import android.content.Context;
 
@@ -20,7 +31,91 @@ import com.zgrannan.crewandroid.Util.PartialInstruction;
  * @author Zack Grannan
  * @version 0.96
  */
-public abstract class Frag {
+public abstract class Frag implements Cloneable, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Identifies fragments that come out exactly the same: same type, same
+	 * size and same materials. Used by
+	 * {@link Frag#make(Context, Buildable, Class)} so that each distinct
+	 * fragment is only built once.
+	 * 
+	 * @author Zack Grannan
+	 * @version 0.98
+	 * 
+	 */
+	static class TemplateKey implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private final Class<? extends Frag> fragType;
+		private final Dimension length, width;
+		private final WoodStick woodstick;
+		private final Sheet sheet;
+
+		TemplateKey(Class<? extends Frag> fragType, Dimension length,
+				Dimension width, WoodStick woodstick, Sheet sheet) {
+			this.fragType = fragType;
+			this.length = length;
+			this.width = width;
+			this.woodstick = woodstick;
+			this.sheet = sheet;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof TemplateKey))
+				return false;
+			TemplateKey other = (TemplateKey) o;
+			return fragType == other.fragType
+					&& length.getSixteenths() == other.length.getSixteenths()
+					&& width.getSixteenths() == other.width.getSixteenths()
+					&& woodstick.equals(other.woodstick)
+					&& sheet.equals(other.sheet);
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = fragType.hashCode();
+			hash = 31 * hash + (int) length.getSixteenths();
+			hash = 31 * hash + (int) width.getSixteenths();
+			hash = 31 * hash + woodstick.toString().hashCode();
+			return 31 * hash + sheet.toString().hashCode();
+		}
+	}
+
+	/**
+	 * Builds one template fragment. Used so that templates can be built at
+	 * the same time on different threads.
+	 */
+	private static class TemplateBuilder implements Callable<Frag> {
+		private final Context context;
+		private final TemplateKey key;
+
+		TemplateBuilder(Context context, TemplateKey key) {
+			this.context = context;
+			this.key = key;
+		}
+
+		@Override
+		public Frag call() {
+			Frag frag = newInstance(key.fragType);
+			frag.make(context, key.length, key.width, key.woodstick, key.sheet);
+			frag.key = key;
+			frag.saveVisibility();
+			return frag;
+		}
+	}
+
+	/**
+	 * If true, large set pieces build their distinct fragments in parallel.
+	 */
+	private static boolean parallelBuild = true;
+
+	/**
+	 * The threads used for building fragments in parallel. Created the first
+	 * time it is needed.
+	 */
+	private static ExecutorService executor;
 
 	/**
 	 * Used for instructions to determine the visibility of a piece within a
@@ -30,7 +125,9 @@ public abstract class Frag {
 	 * @version 0.96
 	 * 
 	 */
-	public static class PieceVisibilityObject {
+	public static class PieceVisibilityObject implements Serializable {
+
+		private static final long serialVersionUID = 1L;
 
 		/**
 		 * The index of the piece in the fragment {@link pieces} array.
@@ -66,6 +163,28 @@ public abstract class Frag {
 		}
 	}
 
+	/**
+	 * What this fragment was built from, if it is part of a grid made by
+	 * {@link Frag#make(Context, Buildable, Class)}.
+	 */
+	private TemplateKey key;
+
+	/**
+	 * How far this fragment has been moved from where it was built.
+	 */
+	private Dimension offsetX = new Dimension(0), offsetY = new Dimension(0);
+
+	/**
+	 * The visibility of each piece right after the fragment was built.
+	 */
+	private int[] initialVisibility;
+
+	/**
+	 * Which dimension lines of each piece were showing right after the
+	 * fragment was built.
+	 */
+	private boolean[][] initialDimLines;
+
 	protected Dimension width, length, woodThickness;
 	protected double widthD, lengthD, woodThicknessD;
 	protected WoodStick woodstick;
@@ -256,11 +375,228 @@ public abstract class Frag {
 		return new BuildResult(context, true);
 	}
 
+	/**
+	 * Creates a fragment identical to this one, without going through
+	 * {@link make(Context)} again. The pieces are copied in order, so they are
+	 * named just as they would have been if the fragment had been built from
+	 * scratch. The instructions only refer to pieces by index, so the
+	 * instruction list is shared with this fragment.
+	 * 
+	 * @return The copy.
+	 */
+	protected Frag copy() {
+		Frag copy;
+		try {
+			copy = (Frag) clone();
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+		copy.pieces = pieces.clone();
+		for (int i = 0; i < pieces.length; i++) {
+			if (pieces[i] != null)
+				copy.pieces[i] = pieces[i].copy();
+		}
+		copy.offsetX = new Dimension(offsetX);
+		copy.offsetY = new Dimension(offsetY);
+		return copy;
+	}
+
 	public void move(Dimension dispX, Dimension dispY) {
 		for (Piece piece : pieces) {
 			if (piece != null)
 				piece.move(dispX, dispY);
 		}
+		offsetX.add(dispX);
+		offsetY.add(dispY);
+	}
+
+	/**
+	 * Moves this fragment so that it sits at the given offset from where it
+	 * was built.
+	 * 
+	 * @param x
+	 *            The horizontal offset.
+	 * @param y
+	 *            The vertical offset.
+	 */
+	public void moveTo(Dimension x, Dimension y) {
+		if (x.equals(offsetX) && y.equals(offsetY))
+			return;
+		Dimension dispX = new Dimension(x), dispY = new Dimension(y);
+		dispX.subtract(offsetX);
+		dispY.subtract(offsetY);
+		move(dispX, dispY);
+	}
+
+	/**
+	 * @return What this fragment was built from, or null if it isn't part of
+	 *         a grid of fragments.
+	 */
+	TemplateKey getKey() {
+		return key;
+	}
+
+	/**
+	 * @return How far this fragment has been moved from where it was built.
+	 */
+	Dimension getOffsetX() {
+		return offsetX;
+	}
+
+	/**
+	 * @return How far this fragment has been moved from where it was built.
+	 */
+	Dimension getOffsetY() {
+		return offsetY;
+	}
+
+	/**
+	 * Remembers the current visibility of every piece, and which of its
+	 * dimension lines are showing, so that they can be put back with
+	 * {@link resetVisibility()} if this fragment is reused.
+	 */
+	protected void saveVisibility() {
+		initialVisibility = new int[pieces.length];
+		initialDimLines = new boolean[pieces.length][];
+		for (int i = 0; i < pieces.length; i++) {
+			if (pieces[i] != null) {
+				initialVisibility[i] = pieces[i].getVisibility();
+				initialDimLines[i] = pieces[i].getDimLinesShown();
+			}
+		}
+	}
+
+	/**
+	 * Puts the visibility of every piece, and its dimension lines, back to
+	 * what they were right after this fragment was built. The diagram lets
+	 * the user show and hide dimension lines, and those shouldn't turn up in
+	 * the next build.
+	 */
+	protected void resetVisibility() {
+		if (initialVisibility == null)
+			return;
+		for (int i = 0; i < pieces.length; i++) {
+			if (pieces[i] != null) {
+				pieces[i].setVisibility(initialVisibility[i]);
+				if (initialDimLines != null)
+					pieces[i].setDimLinesShown(initialDimLines[i]);
+			}
+		}
+	}
+
+	/**
+	 * Turns parallel building of large set pieces on or off. Either way the
+	 * result is exactly the same.
+	 * 
+	 * @param parallel
+	 *            If true, distinct fragments are built on several threads.
+	 */
+	public static void setParallelBuild(boolean parallel) {
+		parallelBuild = parallel;
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			int threads = Math.max(2,
+					Math.min(4, Runtime.getRuntime().availableProcessors()));
+			executor = Executors.newFixedThreadPool(threads,
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "FragBuilder");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return executor;
+	}
+
+	/**
+	 * Creates a new, empty fragment of the given type.
+	 * 
+	 * @param fragType
+	 *            The class of the fragment.
+	 * @return The fragment.
+	 */
+	private static Frag newInstance(Class<? extends Frag> fragType) {
+		try {
+			return fragType.newInstance();
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		} catch (InstantiationException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Builds a template fragment for each key, at the origin. If there is
+	 * more than one template and parallel building is on, the templates are
+	 * built at the same time.
+	 * 
+	 * @param templates
+	 *            The keys of the templates to build. The built templates are
+	 *            put in as the values.
+	 */
+	private static void buildTemplates(Context context,
+			Map<TemplateKey, Frag> templates) {
+		List<TemplateBuilder> tasks = new ArrayList<TemplateBuilder>();
+		for (TemplateKey key : templates.keySet()) {
+			tasks.add(new TemplateBuilder(context, key));
+		}
+
+		if (!parallelBuild || tasks.size() < 2
+				|| Runtime.getRuntime().availableProcessors() < 2) {
+			for (TemplateBuilder task : tasks) {
+				templates.put(task.key, task.call());
+			}
+			return;
+		}
+
+		try {
+			List<Future<Frag>> results = getExecutor().invokeAll(tasks);
+			for (int i = 0; i < tasks.size(); i++) {
+				templates.put(tasks.get(i).key, results.get(i).get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Works out the size of one row or column of fragments.
+	 * 
+	 * @param index
+	 *            The index of the row or column.
+	 * @param count
+	 *            The number of rows or columns.
+	 * @param mustFix
+	 *            If true, the last fragment is one foot long and the one
+	 *            before it takes up the rest of the extra.
+	 * @param extra
+	 *            The amount that doesn't divide evenly into full fragments.
+	 * @param max
+	 *            The size of a full fragment.
+	 * @return The size of the fragments in that row or column.
+	 */
+	private static Dimension fragSize(int index, int count, boolean mustFix,
+			double extra, Dimension max) {
+		if ((!mustFix && index < count - 1) || extra == 0
+				|| (mustFix && index < count - 2)) {
+			return new Dimension(max);
+		} else if (mustFix && index == count - 2) {
+			return new Dimension(max.toDouble() - (12 - extra));
+		} else if (mustFix && index == count - 1) {
+			return new Dimension(12);
+		} else {
+			return new Dimension(extra);
+		}
 	}
 
 	/**
@@ -283,6 +619,7 @@ public abstract class Frag {
 		Dimension width = setpiece.width;
 		WoodStick woodstick = setpiece.woodstick;
 		Sheet sheet = setpiece.sheet;
+		Frag[][] previous = setpiece.takeReusableFrags();
 		Frag frag = null;
 		try {
 			frag = fragType.asSubclass(Frag.class).newInstance();
@@ -363,56 +700,118 @@ public abstract class Frag {
 				frags[0][0].make(context, length, width, woodstick, sheet);
 			}
 		}else{
+			/*
+			 * Work out the size of every row and column first. The offset of
+			 * each one is a running sum of the sizes before it.
+			 */
+			Dimension[] lengths = new Dimension[numFragsY];
+			Dimension[] offsetsY = new Dimension[numFragsY];
+			Dimension offset = new Dimension(0);
+			for (int j = 0; j < numFragsY; j++) {
+				lengths[j] = fragSize(j, numFragsY, mustFixLength, extraLength,
+						frag.maxLength());
+				offsetsY[j] = new Dimension(offset);
+				offset.add(lengths[j]);
+			}
+			Dimension[] widths = new Dimension[numFragsX];
+			Dimension[] offsetsX = new Dimension[numFragsX];
+			offset = new Dimension(0);
+			for (int i = 0; i < numFragsX; i++) {
+				widths[i] = fragSize(i, numFragsX, mustFixWidth, extraWidth,
+						frag.maxWidth());
+				offsetsX[i] = new Dimension(offset);
+				offset.add(widths[i]);
+			}
+
+			/*
+			 * Most of the fragments in a large set piece are the same size, so
+			 * each distinct fragment is only built once. The rest are copies of
+			 * it, moved into place.
+			 */
+			int firstName = Piece.getNameIndex();
+			TemplateKey[][] keys = new TemplateKey[numFragsX][numFragsY];
+			LinkedHashMap<TemplateKey, Frag> templates =
+					new LinkedHashMap<TemplateKey, Frag>();
+
+			/*
+			 * If this set piece was just built with slightly different
+			 * parameters, any fragment that comes out the same in the same
+			 * cell is kept, and only the others are built again. Kept
+			 * fragments can also be copied for new cells.
+			 */
+			HashMap<TemplateKey, Frag> reused = new HashMap<TemplateKey, Frag>();
 			for (int i = 0; i < numFragsX; i++) {
 				for (int j = 0; j < numFragsY; j++) {
-					Dimension w = null, l = null;
-					if ((!mustFixLength && (j < numFragsY - 1)) || extraLength == 0
-							|| (mustFixLength && j < numFragsY - 2)) {
-						l = new Dimension(frag.maxLength());
-					} else if (mustFixLength && j == numFragsY - 2) {
-						l = new Dimension(frag.maxLength().toDouble()
-								- (12 - extraLength));
-					} else if (mustFixLength && j == numFragsY - 1) {
-						l = new Dimension(12);
-					} else {
-						l = new Dimension(extraLength);
-					}
-	
-					if ((!mustFixWidth && (i < numFragsX - 1)) || extraWidth == 0
-							|| (mustFixWidth && i < numFragsX - 2)) {
-						w = new Dimension(frag.maxWidth());
-					} else if (mustFixWidth && i == numFragsX - 2) {
-						w = new Dimension(frag.maxWidth().toDouble()
-								- (12 - extraWidth));
-					} else if (mustFixWidth && i == numFragsX - 1) {
-						w = new Dimension(12);
-					} else {
-						w = new Dimension(extraWidth);
+					keys[i][j] = new TemplateKey(fragType, lengths[j],
+							widths[i], woodstick, sheet);
+					if (previous != null && i < previous.length
+							&& j < previous[i].length
+							&& keys[i][j].equals(previous[i][j].key)) {
+						frags[i][j] = previous[i][j];
+						frags[i][j].resetVisibility();
+						if (!reused.containsKey(keys[i][j])) {
+							reused.put(keys[i][j], frags[i][j]);
+						}
 					}
-					try {
-						frags[i][j] = fragType.newInstance();
-					} catch (IllegalAccessException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					} catch (InstantiationException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-					frags[i][j].make(context, l, w, woodstick, sheet);
-					Dimension dispX = new Dimension(0), dispY = new Dimension(0);
-					for (int a = 0; a < j; a++) {
-						dispY.add(frags[i][a].length);
+				}
+			}
+			for (int i = 0; i < numFragsX; i++) {
+				for (int j = 0; j < numFragsY; j++) {
+					if (frags[i][j] == null && !reused.containsKey(keys[i][j])
+							&& !templates.containsKey(keys[i][j])) {
+						templates.put(keys[i][j], null);
 					}
-					for (int a = 0; a < i; a++) {
-						dispX.add(frags[a][j].width);
+				}
+			}
+			buildTemplates(context, templates);
+			templates.putAll(reused);
+
+			for (int i = 0; i < numFragsX; i++) {
+				for (int j = 0; j < numFragsY; j++) {
+					if (frags[i][j] == null) {
+						frags[i][j] = templates.get(keys[i][j]).copy();
 					}
-					frags[i][j].move(dispX, dispY);
 				}
 			}
+			for (int i = 0; i < numFragsX; i++) {
+				for (int j = 0; j < numFragsY; j++) {
+					frags[i][j].moveTo(offsetsX[i], offsetsY[j]);
+				}
+			}
+
+			/*
+			 * The templates may have been built in any order, so the pieces are
+			 * named afterwards, in the same order they would have been built
+			 * one at a time.
+			 */
+			nameGrid(frags, firstName);
 		}
 		return frags;
 	}
 
+	/**
+	 * Names the pieces in a grid of fragments in order, column by column, and
+	 * leaves the automatic labeler at the next name.
+	 * 
+	 * @param frags
+	 *            The fragments.
+	 * @param firstName
+	 *            The index of the name of the first piece.
+	 */
+	static void nameGrid(Frag[][] frags, int firstName) {
+		int name = firstName;
+		for (int i = 0; i < frags.length; i++) {
+			for (int j = 0; j < frags[i].length; j++) {
+				for (Piece piece : frags[i][j].pieces) {
+					if (piece != null) {
+						piece.name = Piece.nameFor(name++);
+					}
+				}
+			}
+		}
+		Piece.setNameIndex(name);
+	}
+
 	/**
 	 * Loads all the data necessary to construct a fragment.
 	 * 
@@ -0,0 +1,191 @@
+package com.zgrannan.crewandroid;
+
+import android.opengl.GLSurfaceView;
+import android.os.SystemClock;
+
+/**
+ * Decides when the 3D view draws a frame.
+ * <p>
+ * The view renders only when it is dirty, so nothing is drawn while the user
+ * is just looking at the set piece. A frame is drawn when a gesture or the
+ * trackball asks for one with {@link #requestFrame()}, and while a fling is
+ * slowing down. A fling is animated against the clock rather than the frame
+ * count, so it turns just as far on a slow device as on a fast one, and the
+ * view goes idle again as soon as it stops.
+ * <p>
+ * The scheduler counts the frames it lets through, and the frames a view that
+ * rendered continuously would have drawn in the time the view was showing
+ * but this one didn't.
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+final class FrameScheduler {
+
+	/**
+	 * How long a frame lasts on a view that renders continuously, in
+	 * milliseconds. Used to count the frames that were skipped.
+	 */
+	private static final double FRAME_INTERVAL = 1000.0 / 60;
+
+	/**
+	 * The fraction of its speed a fling keeps after a second.
+	 */
+	private static final double FLING_FRICTION = 0.05;
+
+	/**
+	 * A fling stops once it is slower than this, in degrees per second.
+	 */
+	private static final float MIN_FLING_SPEED = 5;
+
+	private final GLSurfaceView view;
+
+	/**
+	 * How quickly the fling is turning the set piece, in degrees per second.
+	 */
+	private float flingX, flingY;
+
+	/**
+	 * When the fling was last advanced, or 0 if it hasn't been yet.
+	 */
+	private long lastFling;
+
+	private long framesRendered;
+
+	/**
+	 * How long the view has been showing, not counting since
+	 * {@link #resumedAt}, in milliseconds.
+	 */
+	private long shownFor;
+
+	/**
+	 * When the view was last resumed, or -1 if it is paused.
+	 */
+	private long resumedAt = -1;
+
+	/**
+	 * Creates a scheduler for a view, which should render only when it is
+	 * dirty.
+	 *
+	 * @param view
+	 *            The view.
+	 */
+	FrameScheduler(GLSurfaceView view) {
+		this.view = view;
+	}
+
+	/**
+	 * Asks for a frame to be drawn, because the input has changed what the
+	 * view shows. Requests made before the frame is drawn are drawn together.
+	 */
+	void requestFrame() {
+		view.requestRender();
+	}
+
+	/**
+	 * Starts the set piece turning on its own, slowing down until it stops.
+	 *
+	 * @param velocityX
+	 *            How quickly it turns about the vertical axis, in degrees per
+	 *            second.
+	 * @param velocityY
+	 *            How quickly it turns about the horizontal axis, in degrees
+	 *            per second.
+	 */
+	synchronized void fling(float velocityX, float velocityY) {
+		if (Math.hypot(velocityX, velocityY) < MIN_FLING_SPEED) {
+			return;
+		}
+		flingX = velocityX;
+		flingY = velocityY;
+		lastFling = 0;
+		requestFrame();
+	}
+
+	/**
+	 * Stops a fling, e.g. because the user has touched the screen again.
+	 */
+	synchronized void stopFling() {
+		flingX = 0;
+		flingY = 0;
+	}
+
+	/**
+	 * Called by the renderer at the start of each frame. Advances the fling,
+	 * and asks for another frame if it is still turning.
+	 *
+	 * @param rotation
+	 *            Gets how far the fling has turned the set piece since the
+	 *            last frame, in degrees about the vertical and then the
+	 *            horizontal axis.
+	 */
+	synchronized void beginFrame(float[] rotation) {
+		framesRendered++;
+		rotation[0] = 0;
+		rotation[1] = 0;
+		if (flingX == 0 && flingY == 0) {
+			return;
+		}
+		long now = SystemClock.uptimeMillis();
+		if (lastFling != 0) {
+			float seconds = (now - lastFling) / 1000f;
+			rotation[0] = flingX * seconds;
+			rotation[1] = flingY * seconds;
+			float slowdown = (float) Math.pow(FLING_FRICTION, seconds);
+			flingX *= slowdown;
+			flingY *= slowdown;
+			if (Math.hypot(flingX, flingY) < MIN_FLING_SPEED) {
+				stopFling();
+				return;
+			}
+		}
+		lastFling = now;
+		requestFrame();
+	}
+
+	/**
+	 * Called when the view is resumed.
+	 */
+	synchronized void resume() {
+		if (resumedAt == -1) {
+			resumedAt = SystemClock.uptimeMillis();
+		}
+	}
+
+	/**
+	 * Called when the view is paused. Any fling is stopped.
+	 */
+	synchronized void pause() {
+		if (resumedAt != -1) {
+			shownFor += SystemClock.uptimeMillis() - resumedAt;
+			resumedAt = -1;
+		}
+		stopFling();
+	}
+
+	/**
+	 * @return The number of frames drawn.
+	 */
+	synchronized long getFramesRendered() {
+		return framesRendered;
+	}
+
+	/**
+	 * @return The number of frames a view that rendered continuously would
+	 *         have drawn while this one was showing, but this one didn't.
+	 */
+	synchronized long getFramesSkipped() {
+		long shown = shownFor;
+		if (resumedAt != -1) {
+			shown += SystemClock.uptimeMillis() - resumedAt;
+		}
+		return Math.max(0, (long) (shown / FRAME_INTERVAL) - framesRendered);
+	}
+
+	@Override
+	public String toString() {
+		return getFramesRendered() + " frames rendered, " + getFramesSkipped()
+				+ " skipped";
+	}
+}
@@ -1,5 +1,7 @@
 package com.zgrannan.crewandroid;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 import com.zgrannan.crewandroid.Util.Dimension;
@@ -80,7 +82,7 @@ public class Geometry {
 		 */
 		@Override
 		public String toString() {
-			return Line.getLength(from, to).toString();
+			return DimensionFormat.format(Line.getLengthSixteenths(from, to));
 		}
 
 		/**
@@ -123,6 +125,20 @@ public class Geometry {
 			return new Dimension(getLengthDouble(from, to));
 		}
 
+		/**
+		 * Returns the distance between two vertices, rounded to the nearest
+		 * sixteenth of an inch. Doesn't allocate anything.
+		 * 
+		 * @param from
+		 *            The "from" vertex.
+		 * @param to
+		 *            The "to" vertex.
+		 * @return The distance between these vertices, in sixteenths.
+		 */
+		public static long getLengthSixteenths(Vertex from, Vertex to) {
+			return Length.toSixteenths(getLengthDouble(from, to));
+		}
+
 		/**
 		 * Returns the distance between two vertices as a double
 		 * 
@@ -133,10 +149,9 @@ public class Geometry {
 		 * @return A double representing the distance between these vertices.
 		 */
 		private static double getLengthDouble(Vertex a, Vertex b) {
-			return Math.sqrt((a.x.toDouble() - b.x.toDouble())
-					* (a.x.toDouble() - b.x.toDouble())
-					+ (a.y.toDouble() - b.y.toDouble())
-					* (a.y.toDouble() - b.y.toDouble()));
+			double dx = a.getX() - b.getX();
+			double dy = a.getY() - b.getY();
+			return Math.sqrt(dx * dx + dy * dy);
 		}
 
 		/**
@@ -218,8 +233,8 @@ public class Geometry {
 		}
 
 		public Vertex getMidpoint() {
-			return new Vertex((from.x.toDouble() + to.x.toDouble()) / 2,
-					(from.y.toDouble() + to.y.toDouble()) / 2);
+			return new Vertex(((double) from.getX() + to.getX()) / 2,
+					((double) from.getY() + to.getY()) / 2);
 		}
 
 		/**
@@ -276,16 +291,18 @@ public class Geometry {
 		 * @return A double representing the slope.
 		 */
 		public double getSlope() {
-			return (from.y.toDouble() - to.y.toDouble())
-					/ (from.x.toDouble() - to.x.toDouble());
+			return ((double) from.getY() - to.getY())
+					/ ((double) from.getX() - to.getX());
 		}
 	}
 
 	/**
-	 * Class for the vertex.
+	 * Class for the vertex. A vertex either holds its own coordinates, or,
+	 * once its set piece has been built, is a view over a slot in a
+	 * {@link GeometryBuffer}.
 	 * 
 	 * @author Zack Grannan
-	 * @version 0.9
+	 * @version 0.98
 	 * 
 	 */
 	public static class Vertex implements Serializable {
@@ -294,7 +311,19 @@ public class Geometry {
 		 * 
 		 */
 		private static final long serialVersionUID = 1L;
-		protected Dimension x, y;
+
+		/**
+		 * The coordinates of this vertex in sixteenths of an inch, used when
+		 * the vertex isn't bound to a buffer.
+		 */
+		private int x, y;
+
+		/**
+		 * The buffer holding this vertex's coordinates, or null if it holds
+		 * its own.
+		 */
+		private transient GeometryBuffer buffer;
+		private transient int index;
 
 		/**
 		 * Creates a vertex from given dimensions.
@@ -305,9 +334,8 @@ public class Geometry {
 		 *            The vertical {@link Dimension}.
 		 */
 		public Vertex(Dimension x, Dimension y) {
-			// TODO V2 Constructors shouldn't call new() in this function
-			this.x = new Dimension(x);
-			this.y = new Dimension(y);
+			this.x = (int) x.getSixteenths();
+			this.y = (int) y.getSixteenths();
 		}
 
 		/**
@@ -319,23 +347,60 @@ public class Geometry {
 		 *            The vertical calue.
 		 */
 		public Vertex(double x, double y) {
-
-			this.x = new Dimension(x);
-			this.y = new Dimension(y);
-
+			this.x = (int) Length.toSixteenths(x);
+			this.y = (int) Length.toSixteenths(y);
 		}
 
 		/**
-		 * Creates a vertex from another vertex.
+		 * Creates a vertex from another vertex. The new vertex holds its own
+		 * coordinates.
 		 * 
 		 * @param other
 		 *            The vertex the other parameters are copied from.
 		 */
 		Vertex(Vertex other) {
+			x = other.getXSixteenths();
+			y = other.getYSixteenths();
+		}
+
+		/**
+		 * Moves this vertex into the next free slot of a buffer. From then on
+		 * the buffer holds the coordinates.
+		 * 
+		 * @param buffer
+		 *            The buffer this vertex will become a view over.
+		 */
+		void bind(GeometryBuffer buffer) {
+			index = buffer.add(getXSixteenths(), getYSixteenths());
+			this.buffer = buffer;
+		}
 
-			x = new Dimension(other.x);
-			y = new Dimension(other.y);
+		/**
+		 * @return The horizontal coordinate, in inches.
+		 */
+		public float getX() {
+			return (float) getXSixteenths() / Length.PER_INCH;
+		}
 
+		/**
+		 * @return The vertical coordinate, in inches.
+		 */
+		public float getY() {
+			return (float) getYSixteenths() / Length.PER_INCH;
+		}
+
+		/**
+		 * @return The horizontal coordinate, in sixteenths of an inch.
+		 */
+		public int getXSixteenths() {
+			return buffer == null ? x : buffer.getX(index);
+		}
+
+		/**
+		 * @return The vertical coordinate, in sixteenths of an inch.
+		 */
+		public int getYSixteenths() {
+			return buffer == null ? y : buffer.getY(index);
 		}
 
 		/**
@@ -347,9 +412,24 @@ public class Geometry {
 		 *            Vertical displacement.
 		 */
 		public void move(Dimension a, Dimension b) {
+			move((int) a.getSixteenths(), (int) b.getSixteenths());
+		}
 
-			x.add(a);
-			y.add(b);
+		/**
+		 * Move this vertex by given amounts.
+		 * 
+		 * @param dx
+		 *            Horizontal displacement, in sixteenths.
+		 * @param dy
+		 *            Vertical displacement, in sixteenths.
+		 */
+		public void move(int dx, int dy) {
+			if (buffer == null) {
+				x += dx;
+				y += dy;
+			} else {
+				buffer.move(index, 1, dx, dy);
+			}
 		}
 
 		/**
@@ -361,8 +441,38 @@ public class Geometry {
 		 *            The vertical calue.
 		 */
 		public void setPosition(float x, float y) {
-			this.x = new Dimension(x);
-			this.y = new Dimension(y);
+			setX(x);
+			setY(y);
+		}
+
+		/**
+		 * Sets the horizontal coordinate.
+		 * 
+		 * @param x
+		 *            The horizontal value, in inches.
+		 */
+		public void setX(double x) {
+			int value = (int) Length.toSixteenths(x);
+			if (buffer == null) {
+				this.x = value;
+			} else {
+				buffer.setX(index, value);
+			}
+		}
+
+		/**
+		 * Sets the vertical coordinate.
+		 * 
+		 * @param y
+		 *            The vertical value, in inches.
+		 */
+		public void setY(double y) {
+			int value = (int) Length.toSixteenths(y);
+			if (buffer == null) {
+				this.y = value;
+			} else {
+				buffer.setY(index, value);
+			}
 		}
 
 		/**
@@ -370,7 +480,18 @@ public class Geometry {
 		 */
 		@Override
 		public String toString() {
-			return "(" + x + "," + y + ")";
+			return "(" + DimensionFormat.format(getXSixteenths()) + ","
+					+ DimensionFormat.format(getYSixteenths()) + ")";
+		}
+
+		/**
+		 * Copies the coordinates out of the buffer before writing, so that the
+		 * vertex can be read back on its own.
+		 */
+		private void writeObject(ObjectOutputStream out) throws IOException {
+			x = getXSixteenths();
+			y = getYSixteenths();
+			out.defaultWriteObject();
 		}
 	}
 
@@ -454,7 +575,7 @@ public class Geometry {
 	 */
 	public static Vertex getVertexAt(Vertex from, double radians,
 			double distance) {
-		return new Vertex(from.x.toFloat() + distance * Math.cos(radians),
-				from.y.toFloat() + distance * Math.sin(radians));
+		return new Vertex(from.getX() + distance * Math.cos(radians),
+				from.getY() + distance * Math.sin(radians));
 	}
 }
@@ -0,0 +1,141 @@
+package com.zgrannan.crewandroid;
+
+import com.zgrannan.crewandroid.Geometry.Vertex;
+
+/**
+ * Stores the corners of every piece in a set piece in one primitive array.
+ * <p>
+ * Once a set piece has been built, each {@link Vertex} is bound to a slot in
+ * this buffer and becomes a view over it, and the vertices of each piece sit
+ * next to each other. Moving a piece or handing its corners to OpenGL then
+ * walks a single array instead of chasing objects around the heap.
+ * Coordinates are kept as whole sixteenths of an inch, the same resolution as
+ * {@link Util.Dimension}.
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+public class GeometryBuffer {
+
+	/**
+	 * The coordinates, interleaved as x0, y0, x1, y1, ... in sixteenths of an
+	 * inch.
+	 */
+	private int[] coords;
+
+	/**
+	 * The number of vertices in the buffer.
+	 */
+	private int size;
+
+	/**
+	 * Creates an empty buffer.
+	 *
+	 * @param capacity
+	 *            The number of vertices the buffer can hold before it has to
+	 *            grow.
+	 */
+	public GeometryBuffer(int capacity) {
+		coords = new int[Math.max(capacity, 4) * 2];
+	}
+
+	/**
+	 * Adds a vertex to the end of the buffer.
+	 *
+	 * @param x
+	 *            The horizontal coordinate, in sixteenths.
+	 * @param y
+	 *            The vertical coordinate, in sixteenths.
+	 * @return The index of the new vertex.
+	 */
+	public int add(int x, int y) {
+		if (size * 2 == coords.length) {
+			int[] grown = new int[coords.length * 2];
+			System.arraycopy(coords, 0, grown, 0, coords.length);
+			coords = grown;
+		}
+		coords[size * 2] = x;
+		coords[size * 2 + 1] = y;
+		return size++;
+	}
+
+	/**
+	 * @return The number of vertices in the buffer.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int getX(int index) {
+		return coords[index * 2];
+	}
+
+	public int getY(int index) {
+		return coords[index * 2 + 1];
+	}
+
+	public void setX(int index, int x) {
+		coords[index * 2] = x;
+	}
+
+	public void setY(int index, int y) {
+		coords[index * 2 + 1] = y;
+	}
+
+	/**
+	 * Moves a run of vertices.
+	 *
+	 * @param first
+	 *            The index of the first vertex to move.
+	 * @param count
+	 *            The number of vertices to move.
+	 * @param dx
+	 *            Horizontal displacement, in sixteenths.
+	 * @param dy
+	 *            Vertical displacement, in sixteenths.
+	 */
+	public void move(int first, int count, int dx, int dy) {
+		int end = (first + count) * 2;
+		for (int i = first * 2; i < end; i += 2) {
+			coords[i] += dx;
+			coords[i + 1] += dy;
+		}
+	}
+
+	/**
+	 * Writes a run of vertices out in the layout used by
+	 * {@link Pieces.Piece#toVertices(float, float)}: each vertex becomes two
+	 * points, (x, y, 0) and (x, y, depth).
+	 *
+	 * @param first
+	 *            The index of the first vertex.
+	 * @param count
+	 *            The number of vertices.
+	 * @param offX
+	 *            Added to every x coordinate, in inches.
+	 * @param offY
+	 *            Added to every y coordinate, in inches.
+	 * @param depth
+	 *            The z coordinate of the second point of each vertex.
+	 * @param out
+	 *            The array the points are written to.
+	 * @param offset
+	 *            The index in out of the first value written.
+	 */
+	public void toVertices(int first, int count, float offX, float offY,
+			float depth, float[] out, int offset) {
+		for (int i = 0; i < count; i++) {
+			float x = (float) coords[(first + i) * 2] / Length.PER_INCH + offX;
+			float y = (float) coords[(first + i) * 2 + 1] / Length.PER_INCH
+					+ offY;
+			int o = offset + i * 6;
+			out[o] = x;
+			out[o + 1] = y;
+			out[o + 2] = 0.0f;
+			out[o + 3] = x;
+			out[o + 4] = y;
+			out[o + 5] = depth;
+		}
+	}
+}
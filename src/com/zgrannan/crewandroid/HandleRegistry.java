@@ -0,0 +1,174 @@
+package com.zgrannan.crewandroid;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import android.content.Intent;
+
+import com.zgrannan.crewandroid.BuildableCodec.FormatException;
+
+/**
+ * Passes objects between activities in the same process without serializing
+ * them.
+ * <p>
+ * Putting an object into an Intent with {@link #put(Intent, String, Object,
+ * Buildable)} registers it here and puts a small handle in the Intent. The
+ * activity that is started looks the object up by its handle and gets the
+ * very same object, however large it is, and releases it with
+ * {@link #release(Intent, String)} when it is finishing, which drops it.
+ * Each registration has its own handle, so an object put into two Intents is
+ * kept until both have been released.
+ * <p>
+ * If the process dies, the registry is lost but the Intent is kept. So that
+ * the activity can still be recreated, the Intent also holds the
+ * {@link BuildSpec} of the set piece the object belongs to, which is enough to
+ * build it again.
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+public final class HandleRegistry {
+
+	/**
+	 * Identifies this process, so that handles left in Intents by a process
+	 * that has died aren't mistaken for handles registered in this one.
+	 */
+	private static final long SESSION = new Random().nextLong();
+
+	private static final HashMap<Long, Object> entries = new HashMap<Long, Object>();
+
+	private static long nextHandle = 1;
+
+	private HandleRegistry() {
+	}
+
+	/**
+	 * Registers an object, until its handle is released.
+	 *
+	 * @param value
+	 *            The object.
+	 * @return The handle of the object.
+	 */
+	public static synchronized long register(Object value) {
+		long handle = nextHandle++;
+		entries.put(handle, value);
+		return handle;
+	}
+
+	/**
+	 * @param handle
+	 *            A handle returned by {@link #register(Object)}.
+	 * @return The object, or null if the handle has been released.
+	 */
+	public static synchronized Object get(long handle) {
+		return entries.get(handle);
+	}
+
+	/**
+	 * Releases a handle, dropping the object it was registered with.
+	 *
+	 * @param handle
+	 *            The handle of the object.
+	 */
+	public static synchronized void release(long handle) {
+		entries.remove(handle);
+	}
+
+	/**
+	 * Registers an object and puts its handle in an Intent, along with the
+	 * spec of the set piece it belongs to. The handle belongs to the
+	 * activity the Intent starts, which should release it with
+	 * {@link #release(Intent, String)}.
+	 *
+	 * @param intent
+	 *            The Intent.
+	 * @param name
+	 *            The name of the extra.
+	 * @param value
+	 *            The object.
+	 * @param setPiece
+	 *            The set piece the object is, or belongs to.
+	 */
+	public static void put(Intent intent, String name, Object value,
+			Buildable setPiece) {
+		intent.putExtra(name + ".handle", register(value));
+		intent.putExtra(name + ".session", SESSION);
+		intent.putExtra(name + ".spec", BuildSpec.of(setPiece).toByteArray());
+		intent.putExtra(name + ".filename", setPiece.getFilename());
+	}
+
+	/**
+	 * @param intent
+	 *            An Intent.
+	 * @param name
+	 *            The name of an extra put with
+	 *            {@link #put(Intent, String, Object, Buildable)}.
+	 * @return The object, or null if it isn't registered in this process.
+	 */
+	public static Object get(Intent intent, String name) {
+		if (intent.getLongExtra(name + ".session", 0) != SESSION) {
+			return null;
+		}
+		return get(intent.getLongExtra(name + ".handle", 0));
+	}
+
+	/**
+	 * Gets a set piece put into an Intent with
+	 * {@link #put(Intent, String, Object, Buildable)}. If it isn't registered
+	 * in this process, it is created again from its spec, and hasn't been
+	 * made.
+	 *
+	 * @param intent
+	 *            The Intent.
+	 * @param name
+	 *            The name of the extra.
+	 * @return The set piece, or null if the Intent doesn't hold one.
+	 */
+	public static Buildable getSetPiece(Intent intent, String name) {
+		Object value = get(intent, name);
+		if (value instanceof Buildable) {
+			return (Buildable) value;
+		}
+		return newSetPiece(intent, name);
+	}
+
+	/**
+	 * Creates the set piece whose spec was put into an Intent with
+	 * {@link #put(Intent, String, Object, Buildable)}. It hasn't been made.
+	 *
+	 * @param intent
+	 *            The Intent.
+	 * @param name
+	 *            The name of the extra.
+	 * @return The set piece, or null if the Intent doesn't hold one.
+	 */
+	public static Buildable newSetPiece(Intent intent, String name) {
+		byte[] spec = intent.getByteArrayExtra(name + ".spec");
+		if (spec == null) {
+			return null;
+		}
+		Buildable setPiece;
+		try {
+			setPiece = BuildSpec.fromByteArray(spec).newSetPiece();
+		} catch (FormatException e) {
+			return null;
+		}
+		setPiece.setFilename(intent.getStringExtra(name + ".filename"));
+		return setPiece;
+	}
+
+	/**
+	 * Releases the handle held by an Intent.
+	 *
+	 * @param intent
+	 *            The Intent.
+	 * @param name
+	 *            The name of the extra.
+	 */
+	public static void release(Intent intent, String name) {
+		if (intent.getLongExtra(name + ".session", 0) == SESSION) {
+			release(intent.getLongExtra(name + ".handle", 0));
+		}
+	}
+}
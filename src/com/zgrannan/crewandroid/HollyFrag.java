@@ -9,6 +9,8 @@ package com.zgrannan.crewandroid;
  */
 public class HollyFrag extends PlatTypeFrag {
 
+	private static final long serialVersionUID = 1L;
+
 	@Override
 	protected int getCrossbeams() {
 		if (length.toDouble() < 48)
@@ -0,0 +1,285 @@
+package com.zgrannan.crewandroid;
+
+import java.io.Serializable;
+
+/**
+ * An immutable length, stored as a whole number of sixteenths of an inch.
+ * <p>
+ * All of the arithmetic that {@link Util.Dimension} used to do by converting
+ * to a double, rounding, and splitting the result back into feet, inches and a
+ * fraction is done here on a single <code>long</code>. The static methods work
+ * directly on sixteenths counts and never allocate, so they can be used in
+ * tight geometry loops. Lengths up to {@link #CACHE_LIMIT} (which covers every
+ * standard lumber and sheet size) are interned, so {@link #of(long)} does not
+ * allocate for those either.
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+public final class Length implements Serializable, Comparable<Length> {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The number of units in an inch. This is the finest resolution that a
+	 * length can have.
+	 */
+	public static final int PER_INCH = 16;
+
+	/**
+	 * The number of units in a foot.
+	 */
+	public static final int PER_FOOT = 12 * PER_INCH;
+
+	/**
+	 * Lengths from zero up to and including this many sixteenths are interned.
+	 * Eight feet covers every standard stick and sheet dimension.
+	 */
+	public static final int CACHE_LIMIT = 8 * PER_FOOT;
+
+	/**
+	 * Interned lengths, created the first time they are asked for.
+	 */
+	private static final Length[] cache = new Length[CACHE_LIMIT + 1];
+
+	public static final Length ZERO = of(0), ONE_INCH = of(PER_INCH),
+			ONE_FOOT = of(PER_FOOT), FOUR_FEET = of(4 * PER_FOOT),
+			EIGHT_FEET = of(8 * PER_FOOT);
+
+	/**
+	 * The value of this length, in sixteenths of an inch.
+	 */
+	private final long sixteenths;
+
+	private Length(long sixteenths) {
+		this.sixteenths = sixteenths;
+	}
+
+	/**
+	 * Returns a length with the given number of sixteenths. Common lengths are
+	 * shared.
+	 *
+	 * @param sixteenths
+	 *            The value of the length, in sixteenths of an inch.
+	 * @return The length.
+	 */
+	public static Length of(long sixteenths) {
+		if (sixteenths >= 0 && sixteenths <= CACHE_LIMIT) {
+			Length length = cache[(int) sixteenths];
+			if (length == null) {
+				/*
+				 * Two threads may both create the same length here, which is
+				 * harmless because lengths are immutable.
+				 */
+				length = new Length(sixteenths);
+				cache[(int) sixteenths] = length;
+			}
+			return length;
+		}
+		return new Length(sixteenths);
+	}
+
+	/**
+	 * Returns the length closest to the given number of inches.
+	 *
+	 * @param inches
+	 *            The length in inches.
+	 * @return The length, rounded to the nearest sixteenth.
+	 */
+	public static Length ofInches(double inches) {
+		return of(toSixteenths(inches));
+	}
+
+	/**
+	 * Returns the length described by feet, inches and a fraction.
+	 *
+	 * @param feet
+	 * @param inches
+	 * @param fraction
+	 *            The numerator of the fraction. The denominator is 16.
+	 * @return The length.
+	 */
+	public static Length of(int feet, int inches, int fraction) {
+		return of(toSixteenths(feet, inches, fraction));
+	}
+
+	/**
+	 * Converts inches to sixteenths, rounding to the nearest sixteenth. Halves
+	 * are rounded away from zero.
+	 *
+	 * @param inches
+	 *            The length in inches.
+	 * @return The number of sixteenths.
+	 */
+	public static long toSixteenths(double inches) {
+		if (inches < 0) {
+			return -(long) (0.5 - inches * PER_INCH);
+		}
+		return (long) (inches * PER_INCH + 0.5);
+	}
+
+	/**
+	 * Converts feet, inches and a fraction to sixteenths. The parts don't need
+	 * to be normalized, so 0' 14" is the same as 1' 2".
+	 *
+	 * @param feet
+	 * @param inches
+	 * @param fraction
+	 *            The numerator of the fraction. The denominator is 16.
+	 * @return The number of sixteenths.
+	 */
+	public static long toSixteenths(int feet, int inches, int fraction) {
+		return (long) feet * PER_FOOT + (long) inches * PER_INCH + fraction;
+	}
+
+	/**
+	 * Converts sixteenths to inches.
+	 *
+	 * @param sixteenths
+	 * @return The length in inches.
+	 */
+	public static double toInches(long sixteenths) {
+		return (double) sixteenths / PER_INCH;
+	}
+
+	/**
+	 * @param sixteenths
+	 * @return The whole number of feet in the magnitude of the length.
+	 */
+	public static int feetOf(long sixteenths) {
+		return (int) (Math.abs(sixteenths) / PER_FOOT);
+	}
+
+	/**
+	 * @param sixteenths
+	 * @return The whole number of inches left over after the feet are taken out
+	 *         of the magnitude of the length, between 0 and 11.
+	 */
+	public static int inchesOf(long sixteenths) {
+		return (int) (Math.abs(sixteenths) % PER_FOOT / PER_INCH);
+	}
+
+	/**
+	 * @param sixteenths
+	 * @return The number of sixteenths left over after the feet and inches are
+	 *         taken out of the magnitude of the length, between 0 and 15.
+	 */
+	public static int fractionOf(long sixteenths) {
+		return (int) (Math.abs(sixteenths) % PER_INCH);
+	}
+
+	/**
+	 * Scales a length by a number, rounding to the nearest sixteenth.
+	 *
+	 * @param sixteenths
+	 * @param factor
+	 * @return The scaled length, in sixteenths.
+	 */
+	public static long scale(long sixteenths, double factor) {
+		double scaled = sixteenths * factor;
+		if (scaled < 0) {
+			return -(long) (0.5 - scaled);
+		}
+		return (long) (scaled + 0.5);
+	}
+
+	public long getSixteenths() {
+		return sixteenths;
+	}
+
+	public int getFeet() {
+		return feetOf(sixteenths);
+	}
+
+	public int getInches() {
+		return inchesOf(sixteenths);
+	}
+
+	/**
+	 * @return The numerator of the fractional part of this length. The
+	 *         denominator is 16.
+	 */
+	public int getFraction() {
+		return fractionOf(sixteenths);
+	}
+
+	public boolean isNegative() {
+		return sixteenths < 0;
+	}
+
+	public Length plus(Length other) {
+		return of(sixteenths + other.sixteenths);
+	}
+
+	public Length minus(Length other) {
+		return of(sixteenths - other.sixteenths);
+	}
+
+	public Length times(double factor) {
+		return of(scale(sixteenths, factor));
+	}
+
+	/**
+	 * Divides this length by a number.
+	 *
+	 * @param divisor
+	 * @return The divided length, rounded to the nearest sixteenth.
+	 * @throws Util.DivideByZeroException
+	 *             If the divisor is zero.
+	 */
+	public Length dividedBy(double divisor) {
+		if (divisor == 0)
+			throw new Util.DivideByZeroException(":-(");
+		return of(scale(sixteenths, 1.0 / divisor));
+	}
+
+	public Length negate() {
+		return of(-sixteenths);
+	}
+
+	public Length abs() {
+		return sixteenths < 0 ? of(-sixteenths) : this;
+	}
+
+	public double toDouble() {
+		return toInches(sixteenths);
+	}
+
+	public float toFloat() {
+		return (float) sixteenths / PER_INCH;
+	}
+
+	@Override
+	public int compareTo(Length other) {
+		return sixteenths < other.sixteenths ? -1
+				: (sixteenths == other.sixteenths ? 0 : 1);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof Length
+				&& ((Length) other).sixteenths == sixteenths;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (sixteenths ^ (sixteenths >>> 32));
+	}
+
+	/**
+	 * Returns a pretty string representing this length, in the same format as
+	 * {@link Util.Dimension}.
+	 */
+	@Override
+	public String toString() {
+		return DimensionFormat.format(sixteenths);
+	}
+
+	/**
+	 * Keeps interned lengths interned when they are read from a stream.
+	 */
+	private Object readResolve() {
+		return of(sixteenths);
+	}
+}
@@ -0,0 +1,513 @@
+package com.zgrannan.crewandroid;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.zgrannan.crewandroid.Consumables.Fastener;
+import com.zgrannan.crewandroid.Consumables.Material;
+import com.zgrannan.crewandroid.Consumables.Screw;
+import com.zgrannan.crewandroid.Consumables.Sheet;
+import com.zgrannan.crewandroid.Consumables.WoodStick;
+
+/**
+ * Keeps track of every material that can be built with, and of which fastener
+ * joins any two of them.
+ * <p>
+ * Each material is given a small integer id when it is registered, starting
+ * from 0 with no gaps, so {@link Material#id()} is a field read rather than a
+ * search. The fastener for every pair of materials is worked out once, when
+ * the catalog changes, and kept in a [material x material] table, so choosing
+ * a fastener while writing instructions is two array lookups.
+ * <p>
+ * The materials in {@link Consumables} are always registered, with the same
+ * ids they have always had. More can be added from a data file in the format
+ * below, one record per line, with fields separated by '|'. Lengths are
+ * anything {@link DimensionParser} can read, and blank lines and lines
+ * starting with '#' are ignored.
+ *
+ * <pre>
+ * stick  | name | width | depth [| set pieces]
+ * sheet  | name | depth [| set pieces]
+ * screw  | material | woodstick | length
+ * staple | material | woodstick
+ * </pre>
+ *
+ * The optional list of set pieces, separated by commas, names the set pieces
+ * (e.g. Studwall, Platform) whose menus should offer the material. In a
+ * fastener rule, a material can be written as its name, as its name followed
+ * by "flat" or "edge" to only match wood sticks lying that way, or as "*" to
+ * match anything. When several rules match the same pair, the last one wins.
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+public final class MaterialCatalog {
+
+	/**
+	 * The fastener rules for the materials in {@link Consumables}, written in
+	 * the same format as the data file.
+	 */
+	private static final String[] DEFAULT_RULES = {
+			"screw | 3/4\" Plywood | 2x4 | 1 + 5/8\"",
+			"screw | 3/4\" Plywood | 1x3 | 1 + 5/8\"",
+			"screw | 3/4\" Plywood | 1x4 | 1 + 5/8\"",
+			"screw | 3/4\" Plywood | 1x3 flat | 1 + 1/4\"",
+			"screw | 3/4\" Plywood | 1x4 flat | 1 + 1/4\"",
+			"screw | 1/4\" Plywood | 1x3 | 1 + 1/4\"",
+			"screw | 1/4\" Plywood | 1x4 | 1 + 1/4\"",
+			"screw | Luaun | 1x3 | 1 + 1/4\"",
+			"screw | Luaun | 1x4 | 1 + 1/4\"",
+			"staple | Cloth | *",
+			"screw | 2x4 | 2x4 | 3\"",
+			"screw | 1x3 | 1x3 | 1 + 5/8\"",
+			"screw | 1x4 | 1x4 | 1 + 5/8\"" };
+
+	/**
+	 * A fastener rule from the data file.
+	 */
+	private static class Rule {
+		final String first, second;
+		final Fastener fastener;
+
+		Rule(String first, String second, Fastener fastener) {
+			this.first = first;
+			this.second = second;
+			this.fastener = fastener;
+		}
+	}
+
+	/**
+	 * A material added by the data file, and the set pieces that offer it.
+	 */
+	private static class Extra {
+		final Material material;
+		final String[] setPieces;
+
+		Extra(Material material, String[] setPieces) {
+			this.material = material;
+			this.setPieces = setPieces;
+		}
+
+		boolean offeredBy(Buildable buildable) {
+			for (String setPiece : setPieces) {
+				if (setPiece.equals(buildable.toString())) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/*
+	 * Everything below is only changed while holding the class lock. The
+	 * arrays are replaced rather than changed, so the lookups, which happen
+	 * while set pieces are being built on several threads, can read them
+	 * without locking.
+	 */
+	private static final List<Rule> rules = new ArrayList<Rule>();
+	private static final List<Extra> extras = new ArrayList<Extra>();
+	private static final List<Screw> screws = new ArrayList<Screw>();
+	private static final HashMap<String, Material> byKey = new HashMap<String, Material>();
+	private static final HashMap<String, Material> byName = new HashMap<String, Material>();
+	private static volatile Material[] materials = new Material[0];
+	private static volatile Fastener[][] fasteners = new Fastener[0][0];
+	private static boolean loaded;
+
+	/**
+	 * The number of materials from {@link Consumables}. Their ids never
+	 * change, unlike those of materials from the data file, which depend on
+	 * the order of the file.
+	 */
+	private static int builtIns;
+
+	static {
+		for (WoodStick woodstick : Consumables.woodstick) {
+			register(woodstick);
+		}
+		for (Sheet sheet : Consumables.sheet) {
+			register(sheet);
+		}
+		builtIns = materials.length;
+		for (Screw screw : Consumables.screw) {
+			screws.add(screw);
+		}
+		try {
+			for (String rule : DEFAULT_RULES) {
+				parseLine(rule, null, null);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e.getMessage());
+		}
+		rebuild();
+	}
+
+	private MaterialCatalog() {
+	}
+
+	/**
+	 * Adds the materials and rules in a data file to the catalog. A file is
+	 * only read once, however many times this is called, and nothing is added
+	 * unless the whole file can be read.
+	 *
+	 * @param in
+	 *            The data file. It is closed when this returns.
+	 * @throws IOException
+	 *             If the file can't be read or isn't written properly.
+	 */
+	public static synchronized void load(InputStream in) throws IOException {
+		try {
+			if (loaded) {
+				return;
+			}
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					in, "UTF-8"));
+			List<Extra> newExtras = new ArrayList<Extra>();
+			List<Rule> newRules = new ArrayList<Rule>();
+			String line;
+			int number = 0;
+			while ((line = reader.readLine()) != null) {
+				number++;
+				try {
+					parseLine(line, newExtras, newRules);
+				} catch (IOException e) {
+					throw new IOException("Line " + number + ": "
+							+ e.getMessage());
+				}
+			}
+			for (Extra extra : newExtras) {
+				register(extra.material);
+				extras.add(extra);
+			}
+			rules.addAll(newRules);
+			rebuild();
+			loaded = true;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads one line of a data file. Materials and rules are added to the
+	 * given lists, or straight to the catalog if the lists are null.
+	 */
+	private static void parseLine(String line, List<Extra> newExtras,
+			List<Rule> newRules) throws IOException {
+		line = line.trim();
+		if (line.length() == 0 || line.charAt(0) == '#') {
+			return;
+		}
+		String[] field = line.split("\\|");
+		for (int i = 0; i < field.length; i++) {
+			field[i] = field[i].trim();
+		}
+		String kind = field[0];
+		if (kind.equals("stick")) {
+			checkFields(field, 4, 5);
+			WoodStick woodstick = new WoodStick(inches(field[2]),
+					inches(field[3]), field[1]);
+			newExtras.add(new Extra(woodstick, setPieces(field, 4)));
+		} else if (kind.equals("sheet")) {
+			checkFields(field, 3, 4);
+			Sheet sheet = new Sheet(inches(field[2]), field[1]);
+			newExtras.add(new Extra(sheet, setPieces(field, 3)));
+		} else if (kind.equals("screw")) {
+			checkFields(field, 4, 4);
+			addRule(new Rule(field[1], field[2], screw(inches(field[3]))),
+					newRules);
+		} else if (kind.equals("staple")) {
+			checkFields(field, 3, 3);
+			addRule(new Rule(field[1], field[2], Consumables.handStaple),
+					newRules);
+		} else {
+			throw new IOException("Unknown record \"" + kind + "\"");
+		}
+	}
+
+	private static void addRule(Rule rule, List<Rule> newRules) {
+		if (newRules == null) {
+			rules.add(rule);
+		} else {
+			newRules.add(rule);
+		}
+	}
+
+	private static void checkFields(String[] field, int min, int max)
+			throws IOException {
+		if (field.length < min || field.length > max) {
+			throw new IOException("Expected " + min + " to " + max
+					+ " fields, found " + field.length);
+		}
+	}
+
+	private static double inches(String text) throws IOException {
+		try {
+			return Length.toInches(DimensionParser.parse(text));
+		} catch (NumberFormatException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	private static String[] setPieces(String[] field, int index) {
+		if (field.length <= index) {
+			return new String[0];
+		}
+		String[] setPieces = field[index].split(",");
+		for (int i = 0; i < setPieces.length; i++) {
+			setPieces[i] = setPieces[i].trim();
+		}
+		return setPieces;
+	}
+
+	/**
+	 * Finds the screw of a given length, creating it if no screw that long
+	 * has been used before.
+	 */
+	private static Screw screw(double length) {
+		long sixteenths = Length.toSixteenths(length);
+		for (Screw screw : screws) {
+			if (screw.length.getSixteenths() == sixteenths) {
+				return screw;
+			}
+		}
+		Screw screw = new Screw(length);
+		screws.add(screw);
+		return screw;
+	}
+
+	/**
+	 * Gives a material the next id. Materials that are the same kind, name and
+	 * size as one that is already registered are ignored.
+	 */
+	private static void register(Material material) {
+		String key = keyOf(material);
+		if (byKey.containsKey(key)) {
+			return;
+		}
+		Material[] grown = new Material[materials.length + 1];
+		System.arraycopy(materials, 0, grown, 0, materials.length);
+		material.id = materials.length;
+		grown[material.id] = material;
+		byKey.put(key, material);
+		if (!byName.containsKey(kindOf(material) + material.toString())) {
+			byName.put(kindOf(material) + material.toString(), material);
+		}
+		materials = grown;
+	}
+
+	private static char kindOf(Material material) {
+		return material instanceof WoodStick ? 'w' : 's';
+	}
+
+	private static String keyOf(Material material) {
+		long width = material.width == null ? -1 : material.width
+				.getSixteenths();
+		return kindOf(material) + material.toString() + '|' + width + '|'
+				+ material.depth.getSixteenths();
+	}
+
+	/**
+	 * Works out the fastener table again from the rules.
+	 */
+	private static void rebuild() {
+		Material[] materials = MaterialCatalog.materials;
+		Fastener[][] table = new Fastener[materials.length][materials.length];
+		for (Rule rule : rules) {
+			for (Material first : materials) {
+				if (!matches(rule.first, first)) {
+					continue;
+				}
+				for (Material second : materials) {
+					if (second instanceof WoodStick
+							&& matches(rule.second, second)) {
+						table[first.id][second.id] = rule.fastener;
+					}
+				}
+			}
+		}
+		fasteners = table;
+	}
+
+	private static boolean matches(String selector, Material material) {
+		if (selector.equals("*")) {
+			return true;
+		}
+		String name = material.toString();
+		if (selector.equals(name)) {
+			return true;
+		}
+		if (!(material instanceof WoodStick)
+				|| !selector.startsWith(name + " ")) {
+			return false;
+		}
+		String orientation = selector.substring(name.length() + 1).trim();
+		boolean flat = material.depth.getSixteenths() < material.width
+				.getSixteenths();
+		return orientation.equals(flat ? "flat" : "edge");
+	}
+
+	/**
+	 * @param material
+	 *            A material.
+	 * @return The material's id, or -1 if it isn't in the catalog.
+	 */
+	static int idOf(Material material) {
+		return material.id;
+	}
+
+	/**
+	 * @param material
+	 *            A material.
+	 * @return True if the material is one of the ones in {@link Consumables},
+	 *         whose ids are the same every time the program runs.
+	 */
+	static boolean isBuiltIn(Material material) {
+		return material.id >= 0 && material.id < builtIns;
+	}
+
+	/**
+	 * @param id
+	 *            The id of a material.
+	 * @return The material, or null if there is no material with the id.
+	 */
+	static Material getMaterial(int id) {
+		Material[] materials = MaterialCatalog.materials;
+		return id >= 0 && id < materials.length ? materials[id] : null;
+	}
+
+	/**
+	 * Finds the fastener that attaches a material to a woodstick.
+	 *
+	 * @param material
+	 *            The material being attached. For two woodsticks, this is the
+	 *            one the head of the screw sits in.
+	 * @param woodstick
+	 *            The woodstick it is attached to.
+	 * @return The fastener, or null if there isn't one.
+	 */
+	public static Fastener getFastener(Material material, WoodStick woodstick) {
+		Fastener[][] table = fasteners;
+		int first = material.id, second = woodstick.id;
+		if (first < 0 || second < 0 || first >= table.length
+				|| second >= table.length) {
+			return null;
+		}
+		return table[first][second];
+	}
+
+	/**
+	 * Finds the screw that attaches a material to a woodstick.
+	 *
+	 * @return The screw, or null if they aren't attached with a screw.
+	 * @see #getFastener(Material, WoodStick)
+	 */
+	public static Screw getScrew(Material material, WoodStick woodstick) {
+		Fastener fastener = getFastener(material, woodstick);
+		return fastener instanceof Screw ? (Screw) fastener : null;
+	}
+
+	/**
+	 * Finds a sheet by name.
+	 *
+	 * @return The first sheet registered with the name, or null.
+	 */
+	public static synchronized Sheet getSheet(String name) {
+		return (Sheet) byName.get('s' + name);
+	}
+
+	/**
+	 * Finds a woodstick by name.
+	 *
+	 * @return The first woodstick registered with the name, or null.
+	 */
+	public static synchronized WoodStick getWoodStick(String name) {
+		return (WoodStick) byName.get('w' + name);
+	}
+
+	/**
+	 * Returns the material in the catalog that is the same as the given one,
+	 * so that materials read back from a file are the same objects as the
+	 * ones in the catalog. A material that isn't in the catalog yet, e.g. one
+	 * that was saved before the data file lost it, is added.
+	 */
+	static synchronized Material resolve(Material material) {
+		Material known = byKey.get(keyOf(material));
+		if (known != null) {
+			return known;
+		}
+		register(material);
+		rebuild();
+		return material;
+	}
+
+	/**
+	 * Adds the woodsticks from the data file that a set piece should offer.
+	 *
+	 * @param buildable
+	 *            The set piece.
+	 * @param valid
+	 *            The woodsticks the set piece offers itself.
+	 * @return The woodsticks to offer.
+	 */
+	public static synchronized WoodStick[] validWoodSticks(
+			Buildable buildable, WoodStick[] valid) {
+		List<WoodStick> result = new ArrayList<WoodStick>();
+		for (WoodStick woodstick : valid) {
+			result.add(woodstick);
+		}
+		for (Extra extra : extras) {
+			if (extra.material instanceof WoodStick
+					&& extra.offeredBy(buildable)) {
+				result.add((WoodStick) extra.material);
+			}
+		}
+		return result.toArray(new WoodStick[result.size()]);
+	}
+
+	/**
+	 * Adds the sheets from the data file that a set piece should offer. They
+	 * are put before {@link Consumables#noSheet}, which stays last.
+	 *
+	 * @param buildable
+	 *            The set piece.
+	 * @param valid
+	 *            The sheets the set piece offers itself.
+	 * @return The sheets to offer.
+	 */
+	public static synchronized Sheet[] validSheets(Buildable buildable,
+			Sheet[] valid) {
+		List<Sheet> result = new ArrayList<Sheet>();
+		for (Sheet sheet : valid) {
+			if (sheet != Consumables.noSheet) {
+				result.add(sheet);
+			}
+		}
+		for (Extra extra : extras) {
+			if (extra.material instanceof Sheet && extra.offeredBy(buildable)) {
+				result.add((Sheet) extra.material);
+			}
+		}
+		for (Sheet sheet : valid) {
+			if (sheet == Consumables.noSheet) {
+				result.add(sheet);
+			}
+		}
+		return result.toArray(new Sheet[result.size()]);
+	}
+
+	/**
+	 * @return The materials that were added by the data file.
+	 */
+	public static synchronized Material[] getExtraMaterials() {
+		Material[] result = new Material[extras.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = extras.get(i).material;
+		}
+		return result;
+	}
+}
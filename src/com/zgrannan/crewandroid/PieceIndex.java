@@ -0,0 +1,245 @@
+package com.zgrannan.crewandroid;
+
+import java.util.List;
+
+import com.zgrannan.crewandroid.Geometry.Vertex;
+import com.zgrannan.crewandroid.Pieces.Piece;
+
+/**
+ * Finds the pieces of a set piece near a point or inside a rectangle without
+ * looking at every piece.
+ * <p>
+ * The area the pieces cover is split into a uniform grid, and each cell lists
+ * the pieces whose bounding boxes overlap it. The lists are kept end to end in
+ * one array, so the index is a handful of primitive arrays however many pieces
+ * there are. A query only looks at the pieces in the cells it overlaps, and
+ * doesn't allocate anything. The index is built once, when the set piece is
+ * given to the view, and doesn't notice if pieces move.
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+final class PieceIndex {
+
+	/**
+	 * The most cells along either side of the grid.
+	 */
+	private static final int MAX_CELLS = 128;
+
+	private final Piece[] pieces;
+
+	/**
+	 * The left, top, right and bottom of each piece, in inches.
+	 */
+	private final float[] bounds;
+
+	/**
+	 * The midpoint of each piece, in inches.
+	 */
+	private final float[] midpoints;
+
+	private final float left, top, cellWidth, cellHeight;
+	private final int columns, rows;
+
+	/**
+	 * Where the list of each cell starts in {@link #cellPieces}. The list of
+	 * the last cell ends at the last entry.
+	 */
+	private final int[] cellStart;
+
+	/**
+	 * The index of each piece in each cell, cell after cell.
+	 */
+	private final int[] cellPieces;
+
+	/**
+	 * The query each piece was last seen by, so that a piece that overlaps
+	 * several cells is only reported once.
+	 */
+	private final int[] seen;
+	private int query;
+
+	/**
+	 * Builds an index.
+	 *
+	 * @param all
+	 *            The pieces. Null entries are left out.
+	 */
+	PieceIndex(Piece[] all) {
+		int count = 0;
+		for (Piece piece : all) {
+			if (piece != null) {
+				count++;
+			}
+		}
+		pieces = new Piece[count];
+		bounds = new float[count * 4];
+		midpoints = new float[count * 2];
+		seen = new int[count];
+
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		int n = 0;
+		for (Piece piece : all) {
+			if (piece == null) {
+				continue;
+			}
+			float l = Float.MAX_VALUE, t = Float.MAX_VALUE;
+			float r = -Float.MAX_VALUE, b = -Float.MAX_VALUE;
+			for (Vertex vertex : piece.vertex) {
+				l = Math.min(l, vertex.getX());
+				t = Math.min(t, vertex.getY());
+				r = Math.max(r, vertex.getX());
+				b = Math.max(b, vertex.getY());
+			}
+			Vertex midpoint = piece.getMidpoint();
+			pieces[n] = piece;
+			bounds[n * 4] = l;
+			bounds[n * 4 + 1] = t;
+			bounds[n * 4 + 2] = r;
+			bounds[n * 4 + 3] = b;
+			midpoints[n * 2] = midpoint.getX();
+			midpoints[n * 2 + 1] = midpoint.getY();
+			minX = Math.min(minX, l);
+			minY = Math.min(minY, t);
+			maxX = Math.max(maxX, r);
+			maxY = Math.max(maxY, b);
+			n++;
+		}
+		if (count == 0) {
+			minX = minY = maxX = maxY = 0;
+		}
+
+		/*
+		 * Aim for about one cell per piece, with cells about as wide as they
+		 * are tall.
+		 */
+		float width = Math.max(maxX - minX, 1), height = Math.max(maxY - minY,
+				1);
+		int c = (int) Math.ceil(Math.sqrt(count * width / height));
+		columns = Math.max(1, Math.min(c, MAX_CELLS));
+		rows = Math.max(1,
+				Math.min((int) Math.ceil((double) count / columns), MAX_CELLS));
+		left = minX;
+		top = minY;
+		cellWidth = width / columns;
+		cellHeight = height / rows;
+
+		// Count the pieces in each cell, then fill the lists in.
+		cellStart = new int[columns * rows + 1];
+		for (int i = 0; i < count; i++) {
+			for (int y = row(bounds[i * 4 + 1]); y <= row(bounds[i * 4 + 3]); y++) {
+				for (int x = column(bounds[i * 4]); x <= column(bounds[i * 4 + 2]); x++) {
+					cellStart[y * columns + x + 1]++;
+				}
+			}
+		}
+		for (int i = 1; i < cellStart.length; i++) {
+			cellStart[i] += cellStart[i - 1];
+		}
+		cellPieces = new int[cellStart[cellStart.length - 1]];
+		int[] next = new int[columns * rows];
+		System.arraycopy(cellStart, 0, next, 0, next.length);
+		for (int i = 0; i < count; i++) {
+			for (int y = row(bounds[i * 4 + 1]); y <= row(bounds[i * 4 + 3]); y++) {
+				for (int x = column(bounds[i * 4]); x <= column(bounds[i * 4 + 2]); x++) {
+					cellPieces[next[y * columns + x]++] = i;
+				}
+			}
+		}
+	}
+
+	private int column(float x) {
+		return Math.max(0, Math.min((int) ((x - left) / cellWidth), columns - 1));
+	}
+
+	private int row(float y) {
+		return Math.max(0, Math.min((int) ((y - top) / cellHeight), rows - 1));
+	}
+
+	/**
+	 * Finds the piece whose midpoint is nearest a point.
+	 *
+	 * @param x
+	 *            The horizontal location of the point, in inches.
+	 * @param y
+	 *            The vertical location of the point, in inches.
+	 * @param maxDistance
+	 *            How far away the midpoint may be, in inches.
+	 * @return The nearest piece whose midpoint is less than maxDistance from
+	 *         the point, or null if there isn't one. If several are just as
+	 *         near, the first one given to the index.
+	 */
+	Piece nearest(float x, float y, float maxDistance) {
+
+		/*
+		 * A piece's midpoint is inside its bounding box, so any piece near
+		 * enough is listed in one of the cells within maxDistance.
+		 */
+		int best = -1;
+		double bestDistance = maxDistance;
+		query++;
+		for (int row = row(y - maxDistance); row <= row(y + maxDistance); row++) {
+			for (int column = column(x - maxDistance); column <= column(x
+					+ maxDistance); column++) {
+				int cell = row * columns + column;
+				for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+					int i = cellPieces[k];
+					if (seen[i] == query) {
+						continue;
+					}
+					seen[i] = query;
+					double distance = Math.hypot(midpoints[i * 2] - x,
+							midpoints[i * 2 + 1] - y);
+					if (distance < bestDistance
+							|| (distance == bestDistance && best != -1 && i < best)) {
+						best = i;
+						bestDistance = distance;
+					}
+				}
+			}
+		}
+		return best == -1 ? null : pieces[best];
+	}
+
+	/**
+	 * Finds the pieces whose bounding boxes overlap a rectangle.
+	 *
+	 * @param l
+	 *            The left of the rectangle, in inches.
+	 * @param t
+	 *            The top of the rectangle, in inches.
+	 * @param r
+	 *            The right of the rectangle, in inches.
+	 * @param b
+	 *            The bottom of the rectangle, in inches.
+	 * @param out
+	 *            Cleared, then filled with the pieces, in no particular
+	 *            order.
+	 */
+	void findIn(float l, float t, float r, float b, List<Piece> out) {
+		out.clear();
+		if (r < left || b < top || l > left + cellWidth * columns
+				|| t > top + cellHeight * rows) {
+			return;
+		}
+		query++;
+		for (int row = row(t); row <= row(b); row++) {
+			for (int column = column(l); column <= column(r); column++) {
+				int cell = row * columns + column;
+				for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+					int i = cellPieces[k];
+					if (seen[i] == query) {
+						continue;
+					}
+					seen[i] = query;
+					if (bounds[i * 4] <= r && bounds[i * 4 + 2] >= l
+							&& bounds[i * 4 + 1] <= b && bounds[i * 4 + 3] >= t) {
+						out.add(pieces[i]);
+					}
+				}
+			}
+		}
+	}
+}
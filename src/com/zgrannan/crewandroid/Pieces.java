@@ -44,15 +44,47 @@ public class Pieces {
 	 * @author Zack Grannan
 	 * @version 0.9
 	 */
-	public static class Piece implements Comparable<Piece>, Serializable,
+	public abstract static class Piece implements Comparable<Piece>, Serializable,
 			CanDraw {
 
 		private static final long serialVersionUID = 1L;
 
 		/**
-		 * Used for auto piece labeling
+		 * Counts the pieces labeled by a build. Each build has its own, so
+		 * builds running at the same time, e.g. one for the list of saved set
+		 * pieces, don't take labels from each other.
+		 * 
+		 * @see Piece#useLabeler(Labeler)
+		 */
+		static final class Labeler {
+			private int nameIndex;
+		}
+
+		/**
+		 * The labeler of the build running on each thread. A thread that isn't
+		 * running a build gets one of its own.
+		 */
+		private static final ThreadLocal<Labeler> labeler = new ThreadLocal<Labeler>() {
+			@Override
+			protected Labeler initialValue() {
+				return new Labeler();
+			}
+		};
+
+		/**
+		 * Makes the automatic labeler on this thread count with the given
+		 * one, for a build.
+		 * 
+		 * @param next
+		 *            The labeler of the build.
+		 * @return The labeler that was used before, to put back when the build
+		 *         is done.
 		 */
-		private static int nameIndex = 0;
+		static Labeler useLabeler(Labeler next) {
+			Labeler previous = labeler.get();
+			labeler.set(next);
+			return previous;
+		}
 
 		/**
 		 * Returns an automatically generated single-character piece name.
@@ -60,22 +92,50 @@ public class Pieces {
 		 * @return the next unique piece label.
 		 */
 		protected static String autoName() {
-			if (nameIndex >= 26) {
-				char firstChar = (char) ((nameIndex / 26) + 65);
-				char secondChar = (char) ((nameIndex % 26) + 65);
-				nameIndex++;
+			return nameFor(labeler.get().nameIndex++);
+		}
+
+		/**
+		 * Returns the label that the automatic labeler gives the piece with
+		 * the given index.
+		 * 
+		 * @param index
+		 *            The number of pieces labeled before this one.
+		 * @return The label.
+		 */
+		static String nameFor(int index) {
+			if (index >= 26) {
+				char firstChar = (char) ((index / 26) + 65);
+				char secondChar = (char) ((index % 26) + 65);
 				return String.valueOf(firstChar) + secondChar;
 			} else {
-				nameIndex++;
-				return String.valueOf((char) (nameIndex + 64));
+				return String.valueOf((char) (index + 65));
 			}
 		}
 
+		/**
+		 * @return The index the automatic labeler will use for the next piece.
+		 */
+		static int getNameIndex() {
+			return labeler.get().nameIndex;
+		}
+
+		/**
+		 * Sets the index the automatic labeler will use for the next piece.
+		 * Used when pieces are labeled after they are built.
+		 * 
+		 * @param index
+		 *            The index of the next piece.
+		 */
+		static void setNameIndex(int index) {
+			labeler.get().nameIndex = index;
+		}
+
 		/**
 		 * Resets the automatic labeler
 		 */
 		public static void resetName() {
-			nameIndex = 0;
+			labeler.get().nameIndex = 0;
 		}
 
 		protected Material material;
@@ -87,6 +147,26 @@ public class Pieces {
 			return material;
 		}
 
+		/**
+		 * Creates a copy of this piece in the same place, with a new name but
+		 * the same visibility. Used when a fragment is stamped out from a
+		 * template.
+		 * 
+		 * @return The copy.
+		 */
+		public abstract Piece copy();
+
+		/**
+		 * Appends a description of this piece to a {@link StringBuilder}.
+		 * 
+		 * @param builder
+		 *            The builder that will be appended to.
+		 * @return The builder, for chaining.
+		 */
+		public StringBuilder appendTo(StringBuilder builder) {
+			return builder.append(toString());
+		}
+
 		protected Dimension length, width;
 
 		protected Vertex[] vertex;
@@ -94,6 +174,14 @@ public class Pieces {
 		protected boolean visible = true, selected = false, under = false;
 		protected String name;
 
+		/**
+		 * The buffer holding this piece's vertices, or null if the vertices
+		 * hold their own coordinates. The vertices are stored next to each
+		 * other, starting at firstVertex.
+		 */
+		transient private GeometryBuffer buffer;
+		transient private int firstVertex;
+
 		/**
 		 * , Creates a piece from another piece. Gives the piece a new name and
 		 * new visibility
@@ -204,8 +292,8 @@ public class Pieces {
 
 			float x = 0, y = 0;
 			for (int i = 0; i < vertex.length; i++) {
-				x += vertex[i].x.toFloat();
-				y += vertex[i].y.toFloat();
+				x += vertex[i].getX();
+				y += vertex[i].getY();
 			}
 			return new Vertex(x / vertex.length, y / vertex.length);
 		}
@@ -239,12 +327,31 @@ public class Pieces {
 		 *            The vertical displacement of the piece.
 		 */
 		public void move(Dimension x, Dimension y) {
-
+			if (buffer != null) {
+				buffer.move(firstVertex, vertex.length,
+						(int) x.getSixteenths(), (int) y.getSixteenths());
+				return;
+			}
 			for (int i = 0; i < vertex.length; i++) {
 				vertex[i].move(x, y);
 			}
 		}
 
+		/**
+		 * Moves the vertices of this piece into the next free slots of a
+		 * buffer, so that they become views over it.
+		 * 
+		 * @param buffer
+		 *            The buffer that will hold this piece's vertices.
+		 */
+		void bind(GeometryBuffer buffer) {
+			firstVertex = buffer.size();
+			for (int i = 0; i < vertex.length; i++) {
+				vertex[i].bind(buffer);
+			}
+			this.buffer = buffer;
+		}
+
 		public void select() {
 			selected = true;
 		}
@@ -316,6 +423,54 @@ public class Pieces {
 			selected = false;
 		}
 
+		/**
+		 * Returns the visibility of the piece as an integer, the inverse of
+		 * {@link setVisibility(int)}.
+		 * 
+		 * @return One of {@link C.INVISIBLE}, {@link C.VISIBLE},
+		 *         {@link C.SELECTED} or {@link C.UNDER}.
+		 */
+		public int getVisibility() {
+			if (!visible)
+				return C.INVISIBLE;
+			if (selected)
+				return C.SELECTED;
+			if (under)
+				return C.UNDER;
+			return C.VISIBLE;
+		}
+
+		/**
+		 * @return Whether the dimension line of each of this piece's lines is
+		 *         showing, or null if it has no lines.
+		 */
+		boolean[] getDimLinesShown() {
+			if (line == null)
+				return null;
+			boolean[] shown = new boolean[line.length];
+			for (int i = 0; i < line.length; i++) {
+				shown[i] = line[i] != null && line[i].dimLine != null
+						&& line[i].dimLine.visible;
+			}
+			return shown;
+		}
+
+		/**
+		 * Shows or hides the dimension lines of this piece's lines, as
+		 * returned by {@link getDimLinesShown()}.
+		 * 
+		 * @param shown
+		 *            Whether each dimension line is showing.
+		 */
+		void setDimLinesShown(boolean[] shown) {
+			if (line == null || shown == null)
+				return;
+			for (int i = 0; i < line.length && i < shown.length; i++) {
+				if (line[i] != null && line[i].dimLine != null)
+					line[i].dimLine.visible = shown[i];
+			}
+		}
+
 		@Override
 		public Dimension getHeight() {
 			return length;
@@ -328,12 +483,19 @@ public class Pieces {
 
 		public float[] toVertices(float offX, float offY) {
 			float[] vertices = new float[vertex.length * 6];
+			if (buffer != null) {
+				float depth = material.getDepth().toFloat();
+				buffer.toVertices(firstVertex, vertex.length, offX, offY,
+						material instanceof WoodStick ? depth : 0 - depth,
+						vertices, 0);
+				return vertices;
+			}
 			for (int i = 0; i < vertex.length; i++) {
-				vertices[i * 6] = vertex[i].x.toFloat() + offX;
-				vertices[i * 6 + 1] = vertex[i].y.toFloat() + offY;
+				vertices[i * 6] = vertex[i].getX() + offX;
+				vertices[i * 6 + 1] = vertex[i].getY() + offY;
 				vertices[i * 6 + 2] = 0.0f;
-				vertices[i * 6 + 3] = vertex[i].x.toFloat() + offX;
-				vertices[i * 6 + 4] = vertex[i].y.toFloat() + offY;
+				vertices[i * 6 + 3] = vertex[i].getX() + offX;
+				vertices[i * 6 + 4] = vertex[i].getY() + offY;
 				if (material instanceof WoodStick) {
 					vertices[i * 6 + 5] = material.getDepth().toFloat();
 				} else {
@@ -496,6 +658,15 @@ public class Pieces {
 			h.addDimLine(C.LEFT);
 		}
 
+		@Override
+		public Piece copy() {
+			QuadPiece copy = new QuadPiece(this, false, true);
+			if (dimensionVisible) {
+				copy.showDimLine();
+			}
+			return copy;
+		}
+
 		@Override
 		public void removeDimLine() {
 			dimensionVisible = false;
@@ -548,6 +719,28 @@ public class Pieces {
 			else
 				showDimLine();
 		}
+
+		@Override
+		void setDimLinesShown(boolean[] shown) {
+			super.setDimLinesShown(shown);
+			Line dimLined = null;
+			switch (dimLinePos) {
+			case C.ABOVE:
+				dimLined = e;
+				break;
+			case C.RIGHT:
+				dimLined = f;
+				break;
+			case C.BELOW:
+				dimLined = g;
+				break;
+			case C.LEFT:
+				dimLined = h;
+				break;
+			}
+			dimensionVisible = dimLined != null && dimLined.dimLine != null
+					&& dimLined.dimLine.visible;
+		}
 	}
 
 	/**
@@ -576,6 +769,30 @@ public class Pieces {
 			super(piece);
 		}
 
+		/**
+		 * Create a rectangle piece from another rectangle piece.
+		 * 
+		 * @param piece
+		 *            The piece parameters are copied from.
+		 * @param copyName
+		 *            Whether or not the name will be copied.
+		 * @param copyVisibility
+		 *            Whether or not the visibility will be copied.
+		 */
+		public RectPiece(RectPiece piece, boolean copyName,
+				boolean copyVisibility) {
+			super(piece, copyName, copyVisibility);
+		}
+
+		@Override
+		public Piece copy() {
+			RectPiece copy = new RectPiece(this, false, true);
+			if (dimensionVisible) {
+				copy.showDimLine();
+			}
+			return copy;
+		}
+
 		/**
 		 * Creates a rectangle piece from parameters.
 		 * 
@@ -769,19 +986,23 @@ public class Pieces {
 		 *         {@link C.VERTICAL} (true) if it is longer vertically.
 		 */
 		public boolean getLongSide() {
-			return b.x.toDouble() - a.x.toDouble() > c.y.toDouble()
-					- a.y.toDouble() ? C.HORIZONTAL : C.VERTICAL;
+			return b.getX() - a.getX() > c.getY() - a.getY() ? C.HORIZONTAL
+					: C.VERTICAL;
 		}
 
 		@Override
 		public String toString() {
-			String value = "";
-			value += material + " @ ";
-			value += length;
+			return appendTo(new StringBuilder(32)).toString();
+		}
+
+		@Override
+		public StringBuilder appendTo(StringBuilder builder) {
+			builder.append(material).append(" @ ");
+			length.appendTo(builder);
 			if (material instanceof Sheet) {
-				value += " * " + width;
+				width.appendTo(builder.append(" * "));
 			}
-			return value;
+			return builder;
 		}
 	}
 
@@ -792,7 +1013,7 @@ public class Pieces {
 	 * @version 0.93
 	 * 
 	 */
-	public static class TriPiece extends Piece {
+	public abstract static class TriPiece extends Piece {
 
 		/**
 		 * 
@@ -803,6 +1024,18 @@ public class Pieces {
 			super(length, width);
 		}
 
+		/**
+		 * Creates this piece from another TriPiece, with a new name but the
+		 * same visibility. Doesn't copy the vertices.
+		 * 
+		 * @param piece
+		 *            The piece that parameters will be copied from.
+		 */
+		protected TriPiece(TriPiece piece) {
+			super(piece, false, true);
+			showAngles = piece.showAngles;
+		}
+
 		protected Vertex a, b, c;
 		protected Line d, e, f;
 		protected boolean showAngles;
@@ -865,6 +1098,36 @@ public class Pieces {
 			hypotenuse.addDimLine(C.ABOVE);
 		}
 
+		/**
+		 * Creates a right triangular piece from another one in the same place,
+		 * with a new name but the same visibility and dimension lines.
+		 * 
+		 * @param piece
+		 *            The piece that parameters will be copied from.
+		 */
+		protected RightTriPiece(RightTriPiece piece) {
+			super(piece);
+			a = new Vertex(piece.a);
+			b = new Vertex(piece.b);
+			c = new Vertex(piece.c);
+			super.setVertices(new Vertex[] { a, b, c });
+			d = super.line[0];
+			e = super.line[1];
+			f = super.line[2];
+			adjacent = d;
+			opposite = e;
+			hypotenuse = f;
+			adjacent.addDimLine(C.BELOW);
+			opposite.addDimLine(C.BELOW);
+			hypotenuse.addDimLine(C.ABOVE);
+			setDimLinesShown(piece.getDimLinesShown());
+		}
+
+		@Override
+		public Piece copy() {
+			return new RightTriPiece(this);
+		}
+
 		/**
 		 * Returns the primary angle of the triangle, assuming that the triangle
 		 * is a right-triangle
@@ -9,6 +9,8 @@ package com.zgrannan.crewandroid;
  */
 public class PlatFrag extends PlatTypeFrag {
 
+	private static final long serialVersionUID = 1L;
+
 	@Override
 	protected int getCrossbeams() {
 		return (int) (length.toDouble() / 40);
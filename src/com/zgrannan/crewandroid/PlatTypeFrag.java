@@ -20,6 +20,8 @@ import com.zgrannan.crewandroid.Util.Instruction;
  */
 public abstract class PlatTypeFrag extends Frag {
 
+	private static final long serialVersionUID = 1L;
+
 	@Override
 	public Dimension minWidth() {
 		return new Dimension(2 * super.woodstick.getWidth().toDouble());
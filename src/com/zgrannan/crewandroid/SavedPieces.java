@@ -1,6 +1,7 @@
 package com.zgrannan.crewandroid;
 
 import java.io.IOException;
+import java.util.List;
 
 import android.app.ListActivity;
 import android.content.Context;
@@ -10,8 +11,11 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -27,7 +31,7 @@ public class SavedPieces extends ListActivity {
 	/*
 	 * Adapter that allows buildable objects to be placed in the list
 	 */
-	private class BuildableAdapter extends ArrayAdapter<Buildable> {
+	private class BuildableAdapter extends ArrayAdapter<SetPieceInfo> {
 
 		// Reference to the setPieces available to the adapter
 
@@ -53,14 +57,30 @@ public class SavedPieces extends ListActivity {
 					.findViewById(R.id.setpiece_list_text);
 			filenameView.setText(setpiece.getFilename());
 
+			// Draw a picture of the set piece in the background
+			ImageView thumbnailView = (ImageView) v
+					.findViewById(R.id.setpiece_thumbnail);
+			thumbnails.load(setpiece, thumbnailView);
+
 			// Open Button
 			Button openButton = (Button) v.findViewById(R.id.open_button);
 			openButton.setOnClickListener(new OnClickListener() {
 
 				@Override
 				public void onClick(View v) {
+					Buildable setpiece;
+					try {
+						setpiece = CrewAndroid.openSetPiece(setpieces[position]
+								.getFilename());
+					} catch (IOException e) {
+						Toast.makeText(
+								getBaseContext(),
+								getString(R.string.problem_loading_set_pieces_from_file),
+								Toast.LENGTH_LONG).show();
+						return;
+					}
 					Intent intent = new Intent(getBaseContext(), Builder.class);
-					intent.putExtra("setpiece", setpieces[position]);
+					HandleRegistry.put(intent, "setpiece", setpiece, setpiece);
 					startActivity(intent);
 
 					// Don't let them come back here.
@@ -93,8 +113,9 @@ public class SavedPieces extends ListActivity {
 	}
 
 	private BuildableAdapter adapter;
-	private Buildable[] setpieces;
-	private Buildable setpiece;
+	private ThumbnailLoader thumbnails;
+	private SetPieceInfo[] setpieces;
+	private SetPieceInfo setpiece;
 
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
@@ -102,8 +123,8 @@ public class SavedPieces extends ListActivity {
 		super.onCreate(savedInstanceState);
 
 		// Get a reference to the setPieces array
-		setpieces = new Buildable[CrewAndroid.getSetpieces().size()];
-		CrewAndroid.getSetpieces().toArray(setpieces);
+		List<SetPieceInfo> saved = CrewAndroid.getSetpieces();
+		setpieces = saved.toArray(new SetPieceInfo[saved.size()]);
 
 		/*
 		 * If there aren't any set pieces, don't let the user view this
@@ -118,11 +139,51 @@ public class SavedPieces extends ListActivity {
 		}
 
 		// Create an adapter from this array
+		thumbnails = new ThumbnailLoader(this);
 		adapter = new BuildableAdapter(this, R.layout.saved_items);
 
 		// Create the UI from the adapter
 		setListAdapter(adapter);
 
+		// Don't draw pictures while the list is flung, so it scrolls smoothly
+		getListView().setOnScrollListener(new OnScrollListener() {
+			@Override
+			public void onScrollStateChanged(AbsListView view, int scrollState) {
+				thumbnails
+						.setPaused(scrollState == OnScrollListener.SCROLL_STATE_FLING);
+			}
+
+			@Override
+			public void onScroll(AbsListView view, int firstVisibleItem,
+					int visibleItemCount, int totalItemCount) {
+			}
+		});
+
+	}
+
+	/**
+	 * Makes sure any set pieces saved or deleted here reach the phone storage
+	 * before the activity goes away.
+	 */
+	@Override
+	protected void onPause() {
+		super.onPause();
+		try {
+			CrewAndroid.flushSetPieces();
+		} catch (IOException e) {
+			Toast.makeText(getBaseContext(),
+					getString(R.string.set_piece_could_not_be_saved),
+					Toast.LENGTH_LONG).show();
+		}
+	}
+
+	/**
+	 * Stops drawing pictures of the set pieces once the list is gone.
+	 */
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		thumbnails.stop();
 	}
 
 }
\ No newline at end of file
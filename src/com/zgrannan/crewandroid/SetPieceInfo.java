@@ -0,0 +1,81 @@
+package com.zgrannan.crewandroid;
+
+import com.zgrannan.crewandroid.Util.Dimension;
+
+/**
+ * What the list of saved set pieces needs to know about a set piece, without
+ * reading the whole thing: its filename, type and size, and where it is kept
+ * in the {@link SetPieceLog}.
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+public class SetPieceInfo {
+
+	private final String filename;
+	private final int type;
+	private final Dimension length, width;
+
+	/**
+	 * Where the set piece's record starts in the log, and how long it is.
+	 */
+	long offset;
+	int size;
+
+	SetPieceInfo(String filename, int type, Dimension length,
+			Dimension width, long offset, int size) {
+		this.filename = filename;
+		this.type = type;
+		this.length = length;
+		this.width = width;
+		this.offset = offset;
+		this.size = size;
+	}
+
+	public String getFilename() {
+		return filename;
+	}
+
+	/**
+	 * @return The type of the set piece, e.g. {@link C#PLATFORM}.
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * @return The length of the set piece, or null if it doesn't have one.
+	 */
+	public Dimension getLength() {
+		return copy(length);
+	}
+
+	/**
+	 * @return The width of the set piece, or null if it doesn't have one.
+	 */
+	public Dimension getWidth() {
+		return copy(width);
+	}
+
+	private static Dimension copy(Dimension dimension) {
+		if (dimension == null) {
+			return null;
+		}
+		return dimension.hasContent() ? new Dimension(dimension)
+				: new Dimension();
+	}
+
+	Dimension length() {
+		return length;
+	}
+
+	Dimension width() {
+		return width;
+	}
+
+	@Override
+	public String toString() {
+		return filename;
+	}
+}
@@ -0,0 +1,758 @@
+package com.zgrannan.crewandroid;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.zgrannan.crewandroid.Util.Dimension;
+
+/**
+ * Stores the saved set pieces as an append-only log.
+ * <p>
+ * Saving a set piece appends one record holding it, and deleting one appends
+ * a small record (a tombstone) saying it is gone, so the cost of a save
+ * doesn't depend on how many set pieces are stored. Reading the log from the
+ * start and applying every record gives back the saved set pieces, in the
+ * order they were saved.
+ * <p>
+ * Records that have been overwritten or deleted are left in the file until it
+ * is compacted. Once they take up more room than the live records, the live
+ * records are copied to a new file on a background thread, which then
+ * replaces the log. Saves can carry on while this happens.
+ * <p>
+ * Set pieces are written with {@link BuildableCodec}. Logs written before
+ * that held Java-serialized set pieces, which are still read, and are
+ * rewritten with the codec the first time the log is loaded.
+ * <p>
+ * Loading the log only reads a {@link SetPieceInfo} for each set piece, which
+ * is all the list of saved set pieces needs. A set piece is only decoded when
+ * it is opened with {@link #read(String)}, straight out of a memory-mapped
+ * view of the file. The infos are also kept in a small index file next to the
+ * log, so that opening the log only has to read the records saved since the
+ * index was written.
+ * <p>
+ * Each record ends with a checksum. If the application dies halfway through
+ * writing a record, the broken record is found and cut off the next time the
+ * log is opened.
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+public class SetPieceLog {
+
+	/**
+	 * Thrown when the log file isn't a set piece log, or is too damaged to
+	 * read.
+	 */
+	public static class CorruptLogException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public CorruptLogException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * The first four bytes of every log, "TTAL".
+	 */
+	private static final int MAGIC = 0x5454414C;
+
+	/**
+	 * The first four bytes of every index, "TTAI".
+	 */
+	private static final int INDEX_MAGIC = 0x54544149;
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 8;
+
+	/**
+	 * The smallest possible record: a type, two lengths and a checksum.
+	 */
+	private static final int MIN_RECORD_SIZE = 13;
+
+	/**
+	 * Record types. SERIALIZED records hold a set piece written with Java
+	 * serialization, and are only found in old logs. PUT records hold one
+	 * written with {@link BuildableCodec}.
+	 */
+	private static final byte SERIALIZED = 1, DELETE = 2, PUT = 3;
+
+	/**
+	 * The log isn't compacted until it is at least this big.
+	 */
+	private static final long MIN_COMPACT_SIZE = 64 * 1024;
+
+	private final File file;
+	private final File indexFile;
+	private RandomAccessFile raf;
+
+	/**
+	 * A read-only view of the start of the file, or null if the file has
+	 * been replaced since it was mapped.
+	 */
+	private MappedByteBuffer map;
+
+	/**
+	 * The live records, by filename, in the order they were saved.
+	 */
+	private final LinkedHashMap<String, SetPieceInfo> entries = new LinkedHashMap<String, SetPieceInfo>();
+
+	/**
+	 * The total size of the live records, in bytes.
+	 */
+	private long liveBytes;
+
+	/**
+	 * True while a compaction is running.
+	 */
+	private boolean compacting;
+
+	/**
+	 * Opens a log, creating it if it doesn't exist.
+	 *
+	 * @param file
+	 *            The file the log is kept in. The index is kept in the same
+	 *            place, with ".idx" added to the name.
+	 * @throws IOException
+	 *             If the file can't be opened, or isn't a set piece log.
+	 */
+	public SetPieceLog(File file) throws IOException {
+		this.file = file;
+		this.indexFile = new File(file.getPath() + ".idx");
+		raf = new RandomAccessFile(file, "rw");
+		if (raf.length() == 0) {
+			raf.writeInt(MAGIC);
+			raf.writeInt(VERSION);
+			raf.getFD().sync();
+		} else if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC
+				|| raf.readInt() != VERSION) {
+			raf.close();
+			throw new CorruptLogException(file + " is not a set piece log");
+		}
+	}
+
+	/**
+	 * Finds out which set pieces are in the log. Should be called once, right
+	 * after the log is opened.
+	 *
+	 * @return The saved set pieces, in the order they were saved.
+	 * @throws IOException
+	 *             If the file can't be read.
+	 */
+	public synchronized List<SetPieceInfo> load() throws IOException {
+		entries.clear();
+		liveBytes = 0;
+		long start = readIndex();
+		List<SetPieceInfo> serialized = new ArrayList<SetPieceInfo>();
+		long end = scan(start, serialized);
+
+		/*
+		 * If the last record was only partly written, cut it off so the next
+		 * record goes in the right place.
+		 */
+		if (end < raf.length()) {
+			map = null;
+			raf.setLength(end);
+		}
+
+		/*
+		 * Rewrite any set pieces from an old log with the codec. Their order
+		 * in the log changes, but the order of the list we return doesn't.
+		 */
+		List<SetPieceInfo> result = getInfos();
+		boolean migrated = false;
+		for (SetPieceInfo info : serialized) {
+			if (entries.get(info.getFilename()) == info) {
+				byte[] record = readRecord(info);
+				int payloadStart = 9 + readInt(record, 1);
+				add(deserialize(record, payloadStart, record.length
+						- payloadStart - 4));
+				migrated = true;
+			}
+		}
+		if (migrated) {
+			raf.getFD().sync();
+			compact();
+			result = getInfos();
+		} else if (end > start) {
+			writeIndex();
+		}
+		return result;
+	}
+
+	/**
+	 * @return The saved set pieces, in the order they were saved.
+	 */
+	public synchronized List<SetPieceInfo> getInfos() {
+		return new ArrayList<SetPieceInfo>(entries.values());
+	}
+
+	/**
+	 * @param filename
+	 *            The filename of a set piece.
+	 * @return What is known about the set piece without reading it, or null
+	 *         if there isn't a set piece with this filename.
+	 */
+	public synchronized SetPieceInfo getInfo(String filename) {
+		return entries.get(filename);
+	}
+
+	/**
+	 * Reads a set piece from the log. Like a set piece read with Java
+	 * serialization, it hasn't been made yet.
+	 *
+	 * @param filename
+	 *            The filename of the set piece.
+	 * @return The set piece, or null if there isn't one with this filename.
+	 * @throws IOException
+	 *             If the set piece can't be read.
+	 */
+	public synchronized Buildable read(String filename) throws IOException {
+		SetPieceInfo info = entries.get(filename);
+		if (info == null) {
+			return null;
+		}
+		byte[] record = readRecord(info);
+		if (record[0] != PUT || !checksumMatches(record, record.length)) {
+			throw new CorruptLogException("The record for " + filename
+					+ " is damaged");
+		}
+		int payloadStart = 9 + readInt(record, 1);
+		return BuildableCodec.decode(record, payloadStart, record.length
+				- payloadStart - 4);
+	}
+
+	/**
+	 * Reads the records from a point in the file to the end, and applies
+	 * them to the entries.
+	 *
+	 * @param start
+	 *            Where the first record starts.
+	 * @param serialized
+	 *            Live records holding Java-serialized set pieces are added
+	 *            to this list.
+	 * @return Where the last good record ends.
+	 */
+	private long scan(long start, List<SetPieceInfo> serialized)
+			throws IOException {
+		long length = raf.length();
+		MappedByteBuffer buffer = mapped(length);
+		long position = start;
+		byte[] record = new byte[256];
+		while (length - position >= MIN_RECORD_SIZE) {
+			int p = (int) position;
+			byte type = buffer.get(p);
+			int keyLength = buffer.getInt(p + 1);
+			if (keyLength < 0 || keyLength > length - p - MIN_RECORD_SIZE) {
+				break;
+			}
+			int payloadLength = buffer.getInt(p + 5 + keyLength);
+			if (payloadLength < 0
+					|| payloadLength > length - p - MIN_RECORD_SIZE - keyLength) {
+				break;
+			}
+			int size = MIN_RECORD_SIZE + keyLength + payloadLength;
+			if (record.length < size) {
+				record = new byte[Math.max(size, record.length * 2)];
+			}
+			buffer.position(p);
+			buffer.get(record, 0, size);
+			if (!checksumMatches(record, size)) {
+				break;
+			}
+			String filename = new String(record, 5, keyLength, "UTF-8");
+			SetPieceInfo info;
+			if (type == PUT) {
+				info = BuildableCodec.decodeInfo(record, 9 + keyLength,
+						payloadLength, position, size);
+			} else if (type == SERIALIZED) {
+				info = new SetPieceInfo(filename, -1, null, null, position,
+						size);
+				serialized.add(info);
+			} else if (type == DELETE) {
+				info = null;
+			} else {
+				throw new CorruptLogException("Unknown record type " + type);
+			}
+			remove(filename);
+			if (info != null) {
+				entries.put(filename, info);
+				liveBytes += size;
+			}
+			position += size;
+		}
+		return position;
+	}
+
+	/**
+	 * Reads the entries from the index file.
+	 *
+	 * @return Where the first record that isn't in the index starts. If the
+	 *         index is missing, or doesn't match the log, this is the first
+	 *         record in the log.
+	 */
+	private long readIndex() throws IOException {
+		DataInputStream in;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(indexFile)));
+		} catch (FileNotFoundException e) {
+			return HEADER_SIZE;
+		}
+		try {
+			if (in.readInt() != INDEX_MAGIC || in.readInt() != VERSION) {
+				return HEADER_SIZE;
+			}
+			long covered = in.readLong();
+			int lastChecksum = in.readInt();
+
+			/*
+			 * The index is only good if the log still holds the same records
+			 * it did when the index was written. The log only ever grows,
+			 * unless it is compacted, and compacting it writes a new index,
+			 * so checking the checksum of the last record the index covers is
+			 * enough to tell.
+			 */
+			if (covered < HEADER_SIZE || covered > raf.length()) {
+				return HEADER_SIZE;
+			}
+			if (covered > HEADER_SIZE) {
+				raf.seek(covered - 4);
+				if (raf.readInt() != lastChecksum) {
+					return HEADER_SIZE;
+				}
+			}
+
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String filename = in.readUTF();
+				int type = in.readByte();
+				Dimension length = readDimension(in);
+				Dimension width = readDimension(in);
+				long offset = in.readLong();
+				int size = in.readInt();
+				entries.put(filename, new SetPieceInfo(filename, type, length,
+						width, offset, size));
+				liveBytes += size;
+			}
+			return covered;
+		} catch (IOException e) {
+			entries.clear();
+			liveBytes = 0;
+			return HEADER_SIZE;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes the entries to the index file. The index is replaced in one go,
+	 * so it is never left half written.
+	 */
+	private void writeIndex() throws IOException {
+		File temp = new File(indexFile.getPath() + ".tmp");
+		FileOutputStream fileOut = new FileOutputStream(temp);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				fileOut));
+		try {
+			long covered = raf.length();
+			out.writeInt(INDEX_MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(covered);
+			if (covered > HEADER_SIZE) {
+				raf.seek(covered - 4);
+				out.writeInt(raf.readInt());
+			} else {
+				out.writeInt(0);
+			}
+			out.writeInt(entries.size());
+			for (SetPieceInfo info : entries.values()) {
+				out.writeUTF(info.getFilename());
+				out.writeByte(info.getType());
+				writeDimension(out, info.length());
+				writeDimension(out, info.width());
+				out.writeLong(info.offset);
+				out.writeInt(info.size);
+			}
+			out.flush();
+			fileOut.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(indexFile)) {
+			temp.delete();
+		}
+	}
+
+	/*
+	 * Dimensions are written to the index as a number of sixteenths, with two
+	 * values that can't be lengths standing for null and no content.
+	 */
+	private static final long NULL_DIMENSION = Long.MIN_VALUE,
+			EMPTY_DIMENSION = Long.MIN_VALUE + 1;
+
+	private static void writeDimension(DataOutputStream out,
+			Dimension dimension) throws IOException {
+		if (dimension == null) {
+			out.writeLong(NULL_DIMENSION);
+		} else if (!dimension.hasContent()) {
+			out.writeLong(EMPTY_DIMENSION);
+		} else {
+			out.writeLong(dimension.getSixteenths());
+		}
+	}
+
+	private static Dimension readDimension(DataInputStream in)
+			throws IOException {
+		long value = in.readLong();
+		if (value == NULL_DIMENSION) {
+			return null;
+		}
+		Dimension dimension = new Dimension();
+		if (value != EMPTY_DIMENSION) {
+			dimension.setSixteenths(value);
+		}
+		return dimension;
+	}
+
+	/**
+	 * Saves a set piece, replacing any set piece with the same filename.
+	 *
+	 * @param setPiece
+	 *            The set piece.
+	 * @throws IOException
+	 *             If the record can't be written.
+	 */
+	public synchronized void put(Buildable setPiece) throws IOException {
+		add(setPiece);
+		raf.getFD().sync();
+		compactIfNeeded();
+	}
+
+	/**
+	 * Deletes a set piece.
+	 *
+	 * @param filename
+	 *            The filename of the set piece.
+	 * @throws IOException
+	 *             If the record can't be written.
+	 */
+	public synchronized void delete(String filename) throws IOException {
+		if (!entries.containsKey(filename)) {
+			return;
+		}
+		append(DELETE, filename, new byte[0]);
+		raf.getFD().sync();
+		remove(filename);
+		compactIfNeeded();
+	}
+
+	/**
+	 * Saves several set pieces at once, waiting for the disk only once. This
+	 * is used to bring in set pieces saved by older versions of the program.
+	 *
+	 * @param setPieces
+	 *            The set pieces, in the order they were saved.
+	 * @throws IOException
+	 *             If the records can't be written.
+	 */
+	public synchronized void putAll(List<Buildable> setPieces)
+			throws IOException {
+		for (Buildable setPiece : setPieces) {
+			add(setPiece);
+		}
+		raf.getFD().sync();
+		compactIfNeeded();
+	}
+
+	/**
+	 * Deletes and saves several set pieces at once, waiting for the disk only
+	 * once. The deletes are written first. This is how
+	 * {@link SetPieceRepository} writes a batch of changes.
+	 *
+	 * @param deletes
+	 *            The filenames of the set pieces to delete.
+	 * @param puts
+	 *            The set pieces to save, in order, already encoded with
+	 *            {@link BuildableCodec}.
+	 * @throws IOException
+	 *             If the records can't be written.
+	 */
+	synchronized void apply(List<String> deletes, List<byte[]> puts)
+			throws IOException {
+		for (String filename : deletes) {
+			if (entries.containsKey(filename)) {
+				append(DELETE, filename, new byte[0]);
+				remove(filename);
+			}
+		}
+		for (byte[] payload : puts) {
+			add(payload);
+		}
+		raf.getFD().sync();
+		compactIfNeeded();
+	}
+
+	private void add(Buildable setPiece) throws IOException {
+		add(BuildableCodec.encode(setPiece));
+	}
+
+	private void add(byte[] payload) throws IOException {
+		SetPieceInfo info = BuildableCodec.decodeInfo(payload, 0,
+				payload.length, -1, 0);
+		String filename = info.getFilename();
+		info.offset = append(PUT, filename, payload);
+		info.size = (int) (raf.length() - info.offset);
+		remove(filename);
+		entries.put(filename, info);
+		liveBytes += info.size;
+	}
+
+	private void remove(String filename) {
+		SetPieceInfo old = entries.remove(filename);
+		if (old != null) {
+			liveBytes -= old.size;
+		}
+	}
+
+	/**
+	 * Writes the index and closes the file. The log can't be used after this.
+	 */
+	public synchronized void close() throws IOException {
+		while (compacting) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		writeIndex();
+		map = null;
+		raf.close();
+	}
+
+	/**
+	 * Writes a record to the end of the file. The caller has to sync the file
+	 * for the record to be safe.
+	 *
+	 * @return Where the record starts.
+	 */
+	private long append(byte type, String filename, byte[] payload)
+			throws IOException {
+		byte[] record = record(type, filename, payload);
+		long offset = raf.length();
+		raf.seek(offset);
+		raf.write(record);
+		return offset;
+	}
+
+	private static byte[] record(byte type, String filename, byte[] payload)
+			throws IOException {
+		byte[] key = filename.getBytes("UTF-8");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+				payload.length + key.length + MIN_RECORD_SIZE);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(type);
+		out.writeInt(key.length);
+		out.write(key);
+		out.writeInt(payload.length);
+		out.write(payload);
+		CRC32 crc = new CRC32();
+		crc.update(bytes.toByteArray());
+		out.writeInt((int) crc.getValue());
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Copies a whole record out of the memory-mapped file.
+	 */
+	private byte[] readRecord(SetPieceInfo info) throws IOException {
+		MappedByteBuffer buffer = mapped(info.offset + info.size);
+		byte[] record = new byte[info.size];
+		buffer.position((int) info.offset);
+		buffer.get(record);
+		return record;
+	}
+
+	/**
+	 * Returns a read-only view of the file that is at least the given number
+	 * of bytes long, mapping the file again if it has grown.
+	 */
+	private MappedByteBuffer mapped(long length) throws IOException {
+		if (map == null || map.capacity() < length) {
+			map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+					raf.length());
+		}
+		return map;
+	}
+
+	private static boolean checksumMatches(byte[] record, int size) {
+		CRC32 crc = new CRC32();
+		crc.update(record, 0, size - 4);
+		return readInt(record, size - 4) == (int) crc.getValue();
+	}
+
+	private static int readInt(byte[] data, int offset) {
+		return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16
+				| (data[offset + 2] & 0xFF) << 8 | (data[offset + 3] & 0xFF);
+	}
+
+	private static Buildable deserialize(byte[] data, int offset, int length)
+			throws IOException {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+				data, offset, length));
+		try {
+			return (Buildable) in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new CorruptLogException(e.getMessage());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Starts a compaction on a background thread if the log is at least half
+	 * garbage.
+	 */
+	private void compactIfNeeded() throws IOException {
+		long size = raf.length();
+		if (size >= MIN_COMPACT_SIZE
+				&& size - HEADER_SIZE - liveBytes >= liveBytes) {
+			compact();
+		}
+	}
+
+	/**
+	 * Starts a compaction on a background thread, unless one is already
+	 * running.
+	 */
+	private void compact() throws IOException {
+		if (compacting) {
+			return;
+		}
+		compacting = true;
+		final List<SetPieceInfo> live = new ArrayList<SetPieceInfo>(
+				entries.values());
+		final long end = raf.length();
+		Thread thread = new Thread("SetPieceCompactor") {
+			@Override
+			public void run() {
+				try {
+					copyLive(live, end);
+				} catch (IOException e) {
+					/*
+					 * The old log is still there and still correct, so there's
+					 * nothing to do but try again after the next save.
+					 */
+				} finally {
+					synchronized (SetPieceLog.this) {
+						compacting = false;
+						SetPieceLog.this.notifyAll();
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Copies the live records into a new file, which then replaces the log.
+	 * Runs on the compaction thread.
+	 *
+	 * @param live
+	 *            The records that were live when the compaction started.
+	 * @param end
+	 *            The length of the log when the compaction started.
+	 */
+	private void copyLive(List<SetPieceInfo> live, long end)
+			throws IOException {
+		File temp = new File(file.getPath() + ".compact");
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		RandomAccessFile out = new RandomAccessFile(temp, "rw");
+		try {
+			out.setLength(0);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			/*
+			 * Copy the records that were live when we started. Nothing in the
+			 * old file before 'end' changes while we do this, so the lock
+			 * isn't needed.
+			 */
+			Map<SetPieceInfo, Long> moved = new HashMap<SetPieceInfo, Long>();
+			byte[] buffer = new byte[8192];
+			for (SetPieceInfo info : live) {
+				moved.put(info, out.getFilePointer());
+				in.seek(info.offset);
+				copy(in, out, info.size, buffer);
+			}
+
+			synchronized (this) {
+				/*
+				 * Anything saved or deleted since we started was appended after
+				 * 'end', so copy it across as it is.
+				 */
+				long tailStart = out.getFilePointer();
+				in.seek(end);
+				copy(in, out, raf.length() - end, buffer);
+				out.getFD().sync();
+				out.close();
+				in.close();
+
+				if (!temp.renameTo(file)) {
+					throw new IOException("Couldn't replace " + file);
+				}
+				map = null;
+				raf.close();
+				raf = new RandomAccessFile(file, "rw");
+
+				for (SetPieceInfo info : entries.values()) {
+					if (info.offset < end) {
+						info.offset = moved.get(info);
+					} else {
+						info.offset = info.offset - end + tailStart;
+					}
+				}
+				writeIndex();
+			}
+		} finally {
+			in.close();
+			out.close();
+			temp.delete();
+		}
+	}
+
+	private static void copy(RandomAccessFile in, RandomAccessFile out,
+			long count, byte[] buffer) throws IOException {
+		while (count > 0) {
+			int read = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+			if (read < 0) {
+				throw new IOException("Unexpected end of log");
+			}
+			out.write(buffer, 0, read);
+			count -= read;
+		}
+	}
+}
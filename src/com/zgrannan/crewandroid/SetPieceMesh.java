@@ -0,0 +1,417 @@
+package com.zgrannan.crewandroid;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.List;
+
+import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
+
+/**
+ * The boxes of a set piece, packed into one vertex buffer and one index buffer
+ * for the 3D view.
+ * <p>
+ * The boxes come from {@link Buildable#toVertices()} and
+ * {@link Buildable#sheetVertices()}: eight corners each, the lumber first and
+ * then the sheets. Every box has its own eight corners, so one run of indices
+ * serves every box, and a run of boxes next to each other in the buffers is a
+ * single draw call. OpenGL ES 1 has no way to draw one shape many times over
+ * in a call, so the boxes that are the same shape aren't shared. The buffers
+ * are filled once and uploaded to GL buffer objects when the surface is
+ * created. Where buffer objects aren't supported, the same buffers are drawn
+ * from client memory instead.
+ * <p>
+ * The boxes are kept in a {@link BoxHierarchy} as well, so that only the ones
+ * in view are drawn once {@link #cull(float[])} has been called, and so that
+ * the one under a tap can be found with
+ * {@link #pick(float[], float[], boolean)}. They are packed in the order the
+ * leaves of the hierarchy hold them, so the boxes in view come in a few long
+ * runs, and a frame with everything in view is one call per pass.
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+final class SetPieceMesh {
+
+	/**
+	 * The number of corners of each box.
+	 */
+	private static final int POINTS_PER_BOX = 8;
+
+	private static final int FLOATS_PER_BOX = POINTS_PER_BOX * 3;
+
+	private static final int BYTES_PER_BOX = FLOATS_PER_BOX * 4;
+
+	/**
+	 * The corners of the triangles making up the faces of a box.
+	 */
+	private static final short[] TRI_INDICES = { 0, 6, 4, 4, 2, 0, 2, 4, 5,
+			5, 3, 2, 3, 5, 7, 7, 1, 3, 0, 6, 7, 7, 1, 0, 0, 1, 2, 2, 3, 1, 6, 7,
+			4, 4, 5, 7 };
+
+	/**
+	 * The corners of the lines making up the edges of a box.
+	 */
+	private static final short[] LINE_INDICES = { 0, 1, 1, 3, 3, 2, 2, 0, 1,
+			7, 0, 6, 2, 4, 3, 5, 6, 7, 7, 5, 5, 4, 4, 6 };
+
+	/**
+	 * The most boxes one draw call can reach, since indices are unsigned
+	 * shorts.
+	 */
+	private static final int MAX_BOXES_PER_DRAW = 65536 / POINTS_PER_BOX;
+
+	/**
+	 * The corners of every box, in the order of {@link #packed}.
+	 */
+	private final FloatBuffer vertices;
+
+	/**
+	 * The triangle indices for {@link #indexedBoxes} boxes, followed by the
+	 * line indices for as many.
+	 */
+	private final ShortBuffer indices;
+
+	private final int lumberCount, sheetCount, indexedBoxes;
+
+	/**
+	 * The box at each place in {@link #vertices}: the lumber first and then
+	 * the sheets, each in the order the leaves of {@link #hierarchy} hold
+	 * them. Boxes are numbered in the order they were given, the lumber
+	 * first.
+	 */
+	private final int[] packed;
+
+	/**
+	 * The place of each box in {@link #vertices}.
+	 */
+	private final int[] packedAt;
+
+	private final BoxHierarchy hierarchy;
+
+	/**
+	 * The last cull each box was in view for. Until the first cull, every box
+	 * is drawn.
+	 */
+	private final int[] visible;
+	private int cull;
+
+	/**
+	 * The names of the buffer objects, or 0 if they haven't been uploaded to
+	 * the current GL context.
+	 */
+	private int vertexBuffer, indexBuffer;
+
+	/**
+	 * Packs the boxes of a set piece.
+	 *
+	 * @param lumber
+	 *            The corners of each piece of lumber.
+	 * @param sheets
+	 *            The corners of each sheet.
+	 */
+	SetPieceMesh(List<float[]> lumber, List<float[]> sheets) {
+		lumberCount = lumber.size();
+		sheetCount = sheets.size();
+		int count = lumberCount + sheetCount;
+
+		float[] bounds = new float[count * 6];
+		putBounds(lumber, bounds, 0);
+		putBounds(sheets, bounds, lumberCount);
+		hierarchy = new BoxHierarchy(bounds);
+		visible = new int[count];
+
+		packed = new int[count];
+		packedAt = new int[count];
+		int lumberAt = 0, sheetAt = lumberCount;
+		for (int box : hierarchy.leafOrder()) {
+			int at = box < lumberCount ? lumberAt++ : sheetAt++;
+			packed[at] = box;
+			packedAt[box] = at;
+		}
+		vertices = ByteBuffer.allocateDirect(count * BYTES_PER_BOX)
+				.order(ByteOrder.nativeOrder()).asFloatBuffer();
+		for (int at = 0; at < count; at++) {
+			int box = packed[at];
+			vertices.put(box < lumberCount ? lumber.get(box) : sheets.get(box
+					- lumberCount));
+		}
+		vertices.position(0);
+
+		indexedBoxes = Math.min(Math.max(lumberCount, sheetCount),
+				MAX_BOXES_PER_DRAW);
+		indices = ByteBuffer
+				.allocateDirect(
+						indexedBoxes
+								* (TRI_INDICES.length + LINE_INDICES.length)
+								* 2).order(ByteOrder.nativeOrder())
+				.asShortBuffer();
+		putIndices(TRI_INDICES);
+		putIndices(LINE_INDICES);
+		indices.position(0);
+	}
+
+	/**
+	 * Puts the smallest and largest x, y and z of each of some boxes into
+	 * bounds, starting with the box numbered first.
+	 */
+	private static void putBounds(List<float[]> boxes, float[] bounds,
+			int first) {
+		int n = first;
+		for (float[] box : boxes) {
+			for (int axis = 0; axis < 3; axis++) {
+				bounds[n * 6 + axis] = Float.MAX_VALUE;
+				bounds[n * 6 + axis + 3] = -Float.MAX_VALUE;
+			}
+			for (int j = 0; j < FLOATS_PER_BOX; j++) {
+				int axis = j % 3;
+				bounds[n * 6 + axis] = Math.min(bounds[n * 6 + axis], box[j]);
+				bounds[n * 6 + axis + 3] = Math.max(bounds[n * 6 + axis + 3],
+						box[j]);
+			}
+			n++;
+		}
+	}
+
+	private void putIndices(short[] template) {
+		for (int box = 0; box < indexedBoxes; box++) {
+			int base = box * POINTS_PER_BOX;
+			for (short index : template) {
+				indices.put((short) (base + index));
+			}
+		}
+	}
+
+	/**
+	 * Uploads the buffers to GL buffer objects, if they are supported. Called
+	 * whenever the surface is created, since buffer objects are lost along
+	 * with the context they were made in.
+	 *
+	 * @param gl
+	 *            The GL interface.
+	 */
+	void upload(GL10 gl) {
+		vertexBuffer = 0;
+		indexBuffer = 0;
+		String version = gl.glGetString(GL10.GL_VERSION);
+		if (!(gl instanceof GL11) || version == null
+				|| version.contains("1.0")) {
+			return;
+		}
+		GL11 gl11 = (GL11) gl;
+		int[] names = new int[2];
+		gl11.glGenBuffers(2, names, 0);
+
+		gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, names[0]);
+		gl11.glBufferData(GL11.GL_ARRAY_BUFFER, vertices.capacity() * 4,
+				vertices, GL11.GL_STATIC_DRAW);
+		gl11.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, names[1]);
+		gl11.glBufferData(GL11.GL_ELEMENT_ARRAY_BUFFER,
+				indices.capacity() * 2, indices, GL11.GL_STATIC_DRAW);
+		gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, 0);
+		gl11.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+		vertexBuffer = names[0];
+		indexBuffer = names[1];
+	}
+
+	/**
+	 * Finds the boxes in view, so that only they are drawn until the next
+	 * cull.
+	 *
+	 * @param viewProjection
+	 *            The projection matrix times the model view matrix the set
+	 *            piece is drawn with, in the column-major order OpenGL uses.
+	 */
+	void cull(float[] viewProjection) {
+		cull++;
+		hierarchy.cull(viewProjection, visible, cull);
+	}
+
+	/**
+	 * Finds the nearest box a ray hits.
+	 *
+	 * @param origin
+	 *            The x, y and z where the ray starts, in the coordinates of
+	 *            the set piece.
+	 * @param direction
+	 *            The x, y and z of the direction of the ray.
+	 * @param sheets
+	 *            Whether the sheets may be hit, or only the lumber.
+	 * @return The box, or -1 if the ray doesn't hit one.
+	 */
+	int pick(final float[] origin, final float[] direction,
+			final boolean sheets) {
+		return hierarchy.pick(origin, direction, new BoxHierarchy.Hit() {
+			@Override
+			public float distance(int box) {
+				if (!sheets && box >= lumberCount) {
+					return -1;
+				}
+				return hitDistance(box, origin, direction);
+			}
+		});
+	}
+
+	/**
+	 * @return How far along a ray it hits one of the faces of a box, or -1 if
+	 *         it misses them all.
+	 */
+	private float hitDistance(int box, float[] origin, float[] direction) {
+		int corners = packedAt[box] * FLOATS_PER_BOX;
+		float[] v = new float[9];
+		float nearest = -1;
+		for (int t = 0; t < TRI_INDICES.length; t += 3) {
+			for (int k = 0; k < 3; k++) {
+				int corner = corners + TRI_INDICES[t + k] * 3;
+				v[k * 3] = vertices.get(corner);
+				v[k * 3 + 1] = vertices.get(corner + 1);
+				v[k * 3 + 2] = vertices.get(corner + 2);
+			}
+			float distance = hitTriangle(v, origin, direction);
+			if (distance >= 0 && (nearest < 0 || distance < nearest)) {
+				nearest = distance;
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * @return How far along a ray it hits a triangle, or -1 if it misses it.
+	 */
+	private static float hitTriangle(float[] v, float[] origin,
+			float[] direction) {
+		float e1x = v[3] - v[0], e1y = v[4] - v[1], e1z = v[5] - v[2];
+		float e2x = v[6] - v[0], e2y = v[7] - v[1], e2z = v[8] - v[2];
+		float px = direction[1] * e2z - direction[2] * e2y;
+		float py = direction[2] * e2x - direction[0] * e2z;
+		float pz = direction[0] * e2y - direction[1] * e2x;
+		float determinant = e1x * px + e1y * py + e1z * pz;
+		if (Math.abs(determinant) < 1e-9f) {
+			return -1;
+		}
+		float tx = origin[0] - v[0], ty = origin[1] - v[1], tz = origin[2]
+				- v[2];
+		float u = (tx * px + ty * py + tz * pz) / determinant;
+		if (u < 0 || u > 1) {
+			return -1;
+		}
+		float qx = ty * e1z - tz * e1y;
+		float qy = tz * e1x - tx * e1z;
+		float qz = tx * e1y - ty * e1x;
+		float w = (direction[0] * qx + direction[1] * qy + direction[2] * qz)
+				/ determinant;
+		if (w < 0 || u + w > 1) {
+			return -1;
+		}
+		float distance = (e2x * qx + e2y * qy + e2z * qz) / determinant;
+		return distance >= 0 ? distance : -1;
+	}
+
+	/**
+	 * Draws the lumber in view.
+	 *
+	 * @param gl
+	 *            The GL interface, with the vertex array enabled.
+	 * @param outline
+	 *            True to draw the edges, false to draw the faces.
+	 */
+	void drawLumber(GL10 gl, boolean outline) {
+		draw(gl, 0, lumberCount, outline);
+	}
+
+	/**
+	 * Draws the sheets in view.
+	 *
+	 * @param gl
+	 *            The GL interface, with the vertex array enabled.
+	 * @param outline
+	 *            True to draw the edges, false to draw the faces.
+	 */
+	void drawSheets(GL10 gl, boolean outline) {
+		draw(gl, lumberCount, sheetCount, outline);
+	}
+
+	/**
+	 * Draws a single box, whether or not it is in view.
+	 *
+	 * @param gl
+	 *            The GL interface, with the vertex array enabled.
+	 * @param box
+	 *            The box, as returned by
+	 *            {@link #pick(float[], float[], boolean)}.
+	 * @param outline
+	 *            True to draw the edges, false to draw the faces.
+	 */
+	void drawBox(GL10 gl, int box, boolean outline) {
+		bind(gl);
+		drawRun(gl, packedAt[box], 1, outline);
+		unbind(gl);
+	}
+
+	/**
+	 * Draws the boxes in view among a range of places in the vertex buffer,
+	 * a run of them at a time.
+	 */
+	private void draw(GL10 gl, int first, int count, boolean outline) {
+		bind(gl);
+		int end = first + count;
+		int at = first;
+		while (at < end) {
+			while (at < end && visible[packed[at]] != cull) {
+				at++;
+			}
+			int start = at;
+			while (at < end && visible[packed[at]] == cull) {
+				at++;
+			}
+			for (int run = start; run < at; run += MAX_BOXES_PER_DRAW) {
+				drawRun(gl, run, Math.min(at - run, MAX_BOXES_PER_DRAW),
+						outline);
+			}
+		}
+		unbind(gl);
+	}
+
+	private void bind(GL10 gl) {
+		if (vertexBuffer != 0) {
+			GL11 gl11 = (GL11) gl;
+			gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, vertexBuffer);
+			gl11.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+		}
+	}
+
+	private void unbind(GL10 gl) {
+		if (vertexBuffer != 0) {
+			GL11 gl11 = (GL11) gl;
+			gl11.glBindBuffer(GL11.GL_ARRAY_BUFFER, 0);
+			gl11.glBindBuffer(GL11.GL_ELEMENT_ARRAY_BUFFER, 0);
+		}
+	}
+
+	/**
+	 * Draws the boxes at some places in the vertex buffer next to each other,
+	 * no more than {@link #MAX_BOXES_PER_DRAW} of them, in one call.
+	 */
+	private void drawRun(GL10 gl, int first, int boxes, boolean outline) {
+		int mode = outline ? GL10.GL_LINES : GL10.GL_TRIANGLES;
+		int perBox = outline ? LINE_INDICES.length : TRI_INDICES.length;
+		int indexStart = outline ? indexedBoxes * TRI_INDICES.length : 0;
+
+		if (vertexBuffer != 0) {
+			GL11 gl11 = (GL11) gl;
+			gl11.glVertexPointer(3, GL10.GL_FLOAT, 0, first * BYTES_PER_BOX);
+			gl11.glDrawElements(mode, boxes * perBox, GL10.GL_UNSIGNED_SHORT,
+					indexStart * 2);
+			return;
+		}
+		vertices.position(first * FLOATS_PER_BOX);
+		gl.glVertexPointer(3, GL10.GL_FLOAT, 0, vertices);
+		indices.position(indexStart);
+		gl.glDrawElements(mode, boxes * perBox, GL10.GL_UNSIGNED_SHORT,
+				indices);
+	}
+}
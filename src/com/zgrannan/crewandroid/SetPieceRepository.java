@@ -0,0 +1,376 @@
+package com.zgrannan.crewandroid;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of the saved set pieces, and writes changes to the
+ * {@link SetPieceLog} in the background.
+ * <p>
+ * Saving, deleting and renaming a set piece only change the list held in
+ * memory, which takes effect straight away, and queue the change for the
+ * writer thread. The writer waits a moment for more changes to come in, then
+ * writes everything queued in one batch, so the disk is only waited on once.
+ * If a set piece is changed several times before the writer gets to it, only
+ * the last change is written. The UI thread never waits for the disk, except
+ * in {@link #flush()}, which activities call when they are paused, since the
+ * application may be killed after that.
+ * <p>
+ * Set pieces are looked up by filename in a hash table, so checking whether a
+ * set piece exists doesn't depend on how many are saved.
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+public class SetPieceRepository {
+
+	/**
+	 * How long the writer waits for more changes before writing, in
+	 * milliseconds.
+	 */
+	private static final long COALESCE_DELAY = 250;
+
+	private final SetPieceLog log;
+
+	/**
+	 * The saved set pieces, in the order they were saved.
+	 */
+	private final ArrayList<SetPieceInfo> infos;
+
+	/**
+	 * The saved set pieces, by filename.
+	 */
+	private final HashMap<String, SetPieceInfo> byFilename;
+
+	/**
+	 * The index of each set piece in {@link #infos}, by filename, or null if
+	 * it has to be worked out again since a set piece was removed.
+	 */
+	private HashMap<String, Integer> positions;
+
+	/**
+	 * The changes that haven't been written yet, by filename, in the order
+	 * they were made. A set piece to be saved maps to the encoded set piece,
+	 * and one to be deleted maps to null.
+	 */
+	private final LinkedHashMap<String, byte[]> pending = new LinkedHashMap<String, byte[]>();
+
+	/**
+	 * The changes the writer is writing, or null if it isn't writing. They
+	 * might not be in the log yet, so reads look here too.
+	 */
+	private LinkedHashMap<String, byte[]> writing;
+
+	/**
+	 * True if {@link #flush()} is waiting, so the writer shouldn't wait for
+	 * more changes.
+	 */
+	private boolean flushRequested;
+
+	/**
+	 * The reason the last batch couldn't be written, or null if it was. The
+	 * changes in it stay queued, and aren't tried again until something else
+	 * changes or the repository is flushed.
+	 */
+	private IOException failure;
+
+	/**
+	 * Creates a repository holding the set pieces in a log, and starts its
+	 * writer thread.
+	 *
+	 * @param log
+	 *            The log, which should already have been loaded.
+	 */
+	public SetPieceRepository(SetPieceLog log) {
+		this.log = log;
+		infos = new ArrayList<SetPieceInfo>(log.getInfos());
+		byFilename = new HashMap<String, SetPieceInfo>(infos.size() * 2);
+		for (SetPieceInfo info : infos) {
+			byFilename.put(info.getFilename(), info);
+		}
+		Thread writer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "SetPieceWriter");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * @return The saved set pieces, in the order they were saved.
+	 */
+	public synchronized List<SetPieceInfo> getInfos() {
+		return new ArrayList<SetPieceInfo>(infos);
+	}
+
+	/**
+	 * @param filename
+	 *            The filename of a set piece.
+	 * @return True if a set piece with this filename is saved.
+	 */
+	public synchronized boolean contains(String filename) {
+		return byFilename.containsKey(filename);
+	}
+
+	/**
+	 * @param filename
+	 *            The filename of a set piece.
+	 * @return The index of the set piece in {@link #getInfos()}, or -1 if
+	 *         there isn't a set piece with this filename.
+	 */
+	public synchronized int indexOf(String filename) {
+		if (!byFilename.containsKey(filename)) {
+			return -1;
+		}
+		if (positions == null) {
+			positions = new HashMap<String, Integer>(infos.size() * 2);
+			for (int i = 0; i < infos.size(); i++) {
+				positions.put(infos.get(i).getFilename(), i);
+			}
+		}
+		return positions.get(filename);
+	}
+
+	/**
+	 * Reads a saved set piece. If it hasn't been written yet, the copy waiting
+	 * to be written is decoded instead.
+	 *
+	 * @param filename
+	 *            The filename of the set piece.
+	 * @return The set piece, which hasn't been made yet, or null if there
+	 *         isn't one with this filename.
+	 * @throws IOException
+	 *             If the set piece can't be read.
+	 */
+	public Buildable read(String filename) throws IOException {
+		synchronized (this) {
+			Map<String, byte[]> changes = pending;
+			if (!changes.containsKey(filename) && writing != null) {
+				changes = writing;
+			}
+			if (changes.containsKey(filename)) {
+				byte[] payload = changes.get(filename);
+				return payload == null ? null : BuildableCodec.decode(payload,
+						0, payload.length);
+			}
+		}
+		return log.read(filename);
+	}
+
+	/**
+	 * Saves a set piece, replacing any set piece with the same filename. The
+	 * set piece is copied, so it can be changed afterwards without changing
+	 * what is saved.
+	 *
+	 * @param setPiece
+	 *            The set piece.
+	 * @throws IOException
+	 *             If an earlier change couldn't be written. This change is
+	 *             still queued, and the earlier one is tried again with it.
+	 */
+	public void put(Buildable setPiece) throws IOException {
+		byte[] payload = BuildableCodec.encode(setPiece);
+		SetPieceInfo info = BuildableCodec.decodeInfo(payload, 0,
+				payload.length, -1, 0);
+		synchronized (this) {
+			IOException earlier = takeFailure();
+			removeInfo(info.getFilename());
+			addInfo(info);
+			queue(info.getFilename(), payload);
+			if (earlier != null) {
+				throw earlier;
+			}
+		}
+	}
+
+	/**
+	 * Deletes a set piece. Nothing happens if there isn't a set piece with
+	 * this filename.
+	 *
+	 * @param filename
+	 *            The filename of the set piece.
+	 * @throws IOException
+	 *             If an earlier change couldn't be written.
+	 */
+	public synchronized void delete(String filename) throws IOException {
+		IOException earlier = takeFailure();
+		if (removeInfo(filename)) {
+			queue(filename, null);
+		}
+		if (earlier != null) {
+			throw earlier;
+		}
+	}
+
+	/**
+	 * Gives a set piece a new filename. Like saving it again, this moves it to
+	 * the end of the list, and replaces any set piece that already had the new
+	 * filename.
+	 *
+	 * @param filename
+	 *            The filename of the set piece.
+	 * @param newFilename
+	 *            The filename to give it.
+	 * @throws FileNotFoundException
+	 *             If there isn't a set piece with this filename.
+	 * @throws IOException
+	 *             If the set piece can't be read, or an earlier change couldn't
+	 *             be written.
+	 */
+	public void rename(String filename, String newFilename)
+			throws IOException {
+		if (filename.equals(newFilename)) {
+			if (!contains(filename)) {
+				throw new FileNotFoundException(filename);
+			}
+			return;
+		}
+		synchronized (this) {
+			/*
+			 * Hold the lock from reading the set piece until the change is
+			 * queued, so that nothing can change it in between.
+			 */
+			Buildable setPiece = read(filename);
+			if (setPiece == null) {
+				throw new FileNotFoundException(filename);
+			}
+			setPiece.setFilename(newFilename);
+			removeInfo(filename);
+			queue(filename, null);
+			put(setPiece);
+		}
+	}
+
+	/**
+	 * Writes every queued change, and waits until they are safely on disk.
+	 * Activities call this when they are paused.
+	 *
+	 * @throws IOException
+	 *             If the changes couldn't be written. They stay queued, and
+	 *             are tried again on the next change or flush.
+	 */
+	public synchronized void flush() throws IOException {
+		// Give any changes that failed before another try.
+		failure = null;
+		flushRequested = true;
+		notifyAll();
+		try {
+			while ((!pending.isEmpty() || writing != null) && failure == null) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			flushRequested = false;
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private void addInfo(SetPieceInfo info) {
+		if (positions != null) {
+			positions.put(info.getFilename(), infos.size());
+		}
+		infos.add(info);
+		byFilename.put(info.getFilename(), info);
+	}
+
+	private boolean removeInfo(String filename) {
+		SetPieceInfo info = byFilename.remove(filename);
+		if (info == null) {
+			return false;
+		}
+		infos.remove(info);
+		positions = null;
+		return true;
+	}
+
+	/**
+	 * Queues a change for the writer. Any change to the same set piece that
+	 * is still queued is replaced.
+	 */
+	private void queue(String filename, byte[] payload) {
+		pending.remove(filename);
+		pending.put(filename, payload);
+		notifyAll();
+	}
+
+	/**
+	 * Clears the reason the last batch failed, so the writer tries it again,
+	 * and returns it.
+	 */
+	private IOException takeFailure() {
+		IOException e = failure;
+		failure = null;
+		notifyAll();
+		return e;
+	}
+
+	private void writeLoop() {
+		while (true) {
+			LinkedHashMap<String, byte[]> batch;
+			synchronized (this) {
+				try {
+					while (pending.isEmpty() || failure != null) {
+						wait();
+					}
+					long end = System.currentTimeMillis() + COALESCE_DELAY;
+					long remaining = COALESCE_DELAY;
+					while (!flushRequested && remaining > 0) {
+						wait(remaining);
+						remaining = end - System.currentTimeMillis();
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				batch = new LinkedHashMap<String, byte[]>(pending);
+				pending.clear();
+				writing = batch;
+			}
+
+			List<String> deletes = new ArrayList<String>();
+			List<byte[]> puts = new ArrayList<byte[]>();
+			for (Map.Entry<String, byte[]> change : batch.entrySet()) {
+				if (change.getValue() == null) {
+					deletes.add(change.getKey());
+				} else {
+					puts.add(change.getValue());
+				}
+			}
+			IOException error = null;
+			try {
+				log.apply(deletes, puts);
+			} catch (IOException e) {
+				error = e;
+			}
+
+			synchronized (this) {
+				writing = null;
+				if (error != null) {
+					/*
+					 * Put back the changes that haven't been replaced since,
+					 * ahead of the newer ones. Writing them again is harmless.
+					 */
+					for (String filename : pending.keySet()) {
+						batch.remove(filename);
+					}
+					batch.putAll(pending);
+					pending.clear();
+					pending.putAll(batch);
+					failure = error;
+				}
+				notifyAll();
+			}
+		}
+	}
+}
@@ -20,6 +20,8 @@ import com.zgrannan.crewandroid.Util.PartialInstruction;
  */
 public class StudFrag extends Frag {
 
+	private static final long serialVersionUID = 1L;
+
 	/**
 	 * The number of horizontal pieces used to build this studwall fragment,
 	 * excluding toggles. Should always equal 2.
@@ -0,0 +1,413 @@
+package com.zgrannan.crewandroid;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.widget.ImageView;
+
+import com.zgrannan.crewandroid.DiagramGeometry.Chunk;
+import com.zgrannan.crewandroid.DiagramGeometry.Floats;
+
+/**
+ * Draws small top-down pictures of saved set pieces for the list in
+ * {@link SavedPieces}, on a background thread.
+ * <p>
+ * A picture takes reading the set piece, building it, or restoring it from
+ * the {@link BuildArtifactCache}, and drawing its {@link DiagramGeometry}, so
+ * none of that happens on the UI thread. Pictures are kept in memory, the ones
+ * used least recently being dropped first, and as PNGs in the application's
+ * cache directory, both by a hash of the set piece's spec, so a set piece
+ * saved under another name or opened again later is only drawn once.
+ * <p>
+ * The list only has the {@link SetPieceInfo} of each set piece, which doesn't
+ * hold its spec, so the spec each info was found to have is remembered too.
+ * Saving a set piece, even over one with the same filename, gives it a new
+ * info, so a picture of what it used to be is never shown for it.
+ * <p>
+ * Only the rows on the screen ask for pictures. The list reuses the views of
+ * rows that scroll off, so each view waits for at most one picture, and one
+ * it has stopped waiting for is never drawn. The most recent request is drawn
+ * first, and no work is done while the list is flung.
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+final class ThumbnailLoader {
+
+	/**
+	 * How wide and tall a picture is, in density independent pixels.
+	 */
+	static final int SIZE_DIP = 64;
+
+	/**
+	 * The room left around the set piece in a picture, in pixels.
+	 */
+	private static final int PADDING = 2;
+
+	/**
+	 * The most pictures kept in memory, each 16K on a medium density screen.
+	 */
+	private static final int MAX_MEMORY_ENTRIES = 48;
+
+	/**
+	 * The most pictures kept in the cache directory.
+	 */
+	private static final int MAX_DISK_ENTRIES = 256;
+
+	private static final String DIRECTORY = "thumbnails";
+
+	/**
+	 * Pictures by the hash of their set piece's spec, from
+	 * {@link BuildArtifactCache#nameOf(byte[])}.
+	 */
+	private static final LinkedHashMap<String, Bitmap> memory = new LinkedHashMap<String, Bitmap>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Bitmap> eldest) {
+			return size() > MAX_MEMORY_ENTRIES;
+		}
+	};
+
+	/**
+	 * The hash of the spec of each set piece a picture has been found for.
+	 * Guarded by {@link #memory}.
+	 */
+	private static final WeakHashMap<SetPieceInfo, String> specNames = new WeakHashMap<SetPieceInfo, String>();
+
+	private final Context context;
+	private final int size;
+
+	/**
+	 * Runs things on the UI thread.
+	 */
+	private final Handler handler = new Handler();
+
+	/**
+	 * The set piece each view is waiting for a picture of, the one asked for
+	 * last at the end.
+	 */
+	private final LinkedHashMap<ImageView, SetPieceInfo> pending = new LinkedHashMap<ImageView, SetPieceInfo>();
+
+	/**
+	 * Whether {@link #worker} has been asked to draw the pending pictures.
+	 */
+	private boolean working;
+	private boolean paused;
+	private boolean stopped;
+
+	private final ExecutorService worker = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "ThumbnailLoader");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+
+	private final Runnable drawPending = new Runnable() {
+		@Override
+		public void run() {
+			while (true) {
+				ImageView view;
+				SetPieceInfo info;
+				synchronized (ThumbnailLoader.this) {
+					if (paused || stopped || pending.isEmpty()) {
+						working = false;
+						return;
+					}
+					Iterator<Map.Entry<ImageView, SetPieceInfo>> entries = pending
+							.entrySet().iterator();
+					Map.Entry<ImageView, SetPieceInfo> last = entries.next();
+					while (entries.hasNext()) {
+						last = entries.next();
+					}
+					view = last.getKey();
+					info = last.getValue();
+				}
+				show(view, info, load(info));
+			}
+		}
+	};
+
+	/**
+	 * Creates a loader. Must be called on the UI thread.
+	 *
+	 * @param context
+	 *            Used to find the cache directory and to build set pieces.
+	 */
+	ThumbnailLoader(Context context) {
+		this.context = context.getApplicationContext();
+		size = Math.round(SIZE_DIP
+				* context.getResources().getDisplayMetrics().density);
+	}
+
+	/**
+	 * Shows the picture of a set piece in a view, as soon as it is drawn. Must
+	 * be called on the UI thread.
+	 *
+	 * @param info
+	 *            The set piece.
+	 * @param view
+	 *            The view. If it was waiting for another picture, it stops.
+	 */
+	void load(SetPieceInfo info, ImageView view) {
+		view.setTag(info);
+		Bitmap bitmap = fromMemory(info);
+		view.setImageBitmap(bitmap);
+		synchronized (this) {
+			pending.remove(view);
+			if (bitmap == null && !stopped) {
+				pending.put(view, info);
+				schedule();
+			}
+		}
+	}
+
+	/**
+	 * Holds off drawing pictures, e.g. while the list is flung, or starts
+	 * again.
+	 *
+	 * @param paused
+	 *            True to hold off.
+	 */
+	synchronized void setPaused(boolean paused) {
+		this.paused = paused;
+		schedule();
+	}
+
+	/**
+	 * Stops drawing pictures for good. Called when the list goes away.
+	 */
+	synchronized void stop() {
+		stopped = true;
+		pending.clear();
+		worker.shutdown();
+	}
+
+	private void schedule() {
+		if (!working && !paused && !stopped && !pending.isEmpty()) {
+			working = true;
+			worker.execute(drawPending);
+		}
+	}
+
+	/**
+	 * Puts a picture that has been drawn in its view on the UI thread, unless
+	 * the view has been reused for another set piece since.
+	 */
+	private void show(final ImageView view, final SetPieceInfo info,
+			final Bitmap bitmap) {
+		synchronized (this) {
+			if (pending.get(view) == info) {
+				pending.remove(view);
+			}
+		}
+		if (bitmap == null) {
+			return;
+		}
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				if (view.getTag() == info) {
+					view.setImageBitmap(bitmap);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return The picture of a set piece kept in memory, or null if there
+	 *         isn't one.
+	 */
+	private static Bitmap fromMemory(SetPieceInfo info) {
+		synchronized (memory) {
+			String specName = specNames.get(info);
+			return specName == null ? null : memory.get(specName);
+		}
+	}
+
+	/**
+	 * Keeps a picture in memory.
+	 */
+	private static void keep(SetPieceInfo info, String specName, Bitmap bitmap) {
+		synchronized (memory) {
+			specNames.put(info, specName);
+			memory.put(specName, bitmap);
+		}
+	}
+
+	/**
+	 * Gets the picture of a set piece, from memory, from the cache directory,
+	 * or by drawing it. Called on the worker thread.
+	 *
+	 * @return The picture, or null if the set piece can't be read.
+	 */
+	private Bitmap load(SetPieceInfo info) {
+		Bitmap bitmap = fromMemory(info);
+		if (bitmap != null) {
+			return bitmap;
+		}
+		Buildable setPiece;
+		try {
+			setPiece = CrewAndroid.openSetPiece(info.getFilename());
+		} catch (IOException e) {
+			return null;
+		} catch (NoSuchElementException e) {
+			// It was deleted after the list was shown.
+			return null;
+		}
+
+		String specName = BuildArtifactCache.nameOf(BuildableCodec
+				.encodeSpec(setPiece));
+		synchronized (memory) {
+			bitmap = memory.get(specName);
+		}
+		if (bitmap != null) {
+			// Another set piece with the same spec has been drawn
+			keep(info, specName, bitmap);
+			return bitmap;
+		}
+
+		File directory = directory();
+		File file = null;
+		if (directory != null) {
+			file = new File(directory, specName + '-'
+					+ BuildArtifactCache.GENERATOR_VERSION + '-' + size
+					+ ".png");
+			if (file.exists()) {
+				bitmap = BitmapFactory.decodeFile(file.getPath());
+				if (bitmap != null) {
+					file.setLastModified(System.currentTimeMillis());
+					keep(info, specName, bitmap);
+					return bitmap;
+				}
+				file.delete();
+			}
+		}
+
+		setPiece.makeOrRestore(context);
+		bitmap = render(setPiece, size);
+		keep(info, specName, bitmap);
+		if (file != null) {
+			write(bitmap, file);
+			BuildArtifactCache.trim(directory, MAX_DISK_ENTRIES);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * @return The directory the pictures are kept in, or null if there isn't
+	 *         anywhere to put it.
+	 */
+	private File directory() {
+		if (context.getCacheDir() == null) {
+			return null;
+		}
+		File directory = new File(context.getCacheDir(), DIRECTORY);
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			return null;
+		}
+		return directory;
+	}
+
+	private static void write(Bitmap bitmap, File file) {
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(temp);
+			bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+			out.close();
+			out = null;
+			if (!temp.renameTo(file)) {
+				temp.delete();
+			}
+		} catch (IOException e) {
+			temp.delete();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Draws a set piece from above, as the diagram shows it but without any
+	 * text, scaled to fit a square.
+	 *
+	 * @param setPiece
+	 *            The set piece, which has been made.
+	 * @param size
+	 *            How wide and tall the picture is, in pixels.
+	 * @return The picture.
+	 */
+	static Bitmap render(Buildable setPiece, int size) {
+		Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+		DiagramGeometry geometry = new DiagramGeometry(setPiece);
+		float left = Float.MAX_VALUE, top = Float.MAX_VALUE;
+		float right = -Float.MAX_VALUE, bottom = -Float.MAX_VALUE;
+		for (Chunk chunk : geometry.chunks) {
+			left = Math.min(left, chunk.left);
+			top = Math.min(top, chunk.top);
+			right = Math.max(right, chunk.right);
+			bottom = Math.max(bottom, chunk.bottom);
+		}
+		if (left > right) {
+			return bitmap;
+		}
+
+		float width = Math.max(right - left, 1), height = Math.max(bottom
+				- top, 1);
+		float scale = (size - 2 * PADDING) / Math.max(width, height);
+		Canvas canvas = new Canvas(bitmap);
+		canvas.translate((size - width * scale) / 2,
+				(size - height * scale) / 2);
+		canvas.scale(scale, scale);
+		canvas.translate(-left, -top);
+
+		// Hairlines, which are a pixel wide whatever the scale
+		Paint piecePaint = new Paint();
+		piecePaint.setColor(Color.RED);
+		Paint underPaint = new Paint();
+		underPaint.setColor(Color.MAGENTA);
+		Paint underFillPaint = new Paint();
+		underFillPaint.setARGB(64, 136, 136, 136);
+
+		for (Chunk chunk : geometry.chunks) {
+			Floats rects = chunk.underRects;
+			for (int i = 0; i < rects.size; i += 4) {
+				canvas.drawRect(rects.values[i], rects.values[i + 1],
+						rects.values[i + 2], rects.values[i + 3], underFillPaint);
+			}
+			canvas.drawLines(chunk.underLines.values, 0, chunk.underLines.size,
+					underPaint);
+			canvas.drawLines(chunk.pieceLines.values, 0, chunk.pieceLines.size,
+					piecePaint);
+		}
+		return bitmap;
+	}
+}
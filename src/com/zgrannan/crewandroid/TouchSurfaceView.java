@@ -1,20 +1,18 @@
 package com.zgrannan.crewandroid;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
-import java.util.List;
-
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 import android.content.Context;
+import android.content.pm.ApplicationInfo;
 import android.opengl.GLSurfaceView;
-import android.opengl.GLU;
+import android.opengl.Matrix;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
+import android.view.VelocityTracker;
+import android.view.ViewConfiguration;
 
 public class TouchSurfaceView extends GLSurfaceView {
 	private float scale = -1;
@@ -40,17 +38,38 @@ public class TouchSurfaceView extends GLSurfaceView {
 	private float mPreviousY;
 	private SetPieceRenderer mRenderer;
 	private ScaleGestureDetector mScaleDetector;
+	private VelocityTracker mVelocityTracker;
+
+	/**
+	 * Whether the current gesture has scaled the view, in which case lifting
+	 * the finger shouldn't fling it.
+	 */
+	private boolean mScaled;
+
+	/**
+	 * Where the current gesture started, and how far a finger can move before
+	 * it isn't a tap.
+	 */
+	private float mDownX, mDownY;
+	private final int mTouchSlop;
+
+	/**
+	 * Draws a frame only when the input or a fling calls for one. The render
+	 * mode can only be set once there is a renderer, in
+	 * {@link #setSetPiece(Buildable)}.
+	 */
+	private final FrameScheduler scheduler = new FrameScheduler(this);
 
 	public TouchSurfaceView(Context context) {
 		super(context);
 		mScaleDetector = new ScaleGestureDetector(context, new ScaleListener());
-		// setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+		mTouchSlop = ViewConfiguration.get(context).getScaledTouchSlop();
 	}
 
 	public TouchSurfaceView(Context context, AttributeSet attrs) {
 		super(context, attrs);
 		mScaleDetector = new ScaleGestureDetector(context, new ScaleListener());
-		// setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+		mTouchSlop = ViewConfiguration.get(context).getScaledTouchSlop();
 	}
 
 	public void setRenderer(SetPieceRenderer renderer) {
@@ -58,18 +77,55 @@ public class TouchSurfaceView extends GLSurfaceView {
 		super.setRenderer(renderer);
 	}
 
+	@Override
+	public void onResume() {
+		super.onResume();
+		scheduler.resume();
+	}
+
+	/**
+	 * Stops drawing, and in a debuggable build, logs how many frames were
+	 * drawn and skipped while the view was showing.
+	 */
+	@Override
+	public void onPause() {
+		super.onPause();
+		scheduler.pause();
+		int flags = getContext().getApplicationInfo().flags;
+		if ((flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+			Log.v("TouchSurfaceView", scheduler.toString());
+		}
+	}
+
 	@Override
 	public boolean onTrackballEvent(MotionEvent e) {
+		scheduler.stopFling();
 		mRenderer.mAngleX += e.getX() * TRACKBALL_SCALE_FACTOR;
 		mRenderer.mAngleY += e.getY() * TRACKBALL_SCALE_FACTOR;
-		requestRender();
+		scheduler.requestFrame();
 		return true;
 	}
 
 	@Override
 	public boolean onTouchEvent(MotionEvent e) {
 		mScaleDetector.onTouchEvent(e);
-		if (!mScaleDetector.isInProgress()) {
+		if (e.getAction() == MotionEvent.ACTION_DOWN) {
+			scheduler.stopFling();
+			mScaled = false;
+			mDownX = e.getX();
+			mDownY = e.getY();
+			if (mVelocityTracker == null) {
+				mVelocityTracker = VelocityTracker.obtain();
+			} else {
+				mVelocityTracker.clear();
+			}
+		}
+		if (mVelocityTracker != null) {
+			mVelocityTracker.addMovement(e);
+		}
+		if (mScaleDetector.isInProgress()) {
+			mScaled = true;
+		} else {
 			float x = e.getX();
 			float y = e.getY();
 			switch (e.getAction()) {
@@ -78,135 +134,116 @@ public class TouchSurfaceView extends GLSurfaceView {
 				float dy = y - mPreviousY;
 				mRenderer.mAngleX += dx * TOUCH_SCALE_FACTOR;
 				mRenderer.mAngleY += dy * TOUCH_SCALE_FACTOR;
+				break;
+			case MotionEvent.ACTION_UP:
+				if (!mScaled && Math.hypot(x - mDownX, y - mDownY) < mTouchSlop) {
+					pick(x, y);
+					break;
+				}
 
+				// Keep turning the set piece at the speed the finger left it
+				if (mVelocityTracker != null && !mScaled) {
+					mVelocityTracker.computeCurrentVelocity(1000);
+					scheduler.fling(mVelocityTracker.getXVelocity()
+							* TOUCH_SCALE_FACTOR, mVelocityTracker.getYVelocity()
+							* TOUCH_SCALE_FACTOR);
+				}
+				break;
 			}
 			mPreviousX = x;
 			mPreviousY = y;
 		}
-		requestRender();
+		int action = e.getAction();
+		if ((action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL)
+				&& mVelocityTracker != null) {
+			mVelocityTracker.recycle();
+			mVelocityTracker = null;
+		}
+		scheduler.requestFrame();
 		return true;
 	}
 
+	/**
+	 * Highlights the board under a point, on the GL thread, where the
+	 * matrices it was last drawn with are.
+	 */
+	private void pick(final float x, final float y) {
+		final SetPieceRenderer renderer = mRenderer;
+		queueEvent(new Runnable() {
+			@Override
+			public void run() {
+				renderer.pick(x, y);
+				scheduler.requestFrame();
+			}
+		});
+	}
+
 	class SetPieceRenderer implements GLSurfaceView.Renderer {
 		protected float mAngleX, mAngleY;
 		private Buildable setPiece;
 		private boolean showLid;
-		List<float[]> vertices, sheetVertices;
+		private final SetPieceMesh mesh;
+
+		/**
+		 * How far a fling has turned the set piece since the last frame.
+		 */
+		private final float[] flingRotation = new float[2];
+
+		private final float[] projection = new float[16];
+		private final float[] modelView = new float[16];
+		private final float[] viewProjection = new float[16];
+		private int width, height;
+
+		/**
+		 * The box the user last tapped, or -1 if none is.
+		 */
+		private int picked = -1;
 
 		public SetPieceRenderer(Buildable setPiece) {
 			this.setPiece = setPiece;
-			vertices = setPiece.toVertices();
-			sheetVertices = setPiece.sheetVertices();
+			mesh = new SetPieceMesh(setPiece.toVertices(),
+					setPiece.sheetVertices());
 			mAngleY = 180;
 		}
 
 		@Override
 		public void onDrawFrame(GL10 gl) {
+			scheduler.beginFrame(flingRotation);
+			mAngleX += flingRotation[0];
+			mAngleY += flingRotation[1];
 
 			// Clears the screen and depth buffer.
 			gl.glClear(GL10.GL_COLOR_BUFFER_BIT | GL10.GL_DEPTH_BUFFER_BIT);
 			gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
 
-			short[] triIndices = { 0, 6, 4, 4, 2, 0, 2, 4, 5, 5, 3, 2, 3, 5, 7,
-					7, 1, 3, 0, 6, 7, 7, 1, 0, 0, 1, 2, 2, 3, 1, 6, 7, 4, 4, 5,
-					7 };
-
-			short[] lineIndices = { 0, 1, 1, 3, 3, 2, 2, 0, 1, 7, 0, 6, 2, 4,
-					3, 5, 6, 7, 7, 5, 5, 4, 4, 6 };
-			gl.glLoadIdentity();
-			gl.glTranslatef(0, 0, scale);
-			gl.glRotatef(mAngleX, 0, 1, 0);
-			gl.glRotatef(mAngleY, 1, 0, 0);
+			// Keep the matrix here as well, for culling and picking
+			Matrix.setIdentityM(modelView, 0);
+			Matrix.translateM(modelView, 0, 0, 0, scale);
+			Matrix.rotateM(modelView, 0, mAngleX, 0, 1, 0);
+			Matrix.rotateM(modelView, 0, mAngleY, 1, 0, 0);
+			gl.glLoadMatrixf(modelView, 0);
+			Matrix.multiplyMM(viewProjection, 0, projection, 0, modelView, 0);
+			mesh.cull(viewProjection);
 
 			gl.glColor4f(0.8f, 0.6f, 0, 1);
-			for (int i = 0; i < vertices.size(); i++) {
-
-				ByteBuffer ibb = ByteBuffer
-						.allocateDirect(triIndices.length * 2);
-				ibb.order(ByteOrder.nativeOrder());
-				ShortBuffer indexBuffer = ibb.asShortBuffer();
-				indexBuffer.put(triIndices);
-				indexBuffer.position(0);
-
-				ByteBuffer vbb = ByteBuffer
-						.allocateDirect(vertices.get(i).length * 4);
-				vbb.order(ByteOrder.nativeOrder());
-				FloatBuffer vertexBuffer = vbb.asFloatBuffer();
-				vertexBuffer.put(vertices.get(i));
-				vertexBuffer.position(0);
-				gl.glVertexPointer(3, GL10.GL_FLOAT, 0, vertexBuffer);
-
-				gl.glDrawElements(GL10.GL_TRIANGLES, triIndices.length,
-						GL10.GL_UNSIGNED_SHORT, indexBuffer);
-
-			}
+			mesh.drawLumber(gl, false);
 
 			gl.glColor4f(0, 0, 0, 1);
-			for (int i = 0; i < vertices.size(); i++) {
-				ByteBuffer vbb = ByteBuffer
-						.allocateDirect(vertices.get(i).length * 4);
-				vbb.order(ByteOrder.nativeOrder());
-				FloatBuffer vertexBuffer = vbb.asFloatBuffer();
-				vertexBuffer.put(vertices.get(i));
-				vertexBuffer.position(0);
-				gl.glVertexPointer(3, GL10.GL_FLOAT, 0, vertexBuffer);
-
-				ByteBuffer ibb = ByteBuffer
-						.allocateDirect(lineIndices.length * 2);
-				ibb.order(ByteOrder.nativeOrder());
-				ShortBuffer indexBuffer = ibb.asShortBuffer();
-				indexBuffer.put(lineIndices);
-				indexBuffer.position(0);
-
-				gl.glDrawElements(GL10.GL_LINES, lineIndices.length,
-						GL10.GL_UNSIGNED_SHORT, indexBuffer);
-			}
+			mesh.drawLumber(gl, true);
 
 			if (showLid) {
 				gl.glColor4f(0.3f, 0.1f, 0.8f, 1);
-				for (int i = 0; i < sheetVertices.size(); i++) {
-
-					ByteBuffer ibb = ByteBuffer
-							.allocateDirect(triIndices.length * 2);
-					ibb.order(ByteOrder.nativeOrder());
-					ShortBuffer indexBuffer = ibb.asShortBuffer();
-					indexBuffer.put(triIndices);
-					indexBuffer.position(0);
-
-					ByteBuffer vbb = ByteBuffer.allocateDirect(sheetVertices
-							.get(i).length * 4);
-					vbb.order(ByteOrder.nativeOrder());
-					FloatBuffer vertexBuffer = vbb.asFloatBuffer();
-					vertexBuffer.put(sheetVertices.get(i));
-					vertexBuffer.position(0);
-					gl.glVertexPointer(3, GL10.GL_FLOAT, 0, vertexBuffer);
-
-					gl.glDrawElements(GL10.GL_TRIANGLES, triIndices.length,
-							GL10.GL_UNSIGNED_SHORT, indexBuffer);
-
-				}
+				mesh.drawSheets(gl, false);
 
 				gl.glColor4f(0, 0, 0, 1);
-				for (int i = 0; i < sheetVertices.size(); i++) {
-					ByteBuffer vbb = ByteBuffer.allocateDirect(sheetVertices
-							.get(i).length * 4);
-					vbb.order(ByteOrder.nativeOrder());
-					FloatBuffer vertexBuffer = vbb.asFloatBuffer();
-					vertexBuffer.put(sheetVertices.get(i));
-					vertexBuffer.position(0);
-					gl.glVertexPointer(3, GL10.GL_FLOAT, 0, vertexBuffer);
-
-					ByteBuffer ibb = ByteBuffer
-							.allocateDirect(lineIndices.length * 2);
-					ibb.order(ByteOrder.nativeOrder());
-					ShortBuffer indexBuffer = ibb.asShortBuffer();
-					indexBuffer.put(lineIndices);
-					indexBuffer.position(0);
-
-					gl.glDrawElements(GL10.GL_LINES, lineIndices.length,
-							GL10.GL_UNSIGNED_SHORT, indexBuffer);
-				}
+				mesh.drawSheets(gl, true);
+			}
 
+			if (picked != -1) {
+				gl.glColor4f(0.9f, 0.1f, 0.1f, 1);
+				mesh.drawBox(gl, picked, false);
+				gl.glColor4f(0, 0, 0, 1);
+				mesh.drawBox(gl, picked, true);
 			}
 			gl.glDisableClientState(GL10.GL_VERTEX_ARRAY);
 			gl.glDisable(GL10.GL_LINE_SMOOTH);
@@ -219,11 +256,14 @@ public class TouchSurfaceView extends GLSurfaceView {
 			gl.glViewport(0, 0, width, height);
 			// Select the projection matrix
 			gl.glMatrixMode(GL10.GL_PROJECTION);
-			// Reset the projection matrix
-			gl.glLoadIdentity();
-			// Calculate the aspect ratio of the window
-			GLU.gluPerspective(gl, 45.0f, (float) width / (float) height, 0.1f,
+			// Load a 45 degree perspective, kept for culling and picking too
+			float top = 0.1f * (float) Math.tan(Math.toRadians(45.0 / 2));
+			float right = top * width / height;
+			Matrix.frustumM(projection, 0, -right, right, -top, top, 0.1f,
 					1000.0f);
+			gl.glLoadMatrixf(projection, 0);
+			this.width = width;
+			this.height = height;
 			// Select the modelview matrix
 			gl.glMatrixMode(GL10.GL_MODELVIEW);
 			// Reset the modelview matrix
@@ -258,11 +298,40 @@ public class TouchSurfaceView extends GLSurfaceView {
 			gl.glHint(GL10.GL_SMOOTH, GL10.GL_NICEST);
 			gl.glLineWidth(2.0f);
 
+			// Any buffers uploaded before went with the old context
+			mesh.upload(gl);
+
 		}
 
 		public void showLid() {
 			showLid = true;
 		}
+
+		/**
+		 * Picks the board under a point on the screen, as of the last frame.
+		 * Tapping where there is no board clears the pick.
+		 */
+		void pick(float x, float y) {
+			float[] inverse = new float[16];
+			if (width == 0 || height == 0
+					|| !Matrix.invertM(inverse, 0, viewProjection, 0)) {
+				return;
+			}
+			float ndcX = 2 * x / width - 1, ndcY = 1 - 2 * y / height;
+			float[] near = unproject(inverse, ndcX, ndcY, -1);
+			float[] far = unproject(inverse, ndcX, ndcY, 1);
+			float[] direction = { far[0] - near[0], far[1] - near[1],
+					far[2] - near[2] };
+			picked = mesh.pick(near, direction, showLid);
+		}
+
+		private float[] unproject(float[] inverse, float x, float y, float z) {
+			float[] point = new float[4];
+			Matrix.multiplyMV(point, 0, inverse, 0, new float[] { x, y, z, 1 },
+					0);
+			return new float[] { point[0] / point[3], point[1] / point[3],
+					point[2] / point[3] };
+		}
 	}
 
 	public void setSetPiece(Buildable setPiece) {
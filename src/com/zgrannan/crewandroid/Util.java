@@ -3,8 +3,10 @@ package com.zgrannan.crewandroid;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectInputStream.GetField;
+import java.io.ObjectOutputStream;
+import java.io.ObjectOutputStream.PutField;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -172,7 +174,8 @@ public class Util {
 		private static final long serialVersionUID = 1L;
 
 		/**
-		 * A list of pieces that a cutlistObject describes.
+		 * No longer used. Kept so that cutlists saved by older versions can
+		 * still be read.
 		 */
 		private List<Piece> pieceList;
 
@@ -188,47 +191,8 @@ public class Util {
 		 *            The array of pieces.
 		 */
 		Cutlist(Piece[] piece) {
-
-			// Generate lists
-			cutlist = new LinkedList<CutlistObject>();
+			cutlist = CutlistAggregator.aggregate(piece);
 			pieceList = new LinkedList<Piece>();
-
-			// Sort the piece array
-			Arrays.sort(piece);
-
-			// Generate a sorted list of pieces
-			for (int i = 0; i < piece.length - 1; i++) {
-				/*
-				 * Don't add the piece if it is a "no sheet" piece.
-				 */
-				if (piece[i].getMaterial().equals(Consumables.noSheet)) {
-					continue;
-				}
-				pieceList.add(piece[i]); // Add this piece to the piecelist
-				if (piece[i + 1] == null)
-
-					/*
-					 * We've reached the end of the piece array
-					 */
-					break;
-				if (piece[i + 1].compareTo(piece[i]) != 0) {
-
-					/*
-					 * If this piece is different than the previous one
-					 */
-					cutlist.add(new CutlistObject(pieceList));
-
-					/*
-					 * Create a cutlistobject from the piecelist, and add it to
-					 * the cutlist
-					 */
-					pieceList = new LinkedList<Piece>(); // Empty the piecelist
-				}
-
-			}
-			// Add the last piece to the piecelist, and add that to the cutlist
-			pieceList.add(piece[piece.length - 1]);
-			cutlist.add(new CutlistObject(pieceList));
 		}
 
 		public String[] getStringArray() {
@@ -264,16 +228,20 @@ public class Util {
 			number = pieces.length;
 
 			// Set the value of names
-			names = "";
+			StringBuilder builder = new StringBuilder();
 			for (int i = 0; i < pieces.length - 1; i++) {
-				names += pieces[i].name + ",";
+				builder.append(pieces[i].name).append(',');
 			}
-			names += pieces[pieces.length - 1].name;
+			builder.append(pieces[pieces.length - 1].name);
+			names = builder.toString();
 		}
 
 		@Override
 		public String toString() {
-			return number + ": " + pieces[0] + " {" + names + "} ";
+			StringBuilder builder = new StringBuilder(32 + names.length());
+			builder.append(number).append(": ");
+			pieces[0].appendTo(builder);
+			return builder.append(" {").append(names).append("} ").toString();
 		}
 	}
 
@@ -519,62 +487,27 @@ public class Util {
 		private static final long serialVersionUID = 1L;
 
 		/**
-		 * Takes a fraction as an integer and returns a simplified string
-		 * representation of it.
-		 * 
-		 * @param fraction
-		 *            An integer representing the numerator of the fraction. The
-		 *            denominator is 16.
-		 * @return A string representing the value of this fraction.
-		 */
-		private static String simplify(int fraction) {
-			// TODO V2 Maybe there's a way to show a fraction in a "pretty" way
-
-			switch (fraction) {
-			case 0:
-				return "0/16";
-			case 1:
-				return "1/16";
-			case 2:
-				return "1/8";
-			case 3:
-				return "3/16";
-			case 4:
-				return "1/4";
-			case 5:
-				return "5/16";
-			case 6:
-				return "3/8";
-			case 7:
-				return "7/16";
-			case 8:
-				return "1/2";
-			case 9:
-				return "9/16";
-			case 10:
-				return "5/8";
-			case 11:
-				return "11/16";
-			case 12:
-				return "3/4";
-			case 13:
-				return "13/16";
-			case 14:
-				return "7/8";
-			case 15:
-				return "15/16";
-			default:
-				return "error";
-			}
-		}
+		 * Dimensions are stored as a single count of sixteenths, but are
+		 * written to streams as feet, inches and a fraction so that data saved
+		 * by older versions can still be read, and vice versa.
+		 */
+		private static final ObjectStreamField[] serialPersistentFields = {
+				new ObjectStreamField("hasContent", Boolean.TYPE),
+				new ObjectStreamField("negative", Boolean.TYPE),
+				new ObjectStreamField("feet", Integer.TYPE),
+				new ObjectStreamField("inches", Integer.TYPE),
+				new ObjectStreamField("fraction", Integer.TYPE) };
 
 		/**
 		 * If hasContent is false, then this is just a wrapper for a dimension
 		 * that will exist one day.
 		 */
 		private boolean hasContent = true;
-		private boolean negative = false;
-		private int feet, inches, fraction;
+
+		/**
+		 * The value of this dimension, in sixteenths of an inch.
+		 */
+		private transient long sixteenths;
 
 		/**
 		 * Creates an empty dimension. Dimensions should always be initialized.
@@ -591,11 +524,7 @@ public class Util {
 		 */
 		public Dimension(Dimension other) {
 			hasContent = true;
-			feet = other.feet;
-			inches = other.inches;
-			fraction = other.fraction;
-			negative = other.negative;
-			check();
+			sixteenths = other.sixteenths;
 		}
 
 		/**
@@ -609,6 +538,17 @@ public class Util {
 			setDimension(input);
 		}
 
+		/**
+		 * Create a dimension from a length.
+		 * 
+		 * @param length
+		 *            The length that this dimension will be created from.
+		 */
+		public Dimension(Length length) {
+			hasContent = true;
+			sixteenths = length.getSixteenths();
+		}
+
 		/**
 		 * Create a dimension from a feet,inches,fraction and ensures that the
 		 * dimension is formatted properly.
@@ -621,10 +561,7 @@ public class Util {
 		 */
 		public Dimension(int feet, int inches, int fraction) {
 			hasContent = true;
-			this.feet = feet;
-			this.inches = inches;
-			this.fraction = fraction;
-			check();
+			sixteenths = Length.toSixteenths(feet, inches, fraction);
 		}
 
 		/**
@@ -643,8 +580,9 @@ public class Util {
 		 */
 		public Dimension(int feet, int inches, int fraction, boolean negative) {
 			this(feet, inches, fraction);
-			this.negative = negative;
-			check();
+			if (negative) {
+				sixteenths = -Math.abs(sixteenths);
+			}
 		}
 
 		/**
@@ -654,33 +592,8 @@ public class Util {
 		 *            The dimension that will be added to this one.
 		 */
 		public void add(Dimension dim) {
-			setDimension(toDouble() + dim.toDouble());
-		}
-
-		/**
-		 * Properly formats the dimension.
-		 */
-		public void check() {
-
-			if (toDouble() < 0 ^ negative) {
-				negative = true;
-			}
-			if (fraction > 15) {
-				inches += fraction / 16;
-				fraction %= 16;
-			}
-			if (inches > 11) {
-				feet += inches / 12;
-				inches %= 12;
-			}
-			while (fraction < 0) {
-				inches -= 1;
-				fraction += 16;
-			}
-			while (inches < 0) {
-				feet -= 1;
-				inches += 12;
-			}
+			hasContent = true;
+			sixteenths += dim.sixteenths;
 		}
 
 		/**
@@ -692,7 +605,8 @@ public class Util {
 		public void divide(double number) throws DivideByZeroException {
 			if (number == 0)
 				throw new DivideByZeroException(":-(");
-			setDimension(toDouble() / number);
+			hasContent = true;
+			sixteenths = Length.scale(sixteenths, 1.0 / number);
 		}
 
 		/**
@@ -707,7 +621,7 @@ public class Util {
 		public boolean equals(Dimension other) {
 			if (!hasContent)
 				return other.equals(0);
-			return toDouble() == other.toDouble();
+			return sixteenths == other.sixteenths;
 		}
 
 		/**
@@ -724,7 +638,7 @@ public class Util {
 		}
 
 		public int getFeet() {
-			return feet;
+			return Length.feetOf(sixteenths);
 		}
 
 		/**
@@ -734,23 +648,31 @@ public class Util {
 		 *         denominator is 16.
 		 */
 		public int getFraction() {
-			return fraction;
+			return Length.fractionOf(sixteenths);
 		}
 
 		public int getInches() {
-			return inches;
+			return Length.inchesOf(sixteenths);
+		}
+
+		/**
+		 * Returns the value of this dimension as a whole number of sixteenths
+		 * of an inch.
+		 */
+		public long getSixteenths() {
+			return sixteenths;
 		}
 
 		public boolean greaterThan(Dimension other) {
-			return toDouble() > other.toDouble();
+			return sixteenths > other.sixteenths;
 		}
 
 		public boolean isNegative() {
-			return negative;
+			return sixteenths < 0;
 		}
 
 		public boolean lessThan(Dimension other) {
-			return toDouble() < other.toDouble();
+			return sixteenths < other.sixteenths;
 		}
 
 		/**
@@ -759,14 +681,17 @@ public class Util {
 		 * @param number
 		 */
 		public void multiply(double number) {
-			setDimension(toDouble() * number);
+			hasContent = true;
+			sixteenths = Length.scale(sixteenths, number);
 		}
 
 		/**
 		 * Returns a dimension that is the negative version of this one
 		 */
 		public Dimension negative() {
-			return new Dimension(0 - toDouble());
+			Dimension result = new Dimension();
+			result.setSixteenths(-sixteenths);
+			return result;
 		}
 
 		/**
@@ -777,25 +702,19 @@ public class Util {
 		 *            The number that the dimension will be set from.
 		 */
 		public void setDimension(double input) {
-
 			hasContent = true;
-			input = Util.round(input, C.SIGDIM);
-
-			feet = 0;
-			inches = 0;
-			fraction = 0;
-			if (input < 0) {
-				negative = true;
-				input = Math.abs(input);
-			} else {
-				negative = false;
-			}
-			feet = (int) (input / 12);
-			input %= 12;
-			inches = (int) input;
-			input -= (int) input;
-			fraction = (int) (16 * input);
+			sixteenths = Length.toSixteenths(input);
+		}
 
+		/**
+		 * Sets the dimension from a whole number of sixteenths of an inch.
+		 * 
+		 * @param sixteenths
+		 *            The value of the dimension, in sixteenths.
+		 */
+		public void setSixteenths(long sixteenths) {
+			hasContent = true;
+			this.sixteenths = sixteenths;
 		}
 
 		/**
@@ -805,7 +724,8 @@ public class Util {
 		 *            The dimension that will be subtracted.
 		 */
 		public void subtract(Dimension dim) {
-			setDimension(toDouble() - dim.toDouble());
+			hasContent = true;
+			sixteenths -= dim.sixteenths;
 		}
 
 		/**
@@ -815,8 +735,7 @@ public class Util {
 		 * @return
 		 */
 		public double toDouble() {
-			double value = (double) feet * 12 + inches + (double) fraction / 16;
-			return negative ? 0 - value : value;
+			return Length.toInches(sixteenths);
 		}
 
 		/**
@@ -826,7 +745,15 @@ public class Util {
 		 * @return
 		 */
 		public float toFloat() {
-			return (float) toDouble();
+			return (float) sixteenths / Length.PER_INCH;
+		}
+
+		/**
+		 * Returns the immutable length that this dimension currently
+		 * represents.
+		 */
+		public Length toLength() {
+			return Length.of(sixteenths);
 		}
 
 		/**
@@ -837,38 +764,22 @@ public class Util {
 			if (!hasContent) {
 				return "No Dimension";
 			}
-			String value = "";
-			if (feet != 0) {
-				value += feet + "' ";
-				if (inches != 0) {
-					value += inches;
-					if (fraction != 0) {
-						value += " + " + simplify(fraction) + "\"";
-					} else {
-						value += "\"";
-					}
-				} else {
-					if (fraction != 0) {
-						value += "0 + " + simplify(fraction) + "\"";
-					}
-				}
-			} else {
-				if (inches != 0) {
-					value += inches;
-					if (fraction != 0) {
-						value += " + " + simplify(fraction) + "\"";
-					} else {
-						value += "\"";
-					}
-				} else {
-					if (fraction != 0) {
-						value += simplify(fraction) + "\"";
-					} else {
-						value = "0\"";
-					}
-				}
+			return DimensionFormat.format(sixteenths);
+		}
+
+		/**
+		 * Appends the pretty string representing this dimension to a
+		 * {@link StringBuilder}, without creating a new string.
+		 * 
+		 * @param builder
+		 *            The builder that will be appended to.
+		 * @return The builder, for chaining.
+		 */
+		public StringBuilder appendTo(StringBuilder builder) {
+			if (!hasContent) {
+				return builder.append("No Dimension");
 			}
-			return value;
+			return DimensionFormat.appendTo(builder, sixteenths);
 		}
 
 		/**
@@ -880,7 +791,7 @@ public class Util {
 		 */
 		public void setValue(Dimension other) {
 			hasContent = true;
-			setDimension(other.toDouble());
+			sixteenths = other.sixteenths;
 		}
 
 		/**
@@ -893,17 +804,30 @@ public class Util {
 		}
 
 		public Dimension positive() {
-			return new Dimension(Math.abs(this.toDouble()));
+			Dimension result = new Dimension();
+			result.setSixteenths(Math.abs(sixteenths));
+			return result;
 		}
 
-		protected void readObject(ObjectInputStream in) throws IOException,
-				ClassNotFoundException, BuildException {
+		private void writeObject(ObjectOutputStream out) throws IOException {
+			PutField field = out.putFields();
+			field.put("hasContent", hasContent);
+			field.put("negative", sixteenths < 0);
+			field.put("feet", getFeet());
+			field.put("inches", getInches());
+			field.put("fraction", getFraction());
+			out.writeFields();
+		}
+
+		private void readObject(ObjectInputStream in) throws IOException,
+				ClassNotFoundException {
 			GetField field = in.readFields();
-			feet = field.get("feet", 0);
-			inches = field.get("inches", 0);
-			fraction = field.get("fraction", 0);
-			negative = field.get("negative", false);
-			hasContent = true;
+			hasContent = field.get("hasContent", true);
+			sixteenths = Length.toSixteenths(field.get("feet", 0),
+					field.get("inches", 0), field.get("fraction", 0));
+			if (field.get("negative", false)) {
+				sixteenths = -Math.abs(sixteenths);
+			}
 		}
 
 	}
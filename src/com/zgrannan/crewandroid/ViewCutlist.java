@@ -4,6 +4,7 @@ import android.app.ListActivity;
 import android.content.Intent;
 import android.os.Bundle;
 import android.widget.ArrayAdapter;
+import android.widget.Toast;
 
 import com.zgrannan.crewandroid.Util.Cutlist;
 
@@ -16,11 +17,39 @@ public class ViewCutlist extends ListActivity {
 		Intent intent = getIntent();
 
 		// Get the cutlist from an intent
-		Cutlist cutlist = (Cutlist) intent.getSerializableExtra("cutlist");
+		Cutlist cutlist = (Cutlist) HandleRegistry.get(intent, "cutlist");
+		if (cutlist == null) {
+			/*
+			 * The application was closed since the cutlist was made, so make
+			 * it again.
+			 */
+			Buildable setPiece = HandleRegistry.newSetPiece(intent, "cutlist");
+			if (setPiece == null) {
+				Toast.makeText(getBaseContext(),
+						getString(R.string.set_piece_could_not_be_opened),
+						Toast.LENGTH_LONG).show();
+				finish();
+				return;
+			}
+			setPiece.makeOrRestore(getBaseContext());
+			cutlist = setPiece.getCutlist();
+		}
 
 		// Populate the UI with the stringArray from the cutlist
 		setListAdapter(new ArrayAdapter<String>(this, R.layout.cutlist_items,
 				cutlist.getStringArray()));
 
 	}
+
+	/**
+	 * Lets go of the cutlist this activity was opened with, if it is
+	 * finishing.
+	 */
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		if (isFinishing()) {
+			HandleRegistry.release(getIntent(), "cutlist");
+		}
+	}
 }
@@ -8,6 +8,7 @@ import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.Button;
 import android.widget.TextView;
+import android.widget.Toast;
 
 public class ViewDiagram extends Activity {
 	CustomDrawableView diagram;
@@ -26,9 +27,16 @@ public class ViewDiagram extends Activity {
 
 		// Load the set piece from the intent
 		Intent intent = getIntent();
-		Buildable setpiece = (Buildable) intent
-				.getSerializableExtra("setpiece");
-		setpiece.make(context);
+		Buildable setpiece = HandleRegistry.getSetPiece(intent, "setpiece");
+		if (setpiece == null) {
+			Toast.makeText(getBaseContext(),
+					getString(R.string.set_piece_could_not_be_opened),
+					Toast.LENGTH_LONG).show();
+			finish();
+			return;
+		}
+		if (!setpiece.isMade())
+			setpiece.makeOrRestore(context);
 
 		// Set the title with the name of the set piece
 		diagramText.setText(getString(R.string.diagram) + ": "
@@ -46,4 +54,16 @@ public class ViewDiagram extends Activity {
 			}
 		});
 	}
+
+	/**
+	 * Lets go of the set piece this activity was opened with, if it is
+	 * finishing.
+	 */
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		if (isFinishing()) {
+			HandleRegistry.release(getIntent(), "setpiece");
+		}
+	}
 }
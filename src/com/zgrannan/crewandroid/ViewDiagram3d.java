@@ -7,6 +7,7 @@ import android.os.Bundle;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.Button;
+import android.widget.Toast;
 
 public class ViewDiagram3d extends Activity {
 	TouchSurfaceView view;
@@ -20,8 +21,16 @@ public class ViewDiagram3d extends Activity {
 		view = (TouchSurfaceView) findViewById(R.id.diagram3d);
 
 		Intent intent = getIntent();
-		setPiece = (Buildable) intent.getSerializableExtra("setpiece");
-		setPiece.make(context);
+		setPiece = HandleRegistry.getSetPiece(intent, "setpiece");
+		if (setPiece == null) {
+			Toast.makeText(getBaseContext(),
+					getString(R.string.set_piece_could_not_be_opened),
+					Toast.LENGTH_LONG).show();
+			finish();
+			return;
+		}
+		if (!setPiece.isMade())
+			setPiece.makeOrRestore(context);
 		float scale = (float) Math.abs(Math.min(view.getHeight()
 				/ setPiece.getHeight().toDouble(), view.getWidth()
 				/ setPiece.getWidth().toDouble()) * 2 / 3);
@@ -37,4 +46,28 @@ public class ViewDiagram3d extends Activity {
 		});
 	}
 
+	@Override
+	protected void onPause() {
+		super.onPause();
+		view.onPause();
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+		view.onResume();
+	}
+
+	/**
+	 * Lets go of the set piece this activity was opened with, if it is
+	 * finishing.
+	 */
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		if (isFinishing()) {
+			HandleRegistry.release(getIntent(), "setpiece");
+		}
+	}
+
 }
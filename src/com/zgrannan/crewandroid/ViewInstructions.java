@@ -8,6 +8,7 @@ import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.Button;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.zgrannan.crewandroid.Pieces.Piece;
 import com.zgrannan.crewandroid.Util.Instruction;
@@ -48,8 +49,22 @@ public class ViewInstructions extends Activity {
 
 		// Load the setpiece from intent
 		Intent intent = getIntent();
-		setpiece = (Buildable) intent.getSerializableExtra("setpiece");
-		setpiece.make(context);
+		setpiece = HandleRegistry.getSetPiece(intent, "setpiece");
+		if (setpiece == null) {
+			Toast.makeText(getBaseContext(),
+					getString(R.string.set_piece_could_not_be_opened),
+					Toast.LENGTH_LONG).show();
+			finish();
+			return;
+		}
+		if (!setpiece.isMade())
+			setpiece.makeOrRestore(context);
+
+		/*
+		 * The set piece is shared with the activity that opened this one, so
+		 * start the instructions from the beginning.
+		 */
+		setpiece.resetInstructions();
 		diagram = (CustomDrawableView) findViewById(R.id.diagram);
 
 		/*
@@ -110,6 +125,7 @@ public class ViewInstructions extends Activity {
 				Instruction i = setpiece.getInstruction(currentStep);
 				instructionText.setText(i.getInstruction());
 				setpiece.parseInstruction(i);
+				diagram.piecesChanged();
 				previousButton.setVisibility(View.VISIBLE);
 				if (currentStep == numSteps - 1) {
 					nextButton.setText(getString(R.string.done));
@@ -152,6 +168,7 @@ public class ViewInstructions extends Activity {
 					Instruction temp = setpiece.getInstruction(i);
 					setpiece.parseInstruction(temp);
 				}
+				diagram.piecesChanged();
 				Instruction instr = setpiece.getInstruction(currentStep);
 				instructionText.setText(instr.getInstruction());
 				nextButton.setVisibility(View.VISIBLE);
@@ -178,4 +195,16 @@ public class ViewInstructions extends Activity {
 		state.putInt("currentStep", currentStep);
 	}
 
+	/**
+	 * Lets go of the set piece this activity was opened with, if it is
+	 * finishing.
+	 */
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		if (isFinishing()) {
+			HandleRegistry.release(getIntent(), "setpiece");
+		}
+	}
+
 }
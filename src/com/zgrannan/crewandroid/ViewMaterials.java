@@ -6,6 +6,9 @@ import pl.polidea.sectionedlist.SectionListItem;
 import pl.polidea.sectionedlist.SectionListView;
 
 import com.zgrannan.crewandroid.Consumables.Material;
+import com.zgrannan.crewandroid.Consumables.WoodStick;
+
+import java.util.ArrayList;
 
 import android.app.Activity;
 import android.app.ListActivity;
@@ -80,13 +83,23 @@ public class ViewMaterials extends Activity {
 		final Activity activity = this;
 		super.onCreate(savedInstanceState);
 		
-		SectionListItem[] materials = new SectionListItem[Consumables.woodstickForManage.length + Consumables.sheetForManage.length];
+		Material[] extras = MaterialCatalog.getExtraMaterials();
+		ArrayList<SectionListItem> items = new ArrayList<SectionListItem>();
 		for (int i = 0; i < Consumables.woodstickForManage.length; i ++){
-			materials[i] = new SectionListItem(Consumables.woodstickForManage[i],getString(R.string.frame_materials));
+			items.add(new SectionListItem(Consumables.woodstickForManage[i],getString(R.string.frame_materials)));
+		}
+		for (Material extra : extras) {
+			if (extra instanceof WoodStick)
+				items.add(new SectionListItem(extra, getString(R.string.frame_materials)));
 		}
 		for (int i = 0; i < Consumables.sheetForManage.length; i++){
-			materials[i + Consumables.woodstickForManage.length] = new SectionListItem(Consumables.sheetForManage[i],getString(R.string.lid_materials));
+			items.add(new SectionListItem(Consumables.sheetForManage[i],getString(R.string.lid_materials)));
+		}
+		for (Material extra : extras) {
+			if (!(extra instanceof WoodStick))
+				items.add(new SectionListItem(extra, getString(R.string.lid_materials)));
 		}
+		SectionListItem[] materials = items.toArray(new SectionListItem[items.size()]);
 		 setContentView(R.layout.materials);
 	    arrayAdapter = new StandardArrayAdapter(this, R.id.material_text_view,
 	                materials);
@@ -0,0 +1,391 @@
+package com.zgrannan.crewandroid;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.zgrannan.crewandroid.Util.Dimension;
+
+/**
+ * Checks that a {@link SetPieceLog} keeps the saved set pieces through the
+ * things that are hard to make happen by hand: the application dying halfway
+ * through writing a record, an index that doesn't match its log, and set
+ * pieces saved and deleted while the log is being compacted. It lives outside
+ * src so it isn't packaged with the application, and is run on a desktop JVM
+ * against the compiled classes, with android.jar on the class path:
+ *
+ * <pre>
+ * javac -cp bin/classes:android.jar -d bin/tools tools/com/zgrannan/crewandroid/SetPieceLogCheck.java
+ * java -cp bin/classes:bin/tools:android.jar com.zgrannan.crewandroid.SetPieceLogCheck [directory]
+ * </pre>
+ *
+ * The logs are written to the given directory, or the system's temporary
+ * directory. Each check is printed as it passes, and the first one that fails
+ * throws an {@link IllegalStateException}.
+ *
+ * @author Zack Grannan
+ * @version 0.98
+ *
+ */
+public final class SetPieceLogCheck {
+
+	/**
+	 * How long to wait for a compaction to finish, in milliseconds.
+	 */
+	private static final long COMPACTION_TIMEOUT = 10000;
+
+	private final File directory;
+
+	private SetPieceLogCheck(File directory) {
+		this.directory = directory;
+	}
+
+	public static void main(String[] args) throws IOException {
+		File directory = new File(args.length > 0 ? args[0]
+				: System.getProperty("java.io.tmpdir"));
+		SetPieceLogCheck check = new SetPieceLogCheck(directory);
+		check.reopen();
+		check.tornTail();
+		check.damagedTail();
+		check.staleIndex();
+		check.foreignIndex();
+		check.truncatedIndex();
+		check.compaction();
+		System.out.println("All checks passed");
+	}
+
+	/**
+	 * Saves and deletes some set pieces, and reads them back after opening
+	 * the log again.
+	 */
+	private void reopen() throws IOException {
+		File file = newLog("reopen");
+		Map<String, Long> expected = new LinkedHashMap<String, Long>();
+		SetPieceLog log = open(file);
+		put(log, expected, "a", 12);
+		put(log, expected, "b", 24);
+		put(log, expected, "c", 36);
+		delete(log, expected, "b");
+		put(log, expected, "a", 48);
+		verify(log, expected, "before closing");
+		log.close();
+
+		log = open(file);
+		verify(log, expected, "after opening again");
+		log.close();
+		deleteLog(file);
+		passed("reopen");
+	}
+
+	/**
+	 * Cuts the last record in half, as if the application died while writing
+	 * it. The log should lose just that record, and take new ones after the
+	 * last good one.
+	 */
+	private void tornTail() throws IOException {
+		File file = newLog("torn");
+		Map<String, Long> expected = new LinkedHashMap<String, Long>();
+		SetPieceLog log = open(file);
+		put(log, expected, "a", 12);
+		put(log, expected, "b", 24);
+		log.close();
+		long good = file.length();
+
+		log = open(file);
+		put(log, new LinkedHashMap<String, Long>(), "c", 36);
+		log.close();
+		truncate(file, good + (file.length() - good) / 2);
+
+		log = open(file);
+		verify(log, expected, "after a torn record");
+		check(file.length() == good, "the torn record wasn't cut off: "
+				+ file.length() + " bytes, expected " + good);
+		put(log, expected, "d", 48);
+		log.close();
+
+		log = open(file);
+		verify(log, expected, "after saving past a torn record");
+		log.close();
+		deleteLog(file);
+		passed("torn tail");
+	}
+
+	/**
+	 * Damages the checksum of the last record. The log should lose just that
+	 * record.
+	 */
+	private void damagedTail() throws IOException {
+		File file = newLog("damaged");
+		Map<String, Long> expected = new LinkedHashMap<String, Long>();
+		SetPieceLog log = open(file);
+		put(log, expected, "a", 12);
+		log.close();
+		long good = file.length();
+
+		log = open(file);
+		put(log, new LinkedHashMap<String, Long>(), "b", 24);
+		log.close();
+		new File(file.getPath() + ".idx").delete();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(raf.length() - 1);
+			int last = raf.read();
+			raf.seek(raf.length() - 1);
+			raf.write(last ^ 0xFF);
+		} finally {
+			raf.close();
+		}
+
+		log = open(file);
+		verify(log, expected, "after a damaged record");
+		check(file.length() == good, "the damaged record wasn't cut off");
+		log.close();
+		deleteLog(file);
+		passed("damaged tail");
+	}
+
+	/**
+	 * Copies a log while it is open, as if the application died after the
+	 * index was last written. The records saved since have to be read from
+	 * the log.
+	 */
+	private void staleIndex() throws IOException {
+		File file = newLog("stale");
+		Map<String, Long> expected = new LinkedHashMap<String, Long>();
+		SetPieceLog log = open(file);
+		put(log, expected, "a", 12);
+		put(log, expected, "b", 24);
+		log.close();
+
+		log = open(file);
+		put(log, expected, "c", 36);
+		delete(log, expected, "a");
+		put(log, expected, "b", 60);
+		File crashed = newLog("stale-crashed");
+		copyLog(file, crashed);
+		log.close();
+
+		log = open(crashed);
+		verify(log, expected, "with an index from before the last saves");
+		log.close();
+		deleteLog(file);
+		deleteLog(crashed);
+		passed("stale index");
+	}
+
+	/**
+	 * Puts the index of another log next to a log. The index shouldn't be
+	 * used.
+	 */
+	private void foreignIndex() throws IOException {
+		File file = newLog("foreign");
+		File other = newLog("foreign-other");
+		Map<String, Long> expected = new LinkedHashMap<String, Long>();
+		SetPieceLog log = open(file);
+		put(log, expected, "a", 12);
+		put(log, expected, "b", 24);
+		log.close();
+		log = open(other);
+		put(log, new LinkedHashMap<String, Long>(), "x", 96);
+		log.close();
+
+		// Shorter, so the index is only turned down by its checksum
+		check(other.length() < file.length(),
+				"the other log is too long to test with");
+		copy(new File(other.getPath() + ".idx"), new File(file.getPath()
+				+ ".idx"));
+
+		log = open(file);
+		verify(log, expected, "with the index of another log");
+		log.close();
+		deleteLog(file);
+		deleteLog(other);
+		passed("foreign index");
+	}
+
+	/**
+	 * Cuts the index short. The index shouldn't be used.
+	 */
+	private void truncatedIndex() throws IOException {
+		File file = newLog("truncated");
+		Map<String, Long> expected = new LinkedHashMap<String, Long>();
+		SetPieceLog log = open(file);
+		put(log, expected, "a", 12);
+		put(log, expected, "b", 24);
+		put(log, expected, "c", 36);
+		log.close();
+		File index = new File(file.getPath() + ".idx");
+		truncate(index, index.length() - 10);
+
+		log = open(file);
+		verify(log, expected, "with a truncated index");
+		log.close();
+		deleteLog(file);
+		passed("truncated index");
+	}
+
+	/**
+	 * Overwrites a few set pieces until the log is compacted, saving and
+	 * deleting set pieces the whole time, so some of them are written while
+	 * the compaction copies the log.
+	 */
+	private void compaction() throws IOException {
+		File file = newLog("compaction");
+		Map<String, Long> expected = new LinkedHashMap<String, Long>();
+		SetPieceLog log = open(file);
+		for (int i = 0; i < 10; i++) {
+			put(log, expected, "keep-" + i, 12 * (i + 1));
+		}
+
+		long deadline = System.currentTimeMillis() + COMPACTION_TIMEOUT;
+		long length = file.length();
+		int churn = 0;
+		// The log only gets shorter when a compaction replaces it
+		while (file.length() >= length) {
+			check(System.currentTimeMillis() < deadline,
+					"the log wasn't compacted");
+			length = file.length();
+			put(log, expected, "churn-" + churn % 5, 16 * churn + 1);
+			if (churn % 7 == 3) {
+				delete(log, expected, "churn-" + churn % 5);
+			}
+			churn++;
+		}
+		put(log, expected, "late", 240);
+		put(log, expected, "keep-1", 480);
+		delete(log, expected, "keep-2");
+		verify(log, expected, "right after compacting");
+		put(log, expected, "after", 360);
+		delete(log, expected, "keep-3");
+		verify(log, expected, "after saving into the compacted log");
+		log.close();
+
+		log = open(file);
+		verify(log, expected, "after opening the compacted log");
+		log.close();
+		deleteLog(file);
+		passed("compaction");
+	}
+
+	private File newLog(String name) {
+		File file = new File(directory, "SetPieceLogCheck-" + name);
+		deleteLog(file);
+		return file;
+	}
+
+	private static void deleteLog(File file) {
+		file.delete();
+		new File(file.getPath() + ".idx").delete();
+		new File(file.getPath() + ".idx.tmp").delete();
+		new File(file.getPath() + ".compact").delete();
+	}
+
+	private static SetPieceLog open(File file) throws IOException {
+		SetPieceLog log = new SetPieceLog(file);
+		log.load();
+		return log;
+	}
+
+	/**
+	 * Saves a platform whose length stands for its contents, and notes it
+	 * down.
+	 */
+	private static void put(SetPieceLog log, Map<String, Long> expected,
+			String filename, long length) throws IOException {
+		Platform platform = new Platform();
+		platform.setFilename(filename);
+		platform.length = new Dimension(length);
+		platform.width = new Dimension(48);
+		platform.woodstick = Consumables.twoByFour;
+		platform.sheet = Consumables.threeQuartersPly;
+		log.put(platform);
+		expected.remove(filename);
+		expected.put(filename, new Dimension(length).getSixteenths());
+	}
+
+	private static void delete(SetPieceLog log, Map<String, Long> expected,
+			String filename) throws IOException {
+		log.delete(filename);
+		expected.remove(filename);
+	}
+
+	/**
+	 * Checks that a log holds just the expected set pieces, in order, both in
+	 * its infos and in the records they point to.
+	 */
+	private static void verify(SetPieceLog log, Map<String, Long> expected,
+			String when) throws IOException {
+		List<String> filenames = new ArrayList<String>();
+		for (SetPieceInfo info : log.getInfos()) {
+			filenames.add(info.getFilename());
+		}
+		check(filenames.equals(new ArrayList<String>(expected.keySet())),
+				"expected " + expected.keySet() + " " + when + ", found "
+						+ filenames);
+		for (Map.Entry<String, Long> entry : expected.entrySet()) {
+			String filename = entry.getKey();
+			long length = entry.getValue();
+			check(log.getInfo(filename).getLength().getSixteenths() == length,
+					"the info of " + filename + " is wrong " + when);
+			Buildable setPiece = log.read(filename);
+			check(setPiece != null
+					&& filename.equals(setPiece.getFilename())
+					&& setPiece.length.getSixteenths() == length, filename
+					+ " reads back wrong " + when);
+		}
+	}
+
+	private static void truncate(File file, long length) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(length);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Copies a log and its index, if it has one.
+	 */
+	private static void copyLog(File from, File to) throws IOException {
+		copy(from, to);
+		File index = new File(from.getPath() + ".idx");
+		if (index.exists()) {
+			copy(index, new File(to.getPath() + ".idx"));
+		}
+	}
+
+	private static void copy(File from, File to) throws IOException {
+		FileInputStream in = new FileInputStream(from);
+		try {
+			FileOutputStream out = new FileOutputStream(to);
+			try {
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) > 0) {
+					out.write(buffer, 0, read);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new IllegalStateException(message);
+		}
+	}
+
+	private static void passed(String name) {
+		System.out.println("ok: " + name);
+	}
+}